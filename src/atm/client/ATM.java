@@ -2,6 +2,10 @@ package atm.client;
 
 
 import atm.protocol.ClientConnection;
+import atm.protocol.messages.AccountOperationMessage;
+import atm.protocol.messages.BatchMessage;
+
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Created by IntelliJ IDEA.
@@ -27,6 +31,20 @@ public class ATM {
         }
     }
 
+    /**
+     * Sends the login without waiting for the server to check the credentials; operations may
+     * be issued once the future completes.
+     *
+     * @return future completing with whether the login was accepted
+     */
+    public CompletableFuture<Boolean> loginAsync(String userId, byte[] credentials) {
+        currentUser = userId;
+        return clientTransport.sendLoginAsync(userId, credentials).thenApply((id) -> {
+            sessionId = id;
+            return id >= 0;
+        });
+    }
+
     public void logout() {
         clientTransport.sendLogout(currentUser, sessionId);
         currentUser = null;
@@ -48,5 +66,24 @@ public class ATM {
     public double getAccountValue() {
         return clientTransport.getAccountValue(sessionId);
     }
-}
 
+    public CompletableFuture<Boolean> withdrawAsync(double amount) {
+        return clientTransport.withdrawAsync(sessionId, amount);
+    }
+
+    public CompletableFuture<Boolean> increaseAsync(double amount) {
+        return clientTransport.increaseAsync(sessionId, amount);
+    }
+
+    public CompletableFuture<Boolean> transferToAsync(double amount, String accountId) {
+        return clientTransport.transferToAsync(sessionId, amount, accountId);
+    }
+
+    public CompletableFuture<Double> getAccountValueAsync() {
+        return clientTransport.getAccountValueAsync(sessionId);
+    }
+
+    public CompletableFuture<BatchMessage> submitBatchAsync(AccountOperationMessage... operations) {
+        return clientTransport.submitBatchAsync(sessionId, operations);
+    }
+}
@@ -2,13 +2,16 @@ package atm.client;
 
 import atm.protocol.*;
 import atm.protocol.messages.AccountOperationMessage;
+import atm.protocol.messages.BatchMessage;
 import atm.protocol.messages.LogonMessage;
 import atm.protocol.messages.ProtocolMessage;
 import atm.protocol.messages.ProtocolMessageType;
 
+import atm.util.ConcurrentLongObjectHashMap;
+
 import java.security.MessageDigest;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by IntelliJ IDEA.
@@ -19,8 +22,11 @@ import java.util.concurrent.BlockingQueue;
  */
 public class ClientTransport implements MessageListener, SessionListener {
     private static final byte[] EMPTY_CREDS = new byte[0];
+    private static final ThreadLocal<AccountOperationMessage> REQUEST =
+            ThreadLocal.withInitial(AccountOperationMessage::new);
     private final ClientConnection protocol;
-    private final BlockingQueue<ProtocolMessage> responseQueue = new ArrayBlockingQueue<>(1);
+    private final ConcurrentLongObjectHashMap<CompletableFuture<ProtocolMessage>> pendingRequests = new ConcurrentLongObjectHashMap<>();
+    private final AtomicLong correlationIdGen = new AtomicLong();
 
     public ClientTransport(ClientConnection connection) {
         protocol = connection;
@@ -35,13 +41,16 @@ public class ClientTransport implements MessageListener, SessionListener {
     public void connect() {}
 
     long sendLogin(String userId, byte[] credentials) {
+        return sendLoginAsync(userId, credentials).join();
+    }
+
+    CompletableFuture<Long> sendLoginAsync(String userId, byte[] credentials) {
         protocol.connect();
         LogonMessage message = new LogonMessage();
         message.messageType = ProtocolMessageType.LOGIN;
         message.userId = userId;
         message.credentials = encodeCredentials(credentials);
-        protocol.sendMessage(message);
-        return processLogonBack();
+        return request(message).thenApply(ClientTransport::toSessionId);
     }
 
     void sendLogout(String userId, long sessionId) {
@@ -53,76 +62,123 @@ public class ClientTransport implements MessageListener, SessionListener {
         protocol.disconnect();
     }
 
-    protected long processLogonBack() {
-        long res = -1;
-        ProtocolMessage message = getMessageBack();
-        if (message != null && message.messageType.equals(ProtocolMessageType.LOGIN)) {
-            res = ((LogonMessage) message).sessionId;
+    protected static long toSessionId(ProtocolMessage message) {
+        if (message.messageType.equals(ProtocolMessageType.LOGIN)) {
+            return ((LogonMessage) message).sessionId;
         }
-        return res;
+        return -1;
     }
 
-    protected double processGetValueBack() {
-        double res = Double.NaN;
-        ProtocolMessage message = getMessageBack();
-        if (message != null && message.messageType.equals(ProtocolMessageType.GETVALUE)) {
-            res = ((AccountOperationMessage) message).amount;
+    protected static double toValue(ProtocolMessage message) {
+        if (message.messageType.equals(ProtocolMessageType.GETVALUE)) {
+            return ((AccountOperationMessage) message).amount;
         }
-        return res;
+        return Double.NaN;
     }
 
-    protected void processAck() {
-        ProtocolMessage message = getMessageBack();
+    protected static boolean toAck(ProtocolMessage message) {
+        return message.messageType.equals(ProtocolMessageType.ACK);
     }
 
-    private ProtocolMessage getMessageBack() {
+    protected static BatchMessage toBatchResult(ProtocolMessage message) {
+        if (message.messageType.equals(ProtocolMessageType.BATCH)) {
+            return (BatchMessage) message;
+        }
+        throw new IllegalStateException("Batch refused: " + message.messageType);
+    }
+
+    /**
+     * Sends the message under a fresh correlation id; the future completes with the reply
+     * carrying the same id, whatever the order replies arrive in.
+     */
+    private CompletableFuture<ProtocolMessage> request(ProtocolMessage message) {
+        long correlationId = correlationIdGen.incrementAndGet();
+        CompletableFuture<ProtocolMessage> response = new CompletableFuture<>();
+        pendingRequests.put(correlationId, response);
+        message.correlationId = correlationId;
         try {
-            return responseQueue.take();
-        } catch (Exception ex) {
-            ex.printStackTrace();
+            protocol.sendMessage(message);
+        } catch (RuntimeException ex) {
+            pendingRequests.remove(correlationId);
+            response.completeExceptionally(ex);
         }
-        return null;
+        return response;
     }
 
-
     public void withdraw(long sessionId, double amount) {
-        AccountOperationMessage message = new AccountOperationMessage();
-        message.messageType = ProtocolMessageType.WITHDRAW;
-        message.sessionId = sessionId;
-        message.amount = amount;
-        protocol.sendMessage(message);
-        processAck();
+        withdrawAsync(sessionId, amount).join();
     }
 
     public void increase(long sessionId, double amount) {
-        AccountOperationMessage message = new AccountOperationMessage();
-        message.messageType = ProtocolMessageType.INCREASE;
-        message.sessionId = sessionId;
-        message.amount = amount;
-        protocol.sendMessage(message);
-        processAck();
+        increaseAsync(sessionId, amount).join();
     }
 
     public void transferTo(long sessionId, double amount, String accountId) {
-        AccountOperationMessage message = new AccountOperationMessage();
-        message.messageType = ProtocolMessageType.TRANSFER_TO;
-        message.sessionId = sessionId;
-        message.amount = amount;
-        message.toAccountId = accountId;
-        protocol.sendMessage(message);
-        processAck();
+        transferToAsync(sessionId, amount, accountId).join();
     }
 
     public double getAccountValue(long sessionId) {
-        AccountOperationMessage message = new AccountOperationMessage();
-        message.messageType = ProtocolMessageType.GETVALUE;
+        return getAccountValueAsync(sessionId).join();
+    }
+
+    /**
+     * @return future completing with true on ACK and false on NAK or BUSY
+     */
+    public CompletableFuture<Boolean> withdrawAsync(long sessionId, double amount) {
+        AccountOperationMessage message = operationMessage(ProtocolMessageType.WITHDRAW, sessionId, amount);
+        return request(message).thenApply(ClientTransport::toAck);
+    }
+
+    public CompletableFuture<Boolean> increaseAsync(long sessionId, double amount) {
+        AccountOperationMessage message = operationMessage(ProtocolMessageType.INCREASE, sessionId, amount);
+        return request(message).thenApply(ClientTransport::toAck);
+    }
+
+    public CompletableFuture<Boolean> transferToAsync(long sessionId, double amount, String accountId) {
+        AccountOperationMessage message = operationMessage(ProtocolMessageType.TRANSFER_TO, sessionId, amount);
+        message.toAccountId = accountId;
+        return request(message).thenApply(ClientTransport::toAck);
+    }
+
+    /**
+     * @return future completing with the balance, or NaN if the request was refused
+     */
+    public CompletableFuture<Double> getAccountValueAsync(long sessionId) {
+        AccountOperationMessage message = operationMessage(ProtocolMessageType.GETVALUE, sessionId, 0);
+        return request(message).thenApply(ClientTransport::toValue);
+    }
+
+    /**
+     * Sends all items in one message; they are executed as one unit of work on the server.
+     *
+     * @return future completing with the reply, whose items are the per-item results in request order
+     */
+    public CompletableFuture<BatchMessage> submitBatchAsync(long sessionId, AccountOperationMessage[] operations) {
+        BatchMessage message = new BatchMessage();
+        message.messageType = ProtocolMessageType.BATCH;
         message.sessionId = sessionId;
-        protocol.sendMessage(message);
-        return processGetValueBack();
+        message.operations = operations;
+        return request(message).thenApply(ClientTransport::toBatchResult);
+    }
+
+    /**
+     * @return the request message, reused by the thread if the connection is done with a
+     *         message once it is sent
+     */
+    private AccountOperationMessage operationMessage(ProtocolMessageType type, long sessionId, double amount) {
+        AccountOperationMessage message = protocol.keepsSentMessages() ? new AccountOperationMessage() : REQUEST.get();
+        message.messageType = type;
+        message.sessionId = sessionId;
+        message.amount = amount;
+        message.toAccountId = null;
+        return message;
     }
 
     public void onMessage(ProtocolMessage message) {
-        responseQueue.add(message);
+        CompletableFuture<ProtocolMessage> response = pendingRequests.remove(message.correlationId);
+        if (response != null) {
+            response.complete(message);
+        }
     }
 
     public void onConnect(String sessionId) {
@@ -130,7 +186,12 @@ public class ClientTransport implements MessageListener, SessionListener {
     }
 
     public void onDisconnect(String sessionId, String reason) {
-        //To change body of implemented methods use File | Settings | File Templates.
+        for (long correlationId : pendingRequests.keySet()) {
+            CompletableFuture<ProtocolMessage> response = pendingRequests.remove(correlationId);
+            if (response != null) {
+                response.completeExceptionally(new IllegalStateException("Disconnected: " + reason));
+            }
+        }
     }
 
     private byte[] encodeCredentials(byte[] password) {
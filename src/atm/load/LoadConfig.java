@@ -0,0 +1,45 @@
+package atm.load;
+
+import atm.util.ThreadMode;
+
+/**
+ * Traffic shape of a {@link LoadGenerator} run.
+ */
+public class LoadConfig {
+    public enum Popularity {
+        UNIFORM, ZIPFIAN
+    }
+
+    /** Client connections, each driving one {@code ATM} from its own thread. */
+    public int connections = 24;
+    /** Threads the connections are driven from; VIRTUAL lets tens of thousands of them wait at once. */
+    public ThreadMode threadMode = ThreadMode.PLATFORM;
+    public int accounts = 10000;
+    public String accountPrefix = "load-";
+    /** Balance every account is topped up with before the run. */
+    public double initialBalance = 10000;
+    public Popularity popularity = Popularity.UNIFORM;
+    /** Skew of {@link Popularity#ZIPFIAN}: 0 is uniform, around 1 a few accounts get most traffic. */
+    public double zipfExponent = 0.99;
+
+    /** Relative weights of the operation kinds; the source account is picked per session. */
+    public int increaseWeight = 25;
+    public int withdrawWeight = 20;
+    public int transferWeight = 45;
+    public int getValueWeight = 10;
+    public double amount = 1;
+    /** Operations per login; each session logs in to one account and logs out afterwards. */
+    public int operationsPerSession = 4;
+
+    /**
+     * Operations per second over all connections, started on schedule whether or not earlier
+     * ones have completed; latencies count from the scheduled start. 0 runs closed loop: each
+     * connection issues its next operation when the previous one completed.
+     */
+    public double ratePerSecond;
+    /** Pause between operations of a connection in closed loop mode. */
+    public long thinkTimeMicros;
+
+    public long warmupSeconds = 5;
+    public long durationSeconds = 30;
+}
@@ -0,0 +1,341 @@
+package atm.load;
+
+import atm.client.ATM;
+import atm.protocol.ClientConnection;
+import atm.protocol.impls.InProcessConnectionImpl;
+import atm.protocol.impls.NioClientConnection;
+import atm.protocol.impls.NioEventLoopGroup;
+import atm.protocol.impls.ServerConnectionProxy;
+import atm.protocol.impls.ServerConnectionStub;
+import atm.server.ProcessingService;
+import atm.server.ServerConfig;
+import atm.util.LatencyHistogram;
+
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Drives {@link ATM}s over any client transport with the traffic shape of a {@link LoadConfig}
+ * and reports throughput and latency percentiles per operation kind. In open-loop mode every
+ * latency is measured from the time the operation was scheduled to start, so a stalled server
+ * shows up in the percentiles instead of merely slowing the load down (coordinated omission).
+ * <p>
+ * From the command line, with {@code LoadConfig} fields as {@code name=value} arguments, against
+ * an in-process server or, with {@code connect=host:port}, a TCP one:
+ * <pre>
+ * java atm.load.LoadGenerator connections=64 popularity=ZIPFIAN ratePerSecond=20000
+ * java atm.load.LoadGenerator connections=50000 threadMode=VIRTUAL thinkTimeMicros=100000
+ * </pre>
+ */
+public class LoadGenerator {
+    public enum Kind {
+        LOGIN, INCREASE, WITHDRAW, TRANSFER, GETVALUE
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private final LoadConfig config;
+    private final Supplier<ClientConnection> connectionFactory;
+    private final AccountDistribution distribution;
+    private final int[] weights = new int[KINDS.length];
+    private final int totalWeight;
+
+    public LoadGenerator(LoadConfig config, Supplier<ClientConnection> connectionFactory) {
+        this.config = config;
+        this.connectionFactory = connectionFactory;
+        this.distribution = AccountDistribution.create(config.popularity, config.accounts, config.zipfExponent);
+        weights[Kind.INCREASE.ordinal()] = config.increaseWeight;
+        weights[Kind.WITHDRAW.ordinal()] = config.withdrawWeight;
+        weights[Kind.TRANSFER.ordinal()] = config.transferWeight;
+        weights[Kind.GETVALUE.ordinal()] = config.getValueWeight;
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Operation mix has no weight");
+        }
+        totalWeight = total;
+    }
+
+    /**
+     * Tops up every account, then runs the warmup and the measured period.
+     */
+    public Result run() throws InterruptedException {
+        ATM[] atms = new ATM[config.connections];
+        for (int i = 0; i < atms.length; i++) {
+            atms[i] = new ATM(connectionFactory.get());
+        }
+        seed(atms);
+
+        long start = System.nanoTime();
+        long warmupEnd = start + config.warmupSeconds * 1000000000L;
+        long end = warmupEnd + config.durationSeconds * 1000000000L;
+        Worker[] workers = new Worker[atms.length];
+        Thread[] threads = new Thread[atms.length];
+        ThreadFactory factory = config.threadMode.factory("atm-load");
+        for (int i = 0; i < atms.length; i++) {
+            workers[i] = new Worker(i, atms[i], start, warmupEnd, end);
+            threads[i] = factory.newThread(workers[i]);
+            threads[i].start();
+        }
+        Result result = new Result(config.durationSeconds);
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            result.add(workers[i]);
+        }
+        return result;
+    }
+
+    private void seed(ATM[] atms) throws InterruptedException {
+        if (config.initialBalance <= 0) {
+            return;
+        }
+        Thread[] threads = new Thread[atms.length];
+        ThreadFactory factory = config.threadMode.factory("atm-load-seed");
+        for (int i = 0; i < atms.length; i++) {
+            final int first = i;
+            final ATM atm = atms[i];
+            threads[i] = factory.newThread(() -> {
+                for (int account = first; account < config.accounts; account += atms.length) {
+                    String id = accountId(account);
+                    atm.login(id, id.getBytes());
+                    atm.increase(config.initialBalance);
+                    atm.logout();
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private String accountId(int account) {
+        return config.accountPrefix + account;
+    }
+
+    private Kind nextKind(SplittableRandom random) {
+        int r = random.nextInt(totalWeight);
+        for (int i = 0; ; i++) {
+            r -= weights[i];
+            if (r < 0) {
+                return KINDS[i];
+            }
+        }
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private final class Worker implements Runnable {
+        final LatencyHistogram[] histograms = new LatencyHistogram[KINDS.length];
+        final ATM atm;
+        final SplittableRandom random;
+        final long warmupEnd;
+        final long end;
+        final long interval;
+        long next;
+        long completed;
+        long rejected;
+        long errors;
+
+        Worker(int index, ATM atm, long start, long warmupEnd, long end) {
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+            this.atm = atm;
+            this.random = new SplittableRandom(index * 0x9E3779B97F4A7C15L);
+            this.warmupEnd = warmupEnd;
+            this.end = end;
+            this.interval = config.ratePerSecond > 0 ? (long) (1e9 * config.connections / config.ratePerSecond) : 0;
+            // spread the connections' schedules over one interval instead of starting them together
+            this.next = start + interval * index / config.connections;
+        }
+
+        public void run() {
+            while (System.nanoTime() < end) {
+                int source = distribution.next(random);
+                boolean loggedIn = false;
+                for (int i = 0; i < config.operationsPerSession; i++) {
+                    long intended = schedule();
+                    if (intended >= end) {
+                        break;
+                    }
+                    try {
+                        if (!loggedIn) {
+                            String id = accountId(source);
+                            long loginStart = System.nanoTime();
+                            atm.login(id, id.getBytes());
+                            loggedIn = true;
+                            record(Kind.LOGIN, loginStart, System.nanoTime() - loginStart);
+                        }
+                        Kind kind = nextKind(random);
+                        if (!execute(kind, source) && intended >= warmupEnd) {
+                            rejected++;
+                        }
+                        record(kind, intended, System.nanoTime() - intended);
+                    } catch (RuntimeException e) {
+                        if (intended >= warmupEnd) {
+                            errors++;
+                        }
+                    }
+                    if (interval == 0 && config.thinkTimeMicros > 0) {
+                        sleepUntil(System.nanoTime() + config.thinkTimeMicros * 1000);
+                    }
+                }
+                if (loggedIn) {
+                    atm.logout();
+                }
+            }
+        }
+
+        private long schedule() {
+            if (interval == 0) {
+                return System.nanoTime();
+            }
+            long intended = next;
+            next += interval;
+            sleepUntil(intended);
+            return intended;
+        }
+
+        private boolean execute(Kind kind, int source) {
+            switch (kind) {
+                case INCREASE:
+                    return atm.increaseAsync(config.amount).join();
+                case WITHDRAW:
+                    return atm.withdrawAsync(config.amount).join();
+                case TRANSFER:
+                    int target = distribution.next(random);
+                    if (target == source) {
+                        target = (target + 1) % config.accounts;
+                    }
+                    return atm.transferToAsync(config.amount, accountId(target)).join();
+                default:
+                    atm.getAccountValueAsync().join();
+                    return true;
+            }
+        }
+
+        private void record(Kind kind, long startedAt, long latency) {
+            if (startedAt < warmupEnd) {
+                return;
+            }
+            if (kind != Kind.LOGIN) {
+                completed++;
+            }
+            if (interval == 0) {
+                histograms[kind.ordinal()].recordCorrected(latency, config.thinkTimeMicros * 1000);
+            } else {
+                histograms[kind.ordinal()].record(latency);
+            }
+        }
+    }
+
+    /**
+     * Outcome of a run; rejected operations were answered with a NAK, failed ones with an error.
+     */
+    public static class Result {
+        public final Map<Kind, LatencyHistogram> histograms = new EnumMap<>(Kind.class);
+        public final LatencyHistogram operations = new LatencyHistogram();
+        public final long durationSeconds;
+        public long completed;
+        public long rejected;
+        public long errors;
+
+        Result(long durationSeconds) {
+            this.durationSeconds = durationSeconds;
+            for (Kind kind : KINDS) {
+                histograms.put(kind, new LatencyHistogram());
+            }
+        }
+
+        void add(Worker worker) {
+            completed += worker.completed;
+            rejected += worker.rejected;
+            errors += worker.errors;
+            for (Kind kind : KINDS) {
+                histograms.get(kind).add(worker.histograms[kind.ordinal()]);
+                if (kind != Kind.LOGIN) {
+                    operations.add(worker.histograms[kind.ordinal()]);
+                }
+            }
+        }
+
+        public double getThroughput() {
+            return durationSeconds == 0 ? 0 : (double) completed / durationSeconds;
+        }
+
+        public void print(PrintStream out) {
+            out.printf("completed=%d rejected=%d errors=%d throughput=%.1f ops/s%n", completed, rejected, errors, getThroughput());
+            operations.print("ALL", out);
+            for (Map.Entry<Kind, LatencyHistogram> entry : histograms.entrySet()) {
+                if (entry.getValue().getTotalCount() > 0) {
+                    entry.getValue().print(entry.getKey().name(), out);
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadConfig config = new LoadConfig();
+        String connect = null;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            if (name.equals("connect")) {
+                connect = value;
+            } else {
+                set(config, name, value);
+            }
+        }
+        Supplier<ClientConnection> connections;
+        if (connect == null) {
+            ServerConnectionStub stub = new ServerConnectionStub();
+            ServerConfig serverConfig = new ServerConfig();
+            // terminals log in as generated users nobody enrolled
+            serverConfig.allowUnknownUsers = true;
+            new ProcessingService(stub, serverConfig);
+            connections = () -> new InProcessConnectionImpl(new ServerConnectionProxy(stub));
+        } else {
+            int colon = connect.lastIndexOf(':');
+            InetSocketAddress address = new InetSocketAddress(connect.substring(0, colon), Integer.parseInt(connect.substring(colon + 1)));
+            NioEventLoopGroup group = new NioEventLoopGroup(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), "atm-load-io");
+            connections = () -> new NioClientConnection(address, group);
+        }
+        new LoadGenerator(config, connections).run().print(System.out);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void set(LoadConfig config, String name, String value) throws ReflectiveOperationException {
+        Field field = LoadConfig.class.getField(name);
+        Class<?> type = field.getType();
+        if (type == int.class) {
+            field.setInt(config, Integer.parseInt(value));
+        } else if (type == long.class) {
+            field.setLong(config, Long.parseLong(value));
+        } else if (type == double.class) {
+            field.setDouble(config, Double.parseDouble(value));
+        } else if (type.isEnum()) {
+            field.set(config, Enum.valueOf((Class<Enum>) type, value));
+        } else {
+            field.set(config, value);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package atm.load;
+
+import atm.protocol.impls.InProcessConnectionImpl;
+import atm.protocol.impls.ServerConnectionProxy;
+import atm.protocol.impls.ServerConnectionStub;
+import atm.server.ProcessingService;
+import atm.server.ServerConfig;
+import org.junit.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.*;
+
+public class LoadGeneratorTest {
+
+    @Test
+    public void testOpenLoopRunAgainstInProcessServer() throws InterruptedException {
+        ServerConnectionStub stub = new ServerConnectionStub();
+        ServerConfig serverConfig = new ServerConfig();
+        serverConfig.allowUnknownUsers = true;
+        ProcessingService service = new ProcessingService(stub, serverConfig);
+        LoadConfig config = new LoadConfig();
+        config.connections = 4;
+        config.accounts = 100;
+        config.popularity = LoadConfig.Popularity.ZIPFIAN;
+        config.ratePerSecond = 400;
+        config.warmupSeconds = 0;
+        config.durationSeconds = 2;
+
+        LoadGenerator.Result result = new LoadGenerator(config,
+                () -> new InProcessConnectionImpl(new ServerConnectionProxy(stub))).run();
+        service.shutdown();
+
+        assertEquals(0, result.errors);
+        assertEquals(result.completed, result.operations.getTotalCount());
+        // on schedule or behind it, never ahead
+        assertTrue(result.completed > 200 && result.completed <= 800);
+        assertTrue(result.histograms.get(LoadGenerator.Kind.TRANSFER).getTotalCount() > 0);
+        assertTrue(result.histograms.get(LoadGenerator.Kind.LOGIN).getTotalCount() > 0);
+    }
+
+    @Test
+    public void testZipfianFavorsFirstAccounts() {
+        AccountDistribution zipf = AccountDistribution.create(LoadConfig.Popularity.ZIPFIAN, 10000, 0.99);
+        SplittableRandom random = new SplittableRandom(3);
+        int hot = 0;
+        for (int i = 0; i < 100000; i++) {
+            int account = zipf.next(random);
+            assertTrue(account >= 0 && account < 10000);
+            if (account < 100) {
+                hot++;
+            }
+        }
+        assertEquals(0.5, hot / 100000.0, 0.05);
+    }
+}
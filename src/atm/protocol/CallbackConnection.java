@@ -10,4 +10,11 @@ package atm.protocol;
 public interface CallbackConnection extends Connection {
     void setMessageListener(MessageListener listener);
     MessageListener getMessageListener();
+
+    /**
+     * Told when a client connection opens or closes; the session id passed is the connection
+     * id, in decimal, that is stamped as the {@code sourceId} of its messages.
+     */
+    void setSessionListener(SessionListener listener);
+    SessionListener getSessionListener();
 }
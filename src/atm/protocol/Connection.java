@@ -11,4 +11,12 @@ import atm.protocol.messages.ProtocolMessage;
  */
 public interface Connection {
     void sendMessage(ProtocolMessage message);
+
+    /**
+     * @return false if {@link #sendMessage} is done with the message when it returns, so the
+     *         caller may reuse it for the next one; true if the message may still be read later
+     */
+    default boolean keepsSentMessages() {
+        return true;
+    }
 }
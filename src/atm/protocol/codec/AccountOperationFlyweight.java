@@ -0,0 +1,93 @@
+package atm.protocol.codec;
+
+import atm.protocol.messages.AccountOperationMessage;
+import atm.protocol.messages.ProtocolMessageType;
+
+import java.nio.ByteBuffer;
+
+import static atm.protocol.codec.MessageCodec.*;
+
+/**
+ * Reads an encoded {@link AccountOperationMessage} in place. Accessors use absolute reads,
+ * so wrapping a buffer neither copies nor moves its position, and one instance can be reused
+ * for every message on the hot path.
+ */
+public class AccountOperationFlyweight {
+    private ByteBuffer buffer;
+    private int offset;
+
+    public AccountOperationFlyweight wrap(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.offset = offset;
+        return this;
+    }
+
+    public ProtocolMessageType messageType() {
+        return decodeType(buffer.get(offset + TYPE_OFFSET));
+    }
+
+    public long sourceId() {
+        return buffer.getLong(offset + SOURCE_ID_OFFSET);
+    }
+
+    public long correlationId() {
+        return buffer.getLong(offset + CORRELATION_ID_OFFSET);
+    }
+
+    public long sessionId() {
+        return buffer.getLong(offset + SESSION_ID_OFFSET);
+    }
+
+    public double amount() {
+        return buffer.getDouble(offset + AMOUNT_OFFSET);
+    }
+
+    /**
+     * @return number of chars of the destination account id, or -1 if there is none
+     */
+    public int toAccountIdLength() {
+        return buffer.getShort(offset + TO_ACCOUNT_OFFSET);
+    }
+
+    public char toAccountIdCharAt(int i) {
+        return buffer.getChar(offset + TO_ACCOUNT_OFFSET + 2 + i * 2);
+    }
+
+    public boolean toAccountIdEquals(CharSequence accountId) {
+        int length = toAccountIdLength();
+        if (accountId == null || length < 0) {
+            return accountId == null && length < 0;
+        }
+        if (accountId.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (toAccountIdCharAt(i) != accountId.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Materializes the destination account id; allocates.
+     */
+    public String toAccountId() {
+        int length = toAccountIdLength();
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = toAccountIdCharAt(i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return total encoded length of the wrapped message
+     */
+    public int length() {
+        return TO_ACCOUNT_OFFSET + 2 + Math.max(0, toAccountIdLength()) * 2;
+    }
+}
@@ -0,0 +1,209 @@
+package atm.protocol.codec;
+
+import atm.protocol.messages.AccountOperationMessage;
+import atm.protocol.messages.BatchMessage;
+import atm.protocol.messages.LogonMessage;
+import atm.protocol.messages.ProtocolMessage;
+import atm.protocol.messages.ProtocolMessageType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-layout binary encoding of protocol messages. Every message starts with a common
+ * header, followed by the body of its message class:
+ * <pre>
+ * header:            type:byte sourceId:long correlationId:long
+ * LOGIN, LOGOUT:     sessionId:long userId:string credentials:bytes
+ * BATCH:             sessionId:long count:int item[count]
+ * other types:       sessionId:long amount:double toAccountId:string
+ *
+ * item:   type:byte amount:double toAccountId:string
+ * string: length:short (-1 for null) then UTF-16 chars
+ * bytes:  length:short (-1 for null) then the bytes
+ * </pre>
+ * All multi-byte values use the buffer's byte order. Encoding writes straight into the
+ * caller's buffer without allocating; see {@link AccountOperationFlyweight} for reading
+ * operation messages without materializing them.
+ */
+public final class MessageCodec {
+    static final int TYPE_OFFSET = 0;
+    static final int SOURCE_ID_OFFSET = 1;
+    static final int CORRELATION_ID_OFFSET = 9;
+    static final int HEADER_LENGTH = 17;
+    static final int SESSION_ID_OFFSET = HEADER_LENGTH;
+    static final int AMOUNT_OFFSET = SESSION_ID_OFFSET + 8;
+    static final int TO_ACCOUNT_OFFSET = AMOUNT_OFFSET + 8;
+    static final int BATCH_ITEMS_OFFSET = SESSION_ID_OFFSET + 12;
+    private static final int ITEM_FIXED_LENGTH = 9;
+
+    private MessageCodec() {}
+
+    public static boolean isLogon(ProtocolMessageType type) {
+        return type == ProtocolMessageType.LOGIN || type == ProtocolMessageType.LOGOUT;
+    }
+
+    public static int encodedLength(ProtocolMessage message) {
+        if (isLogon(message.messageType)) {
+            LogonMessage logon = (LogonMessage) message;
+            return HEADER_LENGTH + 8 + stringLength(logon.userId) + bytesLength(logon.credentials);
+        }
+        if (message.messageType == ProtocolMessageType.BATCH) {
+            int length = BATCH_ITEMS_OFFSET;
+            for (AccountOperationMessage item : ((BatchMessage) message).operations) {
+                length += ITEM_FIXED_LENGTH + stringLength(item.toAccountId);
+            }
+            return length;
+        }
+        AccountOperationMessage operation = (AccountOperationMessage) message;
+        return TO_ACCOUNT_OFFSET + stringLength(operation.toAccountId);
+    }
+
+    /**
+     * Writes the message at the buffer's position and advances it.
+     *
+     * @throws java.nio.BufferOverflowException if fewer than {@link #encodedLength} bytes remain
+     */
+    public static void encode(ProtocolMessage message, ByteBuffer buffer) {
+        buffer.put((byte) message.messageType.getType());
+        buffer.putLong(message.sourceId);
+        buffer.putLong(message.correlationId);
+        if (isLogon(message.messageType)) {
+            LogonMessage logon = (LogonMessage) message;
+            buffer.putLong(logon.sessionId);
+            putString(buffer, logon.userId);
+            putBytes(buffer, logon.credentials);
+        } else if (message.messageType == ProtocolMessageType.BATCH) {
+            BatchMessage batch = (BatchMessage) message;
+            buffer.putLong(batch.sessionId);
+            buffer.putInt(batch.operations.length);
+            for (AccountOperationMessage item : batch.operations) {
+                buffer.put((byte) item.messageType.getType());
+                buffer.putDouble(item.amount);
+                putString(buffer, item.toAccountId);
+            }
+        } else {
+            AccountOperationMessage operation = (AccountOperationMessage) message;
+            buffer.putLong(operation.sessionId);
+            buffer.putDouble(operation.amount);
+            putString(buffer, operation.toAccountId);
+        }
+    }
+
+    /**
+     * Reads one message from the buffer's position and advances past it.
+     *
+     * @throws IllegalArgumentException if the type byte is unknown
+     * @throws java.nio.BufferUnderflowException if the message is incomplete
+     */
+    public static ProtocolMessage decode(ByteBuffer buffer) {
+        ProtocolMessageType type = decodeType(buffer.get());
+        long sourceId = buffer.getLong();
+        long correlationId = buffer.getLong();
+        if (isLogon(type)) {
+            LogonMessage logon = new LogonMessage();
+            logon.messageType = type;
+            logon.sourceId = sourceId;
+            logon.correlationId = correlationId;
+            logon.sessionId = buffer.getLong();
+            logon.userId = getString(buffer);
+            logon.credentials = getBytes(buffer);
+            return logon;
+        }
+        if (type == ProtocolMessageType.BATCH) {
+            BatchMessage batch = new BatchMessage();
+            batch.messageType = type;
+            batch.sourceId = sourceId;
+            batch.correlationId = correlationId;
+            batch.sessionId = buffer.getLong();
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / ITEM_FIXED_LENGTH) {
+                throw new IllegalArgumentException("Bad batch size " + count);
+            }
+            batch.operations = new AccountOperationMessage[count];
+            for (int i = 0; i < count; i++) {
+                AccountOperationMessage item = new AccountOperationMessage();
+                item.messageType = decodeType(buffer.get());
+                item.sourceId = sourceId;
+                item.correlationId = correlationId;
+                item.sessionId = batch.sessionId;
+                item.amount = buffer.getDouble();
+                item.toAccountId = getString(buffer);
+                batch.operations[i] = item;
+            }
+            return batch;
+        }
+        AccountOperationMessage operation = new AccountOperationMessage();
+        operation.messageType = type;
+        operation.sourceId = sourceId;
+        operation.correlationId = correlationId;
+        operation.sessionId = buffer.getLong();
+        operation.amount = buffer.getDouble();
+        operation.toAccountId = getString(buffer);
+        return operation;
+    }
+
+    static ProtocolMessageType decodeType(byte b) {
+        ProtocolMessageType type = ProtocolMessageType.fromType(b);
+        if (type == null) {
+            throw new IllegalArgumentException("Unknown message type " + b);
+        }
+        return type;
+    }
+
+    private static int stringLength(String s) {
+        return 2 + (s == null ? 0 : s.length() * 2);
+    }
+
+    private static int bytesLength(byte[] b) {
+        return 2 + (b == null ? 0 : b.length);
+    }
+
+    private static void putString(ByteBuffer buffer, String s) {
+        if (s == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        buffer.putShort(checkLength(s.length()));
+        for (int i = 0; i < s.length(); i++) {
+            buffer.putChar(s.charAt(i));
+        }
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] b) {
+        if (b == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        buffer.putShort(checkLength(b.length));
+        buffer.put(b);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar();
+        }
+        return new String(chars);
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] b = new byte[length];
+        buffer.get(b);
+        return b;
+    }
+
+    private static short checkLength(int length) {
+        if (length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Field too long: " + length);
+        }
+        return (short) length;
+    }
+}
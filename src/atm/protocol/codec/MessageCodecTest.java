@@ -0,0 +1,148 @@
+package atm.protocol.codec;
+
+import atm.protocol.messages.AccountOperationMessage;
+import atm.protocol.messages.BatchMessage;
+import atm.protocol.messages.LogonMessage;
+import atm.protocol.messages.ProtocolMessage;
+import atm.protocol.messages.ProtocolMessageType;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class MessageCodecTest {
+
+    @Test
+    public void testLogonRoundTrip() {
+        for (ProtocolMessageType type : new ProtocolMessageType[] {ProtocolMessageType.LOGIN, ProtocolMessageType.LOGOUT}) {
+            LogonMessage message = new LogonMessage();
+            message.messageType = type;
+            message.sourceId = 42;
+            message.correlationId = 43;
+            message.sessionId = -1;
+            message.userId = "user-\u0436";
+            message.credentials = new byte[] {1, 2, 3, -1};
+
+            LogonMessage decoded = (LogonMessage) roundTrip(message);
+
+            assertEquals(type, decoded.messageType);
+            assertEquals(42, decoded.sourceId);
+            assertEquals(43, decoded.correlationId);
+            assertEquals(-1, decoded.sessionId);
+            assertEquals("user-\u0436", decoded.userId);
+            assertArrayEquals(message.credentials, decoded.credentials);
+        }
+    }
+
+    @Test
+    public void testLogonWithNullFields() {
+        LogonMessage message = new LogonMessage();
+        message.messageType = ProtocolMessageType.LOGOUT;
+
+        LogonMessage decoded = (LogonMessage) roundTrip(message);
+
+        assertNull(decoded.userId);
+        assertNull(decoded.credentials);
+    }
+
+    @Test
+    public void testOperationRoundTrip() {
+        for (ProtocolMessageType type : ProtocolMessageType.values()) {
+            if (MessageCodec.isLogon(type) || type == ProtocolMessageType.BATCH) {
+                continue;
+            }
+            AccountOperationMessage message = operation(type, type == ProtocolMessageType.TRANSFER_TO ? "merchant" : null);
+
+            AccountOperationMessage decoded = (AccountOperationMessage) roundTrip(message);
+
+            assertEquals(type, decoded.messageType);
+            assertEquals(7, decoded.sourceId);
+            assertEquals(Long.MAX_VALUE, decoded.correlationId);
+            assertEquals(123456789L, decoded.sessionId);
+            assertEquals(200.25, decoded.amount, 0);
+            assertEquals(message.toAccountId, decoded.toAccountId);
+        }
+    }
+
+    @Test
+    public void testBatchRoundTrip() {
+        BatchMessage message = new BatchMessage();
+        message.messageType = ProtocolMessageType.BATCH;
+        message.sourceId = 7;
+        message.correlationId = 8;
+        message.sessionId = 9;
+        message.operations = new AccountOperationMessage[] {
+                operation(ProtocolMessageType.INCREASE, null),
+                operation(ProtocolMessageType.TRANSFER_TO, "merchant"),
+                operation(ProtocolMessageType.NAK, null)
+        };
+
+        BatchMessage decoded = (BatchMessage) roundTrip(message);
+
+        assertEquals(ProtocolMessageType.BATCH, decoded.messageType);
+        assertEquals(7, decoded.sourceId);
+        assertEquals(8, decoded.correlationId);
+        assertEquals(9, decoded.sessionId);
+        assertEquals(3, decoded.operations.length);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(message.operations[i].messageType, decoded.operations[i].messageType);
+            assertEquals(200.25, decoded.operations[i].amount, 0);
+            assertEquals(message.operations[i].toAccountId, decoded.operations[i].toAccountId);
+            assertEquals(9, decoded.operations[i].sessionId);
+        }
+    }
+
+    @Test
+    public void testFlyweightReadsInPlace() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+        buffer.position(10);
+        MessageCodec.encode(operation(ProtocolMessageType.TRANSFER_TO, "merchant"), buffer);
+        MessageCodec.encode(operation(ProtocolMessageType.WITHDRAW, null), buffer);
+
+        AccountOperationFlyweight flyweight = new AccountOperationFlyweight().wrap(buffer, 10);
+        assertEquals(ProtocolMessageType.TRANSFER_TO, flyweight.messageType());
+        assertEquals(7, flyweight.sourceId());
+        assertEquals(Long.MAX_VALUE, flyweight.correlationId());
+        assertEquals(123456789L, flyweight.sessionId());
+        assertEquals(200.25, flyweight.amount(), 0);
+        assertTrue(flyweight.toAccountIdEquals("merchant"));
+        assertFalse(flyweight.toAccountIdEquals("merchanT"));
+        assertEquals("merchant", flyweight.toAccountId());
+
+        int second = 10 + flyweight.length();
+        flyweight.wrap(buffer, second);
+        assertEquals(ProtocolMessageType.WITHDRAW, flyweight.messageType());
+        assertEquals(-1, flyweight.toAccountIdLength());
+        assertTrue(flyweight.toAccountIdEquals(null));
+        assertEquals(buffer.position(), second + flyweight.length());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownTypeIsRejected() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.put((byte) 127).flip();
+        MessageCodec.decode(buffer);
+    }
+
+    private static AccountOperationMessage operation(ProtocolMessageType type, String toAccountId) {
+        AccountOperationMessage message = new AccountOperationMessage();
+        message.messageType = type;
+        message.sourceId = 7;
+        message.correlationId = Long.MAX_VALUE;
+        message.sessionId = 123456789L;
+        message.amount = 200.25;
+        message.toAccountId = toAccountId;
+        return message;
+    }
+
+    private static ProtocolMessage roundTrip(ProtocolMessage message) {
+        ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.encodedLength(message));
+        MessageCodec.encode(message, buffer);
+        assertFalse(buffer.hasRemaining());
+        buffer.flip();
+        ProtocolMessage decoded = MessageCodec.decode(buffer);
+        assertFalse(buffer.hasRemaining());
+        return decoded;
+    }
+}
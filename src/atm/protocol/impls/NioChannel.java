@@ -0,0 +1,203 @@
+package atm.protocol.impls;
+
+import atm.protocol.codec.MessageCodec;
+import atm.protocol.messages.ProtocolMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Socket channel carrying length-prefixed {@link MessageCodec} frames:
+ * <pre>
+ * frame: length:int body:byte[length]
+ * </pre>
+ * Reads happen on the owning event loop. {@link #send} may be called from any thread: it
+ * encodes into the outbound direct buffer and leaves the write itself to the loop. A peer
+ * that does not read its replies is not read from while more than
+ * {@link #OUTBOUND_HIGH_WATER_MARK} bytes wait for it, and is dropped once
+ * {@link #MAX_OUTBOUND_LENGTH} bytes would.
+ */
+class NioChannel {
+    static final int MAX_FRAME_LENGTH = 1 << 20;
+    static final int OUTBOUND_HIGH_WATER_MARK = 4 * MAX_FRAME_LENGTH;
+    static final int MAX_OUTBOUND_LENGTH = 16 * MAX_FRAME_LENGTH;
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    interface Handler {
+        void onMessage(NioChannel channel, ProtocolMessage message);
+        void onClose(NioChannel channel);
+    }
+
+    private final SocketChannel channel;
+    private final NioEventLoopGroup.EventLoop loop;
+    private final Handler handler;
+    private final long id;
+    private ByteBuffer in = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    private ByteBuffer out = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    private SelectionKey key;
+    private boolean flushScheduled;
+    private boolean closeAfterFlush;
+    private volatile boolean closed;
+
+    NioChannel(SocketChannel channel, NioEventLoopGroup.EventLoop loop, Handler handler, long id) throws IOException {
+        this.channel = channel;
+        this.loop = loop;
+        this.handler = handler;
+        this.id = id;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+    }
+
+    /**
+     * Starts reading; messages may arrive on the loop thread from now on.
+     */
+    void start() {
+        loop.register(this);
+    }
+
+    long getId() {
+        return id;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void send(ProtocolMessage message) {
+        int length = MessageCodec.encodedLength(message);
+        synchronized (this) {
+            if (closed || closeAfterFlush) {
+                return;
+            }
+            if (out.position() + 4 + length > MAX_OUTBOUND_LENGTH) {
+                // the peer stopped reading: drop it rather than buffer its replies without limit
+                closeAfterFlush = true;
+                loop.execute(this::close);
+                return;
+            }
+            if (out.remaining() < 4 + length) {
+                out = grow(out, 4 + length);
+            }
+            out.putInt(length);
+            MessageCodec.encode(message, out);
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Closes the channel once everything sent so far has been written.
+     */
+    void closeGracefully() {
+        synchronized (this) {
+            closeAfterFlush = true;
+            scheduleFlush();
+        }
+    }
+
+    void onReadable() {
+        try {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            in.flip();
+            while (in.remaining() >= 4) {
+                int length = in.getInt(in.position());
+                if (length < 0 || length > MAX_FRAME_LENGTH) {
+                    throw new IOException("Bad frame length " + length + " on channel " + id);
+                }
+                if (in.remaining() < 4 + length) {
+                    break;
+                }
+                int end = in.position() + 4 + length;
+                int limit = in.limit();
+                in.position(in.position() + 4).limit(end);
+                ProtocolMessage message = MessageCodec.decode(in);
+                in.limit(limit).position(end);
+                handler.onMessage(this, message);
+            }
+            in.compact();
+            if (!in.hasRemaining()) {
+                in = grow(in, in.capacity());
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            close();
+        }
+    }
+
+    void flush() {
+        synchronized (this) {
+            flushScheduled = false;
+            if (closed || key == null) {
+                return;
+            }
+            try {
+                out.flip();
+                channel.write(out);
+                out.compact();
+            } catch (IOException e) {
+                closeNow();
+                return;
+            }
+            if (out.position() > 0) {
+                // no new requests from a peer that is this far behind on its replies
+                int read = out.position() > OUTBOUND_HIGH_WATER_MARK ? 0 : SelectionKey.OP_READ;
+                key.interestOps(read | SelectionKey.OP_WRITE);
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            if (!closeAfterFlush) {
+                return;
+            }
+        }
+        close();
+    }
+
+    void close() {
+        synchronized (this) {
+            closeNow();
+        }
+    }
+
+    private void closeNow() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        handler.onClose(this);
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            loop.execute(this::flush);
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        int capacity = buffer.capacity();
+        while (capacity - buffer.position() < needed) {
+            capacity *= 2;
+        }
+        ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+}
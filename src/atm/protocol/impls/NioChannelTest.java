@@ -0,0 +1,63 @@
+package atm.protocol.impls;
+
+import atm.protocol.codec.MessageCodec;
+import atm.protocol.messages.AccountOperationMessage;
+import atm.protocol.messages.BatchMessage;
+import atm.protocol.messages.ProtocolMessage;
+import atm.protocol.messages.ProtocolMessageType;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NioChannelTest {
+
+    @Test
+    public void testPeerNotReadingRepliesIsClosed() throws Exception {
+        NioEventLoopGroup group = new NioEventLoopGroup(1, "nio-channel-test");
+        try (ServerSocketChannel server = ServerSocketChannel.open();
+             SocketChannel peer = SocketChannel.open()) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            peer.connect(server.getLocalAddress());
+            final CountDownLatch closed = new CountDownLatch(1);
+            NioChannel channel = new NioChannel(server.accept(), group.next(), new NioChannel.Handler() {
+                public void onMessage(NioChannel channel, ProtocolMessage message) {
+                }
+
+                public void onClose(NioChannel channel) {
+                    closed.countDown();
+                }
+            }, 1);
+            channel.start();
+
+            // several times the limit, as the peer never reads and socket buffers take some
+            BatchMessage reply = batch(10000);
+            int sends = 4 * NioChannel.MAX_OUTBOUND_LENGTH / MessageCodec.encodedLength(reply);
+            for (int i = 0; i < sends && !channel.isClosed(); i++) {
+                channel.send(reply);
+            }
+
+            assertTrue(closed.await(30, TimeUnit.SECONDS));
+            assertTrue(channel.isClosed());
+        } finally {
+            group.shutdown();
+        }
+    }
+
+    private static BatchMessage batch(int items) {
+        BatchMessage msg = new BatchMessage();
+        msg.messageType = ProtocolMessageType.BATCH;
+        msg.operations = new AccountOperationMessage[items];
+        for (int i = 0; i < items; i++) {
+            AccountOperationMessage item = new AccountOperationMessage();
+            item.messageType = ProtocolMessageType.ACK;
+            msg.operations[i] = item;
+        }
+        return msg;
+    }
+}
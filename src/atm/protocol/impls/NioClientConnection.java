@@ -0,0 +1,101 @@
+package atm.protocol.impls;
+
+import atm.protocol.ClientConnection;
+import atm.protocol.MessageListener;
+import atm.protocol.SessionListener;
+import atm.protocol.messages.ProtocolMessage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TCP client side of the protocol. Many client connections can share one
+ * {@link NioEventLoopGroup}; replies are delivered to the listener on its selector thread.
+ */
+public class NioClientConnection implements ClientConnection, NioChannel.Handler {
+    private final InetSocketAddress address;
+    private final NioEventLoopGroup group;
+    private MessageListener msgListener;
+    private SessionListener sessionListener;
+    private NioChannel channel;
+
+    public NioClientConnection(InetSocketAddress address, NioEventLoopGroup group) {
+        this.address = address;
+        this.group = group;
+    }
+
+    public synchronized void connect() {
+        if (channel != null && !channel.isClosed()) {
+            return;
+        }
+        try {
+            channel = new NioChannel(SocketChannel.open(address), group.next(), this, 0);
+            channel.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (sessionListener != null) {
+            sessionListener.onConnect(address.toString());
+        }
+    }
+
+    public synchronized void disconnect() {
+        if (channel != null) {
+            channel.closeGracefully();
+            channel = null;
+        }
+    }
+
+    /**
+     * Messages are encoded into the channel's buffer before {@link #sendMessage} returns.
+     */
+    public boolean keepsSentMessages() {
+        return false;
+    }
+
+    public void sendMessage(ProtocolMessage message) {
+        NioChannel current;
+        synchronized (this) {
+            current = channel;
+        }
+        if (current == null) {
+            throw new IllegalStateException("Not connected to " + address);
+        }
+        current.send(message);
+    }
+
+    public void setMessageListener(MessageListener listener) {
+        msgListener = listener;
+    }
+
+    public void setSessionListener(SessionListener listener) {
+        sessionListener = listener;
+    }
+
+    public MessageListener getMessageListener() {
+        return msgListener;
+    }
+
+    public SessionListener getSessionListener() {
+        return sessionListener;
+    }
+
+    public void onMessage(NioChannel channel, ProtocolMessage message) {
+        msgListener.onMessage(message);
+    }
+
+    public void onClose(NioChannel channel) {
+        synchronized (this) {
+            // a channel let go by disconnect() may finish closing after the next connect()
+            if (channel != this.channel) {
+                return;
+            }
+            this.channel = null;
+        }
+        if (sessionListener != null) {
+            sessionListener.onDisconnect(address.toString(), "closed");
+        }
+    }
+}
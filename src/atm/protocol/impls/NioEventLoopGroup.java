@@ -0,0 +1,124 @@
+package atm.protocol.impls;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small fixed set of selector threads shared by many {@link NioChannel}s. Channels are spread
+ * over the loops round robin and all I/O of a channel happens on its loop's thread.
+ */
+public class NioEventLoopGroup {
+    private final EventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public NioEventLoopGroup(int threads, String name) {
+        loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new EventLoop(name + "-" + i);
+        }
+    }
+
+    EventLoop next() {
+        return loops[(next.getAndIncrement() & 0x7fffffff) % loops.length];
+    }
+
+    public void shutdown() {
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    static final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        EventLoop(String name) {
+            try {
+                selector = Selector.open();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        void register(final NioChannel channel) {
+            execute(() -> {
+                try {
+                    channel.setKey(channel.getChannel().register(selector, SelectionKey.OP_READ, channel));
+                    channel.flush();
+                } catch (IOException e) {
+                    channel.close();
+                }
+            });
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        public void run() {
+            while (running) {
+                try {
+                    // tasks queued by this thread itself did not wake the selector up
+                    if (tasks.isEmpty()) {
+                        selector.select();
+                    } else {
+                        selector.selectNow();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    break;
+                }
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioChannel channel = (NioChannel) key.attachment();
+                    if (!key.isValid()) {
+                        channel.close();
+                        continue;
+                    }
+                    if (key.isReadable()) {
+                        channel.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        channel.flush();
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                ((NioChannel) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+}
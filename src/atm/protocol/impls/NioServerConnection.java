@@ -0,0 +1,112 @@
+package atm.protocol.impls;
+
+import atm.protocol.CallbackConnection;
+import atm.protocol.MessageListener;
+import atm.protocol.SessionListener;
+import atm.protocol.messages.ProtocolMessage;
+import atm.util.ConcurrentLongObjectHashMap;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TCP server side of the protocol. Accepted connections are spread over a few selector
+ * threads; each connection gets a server-assigned id which is stamped as the
+ * {@code sourceId} of every message read from it, and replies are routed back by that id.
+ * Messages and closes are delivered to the listeners on the connection's selector thread.
+ */
+public class NioServerConnection implements CallbackConnection, NioChannel.Handler {
+    private final ServerSocketChannel serverChannel;
+    private final NioEventLoopGroup group;
+    private final ConcurrentLongObjectHashMap<NioChannel> channels = new ConcurrentLongObjectHashMap<>();
+    private final AtomicLong connectionIdGen = new AtomicLong();
+    private final Thread acceptor;
+    private MessageListener listener;
+    private SessionListener sessionListener;
+
+    public NioServerConnection(InetSocketAddress address, int eventLoops) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        group = new NioEventLoopGroup(eventLoops, "atm-server-io");
+        acceptor = new Thread(this::acceptLoop, "atm-server-acceptor");
+        acceptor.setDaemon(true);
+    }
+
+    public void start() {
+        acceptor.start();
+    }
+
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public void close() throws IOException {
+        serverChannel.close();
+        group.shutdown();
+    }
+
+    /**
+     * Messages are encoded into the channel's buffer before {@link #sendMessage} returns.
+     */
+    public boolean keepsSentMessages() {
+        return false;
+    }
+
+    public void sendMessage(ProtocolMessage message) {
+        NioChannel channel = channels.get(message.sourceId);
+        if (channel != null) {
+            channel.send(message);
+        }
+    }
+
+    public void setMessageListener(MessageListener listener) {
+        this.listener = listener;
+    }
+
+    public MessageListener getMessageListener() {
+        return listener;
+    }
+
+    public void setSessionListener(SessionListener listener) {
+        this.sessionListener = listener;
+    }
+
+    public SessionListener getSessionListener() {
+        return sessionListener;
+    }
+
+    public void onMessage(NioChannel channel, ProtocolMessage message) {
+        message.sourceId = channel.getId();
+        listener.onMessage(message);
+    }
+
+    public void onClose(NioChannel channel) {
+        channels.remove(channel.getId());
+        if (sessionListener != null) {
+            sessionListener.onDisconnect(String.valueOf(channel.getId()), "closed");
+        }
+    }
+
+    private void acceptLoop() {
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel socket = serverChannel.accept();
+                long id = connectionIdGen.incrementAndGet();
+                NioChannel channel = new NioChannel(socket, group.next(), this, id);
+                channels.put(id, channel);
+                if (sessionListener != null) {
+                    sessionListener.onConnect(String.valueOf(id));
+                }
+                channel.start();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
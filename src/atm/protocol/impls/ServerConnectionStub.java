@@ -3,6 +3,7 @@ package atm.protocol.impls;
 import atm.protocol.CallbackConnection;
 import atm.protocol.ClientConnection;
 import atm.protocol.MessageListener;
+import atm.protocol.SessionListener;
 import atm.protocol.messages.ProtocolMessage;
 import atm.util.LongObjectHashMap;
 
@@ -19,6 +20,7 @@ import java.util.Map;
 public class ServerConnectionStub implements CallbackConnection {
     private final Map<Long, ClientConnection> connectionMap = new HashMap<>();
     private MessageListener listener;
+    private SessionListener sessionListener;
 
     public void sendMessage(ProtocolMessage message) {
         synchronized (connectionMap) {
@@ -34,15 +36,29 @@ public class ServerConnectionStub implements CallbackConnection {
         return listener;
     }
 
+    public void setSessionListener(SessionListener listener) {
+        this.sessionListener = listener;
+    }
+
+    public SessionListener getSessionListener() {
+        return sessionListener;
+    }
+
     public void addConnection(ClientConnection connection, long sessionId) {
         synchronized (connectionMap) {
             connectionMap.put(sessionId, connection);
         }
+        if (sessionListener != null) {
+            sessionListener.onConnect(String.valueOf(sessionId));
+        }
     }
 
     public void removeConnection(ClientConnection connection, long sessionId) {
         synchronized (connectionMap) {
             connectionMap.remove(sessionId);
         }
+        if (sessionListener != null) {
+            sessionListener.onDisconnect(String.valueOf(sessionId), "disconnected");
+        }
     }
 }
@@ -0,0 +1,12 @@
+package atm.protocol.messages;
+
+/**
+ * Many account operations of one session in a single message. In a request every item
+ * carries the operation type, amount and destination account; the reply has the same items
+ * in the same order, each turned into an ACK, a NAK or, for GETVALUE, the value read.
+ * The session and correlation id of the items are those of the batch.
+ */
+public class BatchMessage extends ProtocolMessage {
+    public long sessionId;
+    public AccountOperationMessage[] operations;
+}
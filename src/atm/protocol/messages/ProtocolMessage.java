@@ -10,4 +10,6 @@ package atm.protocol.messages;
 public class ProtocolMessage {
     public ProtocolMessageType messageType;
     public long sourceId;
+    /** Chosen by the client per request and echoed in the reply, so replies can be matched out of order. */
+    public long correlationId;
 }
@@ -15,7 +15,10 @@ public enum ProtocolMessageType {
     INCREASE(4),
     GETVALUE(5),
     ACK(6),
-    NAK(7);
+    NAK(7),
+    BATCH(8),
+    /** Refused because the server is overloaded; nothing was applied and the request may be repeated. */
+    BUSY(9);
 
     private ProtocolMessageType(int msgType) {
         this.msgType = msgType;
@@ -25,5 +28,25 @@ public enum ProtocolMessageType {
         return msgType;
     }
 
+    /**
+     * @return the message type with the given {@link #getType()} code, or null if there is none
+     */
+    public static ProtocolMessageType fromType(int msgType) {
+        return msgType >= 0 && msgType < BY_TYPE.length ? BY_TYPE[msgType] : null;
+    }
+
     private final int msgType;
+
+    private static final ProtocolMessageType[] BY_TYPE;
+
+    static {
+        int max = 0;
+        for (ProtocolMessageType type : values()) {
+            max = Math.max(max, type.msgType);
+        }
+        BY_TYPE = new ProtocolMessageType[max + 1];
+        for (ProtocolMessageType type : values()) {
+            BY_TYPE[type.msgType] = type;
+        }
+    }
 }
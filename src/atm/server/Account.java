@@ -1,5 +1,7 @@
 package atm.server;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * Created by IntelliJ IDEA.
  * User: shesdmi
@@ -10,9 +12,20 @@ package atm.server;
 public class Account {
     private double balance;
     private final String id;
+    private final long number;
+    private final ReentrantLock lock;
+
+    public Account(String id, long number) {
+        this(id, number, new ReentrantLock());
+    }
 
-    public Account(String id) {
+    /**
+     * For accounts sharing locks with others.
+     */
+    protected Account(String id, long number, ReentrantLock lock) {
         this.id = id;
+        this.number = number;
+        this.lock = lock;
     }
 
     public boolean transferTo(Account to, double delta) {
@@ -25,6 +38,26 @@ public class Account {
         return false;
     }
 
+    public boolean debit(double delta) {
+        if (balance > delta) {
+            balance = balance - delta;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Debits the legs of a split transfer as one amount, consistent with crediting
+     * {@code amounts[i]} to each leg.
+     */
+    public boolean debitLegs(double[] amounts) {
+        double total = 0;
+        for (double amount : amounts) {
+            total += amount;
+        }
+        return debit(total);
+    }
+
     public void increase(double delta) {
         balance = balance + delta;
     }
@@ -38,7 +71,7 @@ public class Account {
     }
 
     public Account createCopy() {
-        Account res = new Account(id);
+        Account res = new Account(id, number);
         res.balance = balance;
         return res;
     }
@@ -53,7 +86,32 @@ public class Account {
         return balance;
     }
 
+    /**
+     * Sets the balance outright; only for rebuilding state on recovery.
+     */
+    public void restoreBalance(double balance) {
+        this.balance = balance;
+    }
+
     public String getId() {
         return id;
     }
+
+    /**
+     * Stable number assigned when the account is created; defines the lock order.
+     */
+    public long getNumber() {
+        return number;
+    }
+
+    public ReentrantLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Whether single-account operations are atomic on their own and need no external lock.
+     */
+    public boolean isLockFree() {
+        return false;
+    }
 }
@@ -0,0 +1,52 @@
+package atm.server;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded direct-mapped cache of resolved accounts, used for transfer destinations. Each id
+ * hashes to exactly one slot, a newer account evicts whatever occupied its slot, and the
+ * cached account itself serves as the entry, so neither hits nor fills allocate and reads
+ * never lock.
+ */
+public class AccountCache {
+    private final AtomicReferenceArray<Account> slots;
+    private final int mask;
+
+    public AccountCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity));
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    public Account get(String accountId) {
+        Account account = slots.get(slot(accountId));
+        if (account != null && account.getId().equals(accountId)) {
+            return account;
+        }
+        return null;
+    }
+
+    public void put(Account account) {
+        slots.set(slot(account.getId()), account);
+    }
+
+    public void invalidate(Account account) {
+        slots.compareAndSet(slot(account.getId()), account, null);
+    }
+
+    /**
+     * Drops whatever account with this id is cached.
+     */
+    public void invalidate(String accountId) {
+        int slot = slot(accountId);
+        Account account = slots.get(slot);
+        if (account != null && account.getId().equals(accountId)) {
+            slots.compareAndSet(slot, account, null);
+        }
+    }
+
+    private int slot(String accountId) {
+        int h = accountId.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,83 @@
+package atm.server;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Acquires the locks of several accounts at once. Locks are always taken in account number
+ * order, and a lock that is not free is never waited on while others are held: everything
+ * taken so far is released and the attempt is repeated after a randomized, exponentially
+ * growing pause.
+ */
+final class AccountLocks {
+    // the transaction is requeued by its engine after that, freeing the worker
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long MIN_BACKOFF_NANOS = 1000;
+    private static final long MAX_BACKOFF_NANOS = 1000000;
+    private static final Comparator<Account> BY_NUMBER = Comparator.comparingLong(Account::getNumber);
+    private static final LongAdder BACKOFFS = new LongAdder();
+
+    private AccountLocks() {}
+
+    /**
+     * @return the distinct locked accounts, to be passed to {@link #unlockAll}
+     * @throws TransactionException marked temporary if the locks could not be taken in time
+     */
+    static Account[] lockAll(Account first, Account[] others) throws TransactionException {
+        Account[] ordered = order(first, others);
+        long backoff = MIN_BACKOFF_NANOS;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            int locked = 0;
+            while (locked < ordered.length && ordered[locked].getLock().tryLock()) {
+                locked++;
+            }
+            if (locked == ordered.length) {
+                return ordered;
+            }
+            unlock(ordered, locked);
+            BACKOFFS.increment();
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+        }
+        TransactionException ex = new TransactionException("Can't lock accounts of " + first.getId());
+        ex.isTemporary = true;
+        throw ex;
+    }
+
+    /**
+     * @return how many times, in this process, a lock was found taken and the attempt paused
+     */
+    static long backoffs() {
+        return BACKOFFS.sum();
+    }
+
+    static void unlockAll(Account[] locked) {
+        unlock(locked, locked.length);
+    }
+
+    private static void unlock(Account[] accounts, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            accounts[i].getLock().unlock();
+        }
+    }
+
+    private static Account[] order(Account first, Account[] others) {
+        if (others.length == 0) {
+            return new Account[] {first};
+        }
+        Account[] all = new Account[others.length + 1];
+        all[0] = first;
+        System.arraycopy(others, 0, all, 1, others.length);
+        Arrays.sort(all, BY_NUMBER);
+        int distinct = 1;
+        for (int i = 1; i < all.length; i++) {
+            if (all[i].getNumber() != all[distinct - 1].getNumber()) {
+                all[distinct++] = all[i];
+            }
+        }
+        return distinct == all.length ? all : Arrays.copyOf(all, distinct);
+    }
+}
@@ -0,0 +1,13 @@
+package atm.server;
+
+/**
+ * Balance representation used for accounts created by {@link StorageService}.
+ */
+public enum AccountType {
+    /** {@link Account}: {@code double} balance, guarded by the caller. */
+    HEAP_DOUBLE,
+    /** {@link AtomicAccount}: {@code long} cents updated with CAS, no monitors. */
+    ATOMIC_CENTS,
+    /** {@link MappedAccount}: {@code double} balance in a slot of a {@link MappedAccountStore} file. */
+    MAPPED
+}
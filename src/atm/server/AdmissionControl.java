@@ -0,0 +1,105 @@
+package atm.server;
+
+import atm.server.operation.OperationType;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the operations accepted but not answered yet, per {@link Priority} class, so an
+ * overloaded server answers the excess right away with a busy reply instead of queueing it
+ * without limit. Balance reads have a class of their own and are not crowded out by
+ * transfers. A request may instead wait a short while for room, which holds up the thread
+ * delivering requests and so pushes back on the connections.
+ */
+public class AdmissionControl {
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    public enum Priority {
+        /** Balance reads. */
+        READ,
+        /** Operations moving money, and batches. */
+        WRITE;
+
+        public static Priority of(OperationType type) {
+            return type == OperationType.GETVALUE ? READ : WRITE;
+        }
+    }
+
+    private final Semaphore[] slots = new Semaphore[PRIORITIES.length];
+    private final int[] capacities = new int[PRIORITIES.length];
+    private final long waitNanos;
+    private final LongAdder shed = new LongAdder();
+
+    public AdmissionControl(ServerConfig config) {
+        this(config.maxQueuedReads, config.maxQueuedWrites, TimeUnit.MICROSECONDS.toNanos(config.admissionWaitMicros));
+    }
+
+    /**
+     * @param waitNanos how long a request waits for room before it is shed; 0 sheds at once
+     */
+    public AdmissionControl(int maxReads, int maxWrites, long waitNanos) {
+        if (maxReads <= 0 || maxWrites <= 0) {
+            throw new IllegalArgumentException("capacities must be positive");
+        }
+        capacities[Priority.READ.ordinal()] = maxReads;
+        capacities[Priority.WRITE.ordinal()] = maxWrites;
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Semaphore(capacities[i]);
+        }
+        this.waitNanos = waitNanos;
+    }
+
+    /**
+     * Takes {@code count} slots of the class, capped at its capacity, to be given back with
+     * {@link #release} once the work is answered.
+     *
+     * @return false if there was no room in time; the request is to be answered as busy
+     */
+    public boolean tryAdmit(Priority priority, int count) {
+        Semaphore s = slots[priority.ordinal()];
+        int permits = permits(priority, count);
+        boolean admitted;
+        if (waitNanos <= 0) {
+            admitted = s.tryAcquire(permits);
+        } else {
+            try {
+                admitted = s.tryAcquire(permits, waitNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                admitted = false;
+            }
+        }
+        if (!admitted) {
+            shed.increment();
+        }
+        return admitted;
+    }
+
+    public void release(Priority priority, int count) {
+        slots[priority.ordinal()].release(permits(priority, count));
+    }
+
+    /**
+     * @return slots of the class taken by work accepted and not answered yet
+     */
+    public int getQueueDepth(Priority priority) {
+        return capacities[priority.ordinal()] - slots[priority.ordinal()].availablePermits();
+    }
+
+    public int getCapacity(Priority priority) {
+        return capacities[priority.ordinal()];
+    }
+
+    /**
+     * @return requests answered as busy so far
+     */
+    public long getShed() {
+        return shed.sum();
+    }
+
+    private int permits(Priority priority, int count) {
+        return Math.min(count, capacities[priority.ordinal()]);
+    }
+}
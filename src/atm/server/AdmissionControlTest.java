@@ -0,0 +1,63 @@
+package atm.server;
+
+import atm.server.AdmissionControl.Priority;
+import atm.server.operation.OperationType;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControlTest {
+    @Test
+    public void testClassesAreBoundedSeparately() {
+        AdmissionControl admission = new AdmissionControl(1, 3, 0);
+
+        assertTrue(admission.tryAdmit(Priority.WRITE, 2));
+        assertTrue(admission.tryAdmit(Priority.WRITE, 1));
+        assertFalse(admission.tryAdmit(Priority.WRITE, 1));
+        assertTrue("reads are not crowded out", admission.tryAdmit(Priority.of(OperationType.GETVALUE), 1));
+        assertFalse(admission.tryAdmit(Priority.READ, 1));
+        assertEquals(3, admission.getQueueDepth(Priority.WRITE));
+        assertEquals(1, admission.getQueueDepth(Priority.READ));
+        assertEquals(2, admission.getShed());
+
+        admission.release(Priority.WRITE, 2);
+        assertTrue(admission.tryAdmit(Priority.of(OperationType.TRANSFER_TO), 1));
+        assertEquals(2, admission.getQueueDepth(Priority.WRITE));
+    }
+
+    @Test
+    public void testBatchLargerThanCapacityTakesAllSlots() {
+        AdmissionControl admission = new AdmissionControl(1, 4, 0);
+
+        assertTrue(admission.tryAdmit(Priority.WRITE, 10));
+        assertEquals(4, admission.getQueueDepth(Priority.WRITE));
+        assertFalse(admission.tryAdmit(Priority.WRITE, 1));
+        admission.release(Priority.WRITE, 10);
+        assertEquals(0, admission.getQueueDepth(Priority.WRITE));
+    }
+
+    @Test
+    public void testWaitsForRoomBeforeShedding() throws InterruptedException {
+        final AdmissionControl admission = new AdmissionControl(1, 1, TimeUnit.SECONDS.toNanos(30));
+        assertTrue(admission.tryAdmit(Priority.WRITE, 1));
+
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            admission.release(Priority.WRITE, 1);
+        });
+        releaser.start();
+        assertTrue(admission.tryAdmit(Priority.WRITE, 1));
+        releaser.join();
+
+        AdmissionControl shedding = new AdmissionControl(1, 1, TimeUnit.MILLISECONDS.toNanos(10));
+        assertTrue(shedding.tryAdmit(Priority.READ, 1));
+        assertFalse(shedding.tryAdmit(Priority.READ, 1));
+        assertEquals(1, shedding.getShed());
+    }
+}
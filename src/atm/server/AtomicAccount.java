@@ -0,0 +1,103 @@
+package atm.server;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Account keeping its balance as a whole number of cents. Every mutation is a CAS loop on
+ * that field, so single-account operations never take a monitor and never block each other,
+ * and balance comparisons are exact instead of epsilon based.
+ */
+public class AtomicAccount extends Account {
+    private static final AtomicLongFieldUpdater<AtomicAccount> CENTS =
+            AtomicLongFieldUpdater.newUpdater(AtomicAccount.class, "cents");
+    private volatile long cents;
+
+    public AtomicAccount(String id, long number) {
+        super(id, number);
+    }
+
+    @Override
+    public boolean transferTo(Account to, double delta) {
+        if (debit(delta)) {
+            to.increase(delta);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean debit(double delta) {
+        return withdraw(delta);
+    }
+
+    /**
+     * Debits the sum of the legs rounded to cents one by one, so that the debit equals the
+     * credits to the legs exactly.
+     */
+    @Override
+    public boolean debitLegs(double[] amounts) {
+        long d = 0;
+        for (double amount : amounts) {
+            d += toCents(amount);
+        }
+        return withdrawCents(d);
+    }
+
+    @Override
+    public void increase(double delta) {
+        CENTS.addAndGet(this, toCents(delta));
+    }
+
+    @Override
+    public boolean withdraw(double delta) {
+        return withdrawCents(toCents(delta));
+    }
+
+    private boolean withdrawCents(long d) {
+        long current;
+        do {
+            current = cents;
+            if (current <= d) {
+                return false;
+            }
+        } while (!CENTS.compareAndSet(this, current, current - d));
+        return true;
+    }
+
+    @Override
+    public Account createCopy() {
+        AtomicAccount res = new AtomicAccount(getId(), getNumber());
+        res.cents = cents;
+        return res;
+    }
+
+    @Override
+    public void rollbackToCopy(Account account) {
+        if (getId().equals(account.getId()) && account instanceof AtomicAccount) {
+            cents = ((AtomicAccount) account).cents;
+        }
+    }
+
+    @Override
+    public double getBalance() {
+        return cents / 100.0;
+    }
+
+    @Override
+    public void restoreBalance(double balance) {
+        cents = toCents(balance);
+    }
+
+    @Override
+    public boolean isLockFree() {
+        return true;
+    }
+
+    public long getCents() {
+        return cents;
+    }
+
+    static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+}
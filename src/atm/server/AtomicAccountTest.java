@@ -0,0 +1,82 @@
+package atm.server;
+
+import atm.server.operation.Operation;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AtomicAccountTest {
+
+    @Test
+    public void testWithdrawIsExact() {
+        AtomicAccount account = new AtomicAccount("a", 1);
+        account.increase(0.1);
+        account.increase(0.2);
+
+        assertEquals(30, account.getCents());
+        assertFalse(account.withdraw(0.3));
+        assertTrue(account.withdraw(0.29));
+        assertEquals(1, account.getCents());
+    }
+
+    @Test
+    public void testConcurrentUpdatesKeepBalance() throws InterruptedException {
+        final AtomicAccount account = new AtomicAccount("a", 1);
+        account.increase(1);
+        final int threads = 8;
+        final int iterations = 100000;
+        final CountDownLatch finishLatch = new CountDownLatch(threads);
+        // an assertion failing on a spawned thread would not fail the test, so count the refusals
+        final AtomicInteger refusedWithdrawals = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < iterations; i++) {
+                        account.increase(0.01);
+                        if (!account.withdraw(0.01)) {
+                            refusedWithdrawals.incrementAndGet();
+                        }
+                    }
+                } finally {
+                    finishLatch.countDown();
+                }
+            }).start();
+        }
+        finishLatch.await();
+
+        assertEquals(0, refusedWithdrawals.get());
+        assertEquals(100, account.getCents());
+    }
+
+    @Test
+    public void testTransferMovesCents() {
+        AtomicAccount from = new AtomicAccount("from", 1);
+        AtomicAccount to = new AtomicAccount("to", 2);
+        from.increase(10);
+
+        assertTrue(from.transferTo(to, 2.5));
+        assertFalse(from.transferTo(to, 7.5));
+        assertEquals(750, from.getCents());
+        assertEquals(250, to.getCents());
+    }
+
+    @Test
+    public void testSplitTransferDebitsWhatItCredits() throws TransactionException {
+        AtomicAccount from = new AtomicAccount("from", 1);
+        AtomicAccount to1 = new AtomicAccount("to1", 2);
+        AtomicAccount to2 = new AtomicAccount("to2", 3);
+        from.increase(1);
+
+        // every leg rounds to a cent, their sum rounds to two
+        Operation split = new Operation(new Session(from, -1, -1),
+                new Account[] {to1, to2, to1}, new double[] {0.005, 0.005, 0.005});
+        new Transaction(split, (op) -> {}).execute();
+
+        assertEquals(2, to1.getCents());
+        assertEquals(1, to2.getCents());
+        assertEquals(97, from.getCents());
+    }
+}
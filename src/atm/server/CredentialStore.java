@@ -0,0 +1,196 @@
+package atm.server;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Salted PBKDF2 verifiers of the credentials users log in with, by user id. A check against a
+ * verifier runs on a small bounded pool of its own, so a burst of logins queues there instead
+ * of occupying the threads that serve requests; when the queue is full the login is refused.
+ * <p>
+ * A successful check is remembered for a short while as a keyed digest of the credential, so
+ * a client logging in again and again with the same credential, as an ATM does for every
+ * account it serves, pays for the slow hash once per cache period.
+ */
+public class CredentialStore {
+    public static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_BITS = 256;
+    private static final String CACHE_MAC = "HmacSHA256";
+
+    private final ConcurrentHashMap<String, Verifier> verifiers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, VerifiedLogin> verified = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final SecretKeySpec cacheKey;
+    private final ThreadLocal<Mac> cacheMac;
+    private final ThreadPoolExecutor executor;
+    private final int iterations;
+    private final boolean allowUnknownUsers;
+    private final long verifiedTtlNanos;
+    private final int maxVerified;
+    private final LongAdder slowChecks = new LongAdder();
+
+    public CredentialStore(ServerConfig config) {
+        this(config.credentialHashIterations, config.allowUnknownUsers, config.credentialCheckThreads,
+                config.credentialCheckQueueSize, TimeUnit.SECONDS.toNanos(config.verifiedLoginCacheSeconds),
+                config.verifiedLoginCacheSize);
+    }
+
+    /**
+     * @param allowUnknownUsers whether a user without a verifier may log in with any credential
+     * @param verifiedTtlNanos  how long a successful check is remembered; 0 remembers none
+     */
+    public CredentialStore(int iterations, boolean allowUnknownUsers, int threads, int queueSize,
+                           long verifiedTtlNanos, int maxVerified) {
+        this.iterations = iterations;
+        this.allowUnknownUsers = allowUnknownUsers;
+        this.verifiedTtlNanos = verifiedTtlNanos;
+        this.maxVerified = maxVerified;
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        cacheKey = new SecretKeySpec(key, CACHE_MAC);
+        cacheMac = ThreadLocal.withInitial(this::newCacheMac);
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), (r) -> {
+            Thread t = new Thread(r, "atm-auth-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Sets the credential of the user, replacing any previous one. Runs the slow hash on the
+     * calling thread.
+     */
+    public void enroll(String userId, byte[] credential) {
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        verifiers.put(userId, new Verifier(salt, iterations, hash(credential, salt, iterations)));
+        verified.remove(userId);
+    }
+
+    public boolean isEnrolled(String userId) {
+        return verifiers.containsKey(userId);
+    }
+
+    /**
+     * @return future completing with whether the user may log in with the credential; false
+     *         as well when too many checks are already waiting
+     */
+    public CompletableFuture<Boolean> verify(String userId, byte[] credential) {
+        final Verifier verifier = verifiers.get(userId);
+        if (verifier == null || credential == null) {
+            return CompletableFuture.completedFuture(verifier == null && allowUnknownUsers);
+        }
+        final byte[] digest = cacheDigest(userId, credential);
+        VerifiedLogin login = verified.get(userId);
+        if (login != null && login.verifier == verifier && System.nanoTime() - login.expiresAtNanos < 0
+                && MessageDigest.isEqual(login.digest, digest)) {
+            return CompletableFuture.completedFuture(true);
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                slowChecks.increment();
+                boolean ok = MessageDigest.isEqual(verifier.hash, hash(credential, verifier.salt, verifier.iterations));
+                if (ok) {
+                    remember(userId, verifier, digest);
+                }
+                return ok;
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    /**
+     * @return checks that ran the slow hash, as opposed to being answered from the cache
+     */
+    public long getSlowChecks() {
+        return slowChecks.sum();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void remember(String userId, Verifier verifier, byte[] digest) {
+        if (verifiedTtlNanos <= 0) {
+            return;
+        }
+        if (verified.size() >= maxVerified) {
+            // a burst of distinct users; dropping everything is cheaper than tracking age
+            verified.clear();
+        }
+        verified.put(userId, new VerifiedLogin(verifier, digest, System.nanoTime() + verifiedTtlNanos));
+    }
+
+    private byte[] cacheDigest(String userId, byte[] credential) {
+        Mac mac = cacheMac.get();
+        mac.update(userId.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        return mac.doFinal(credential);
+    }
+
+    private Mac newCacheMac() {
+        try {
+            Mac mac = Mac.getInstance(CACHE_MAC);
+            mac.init(cacheKey);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] hash(byte[] credential, byte[] salt, int iterations) {
+        // PBEKeySpec takes characters; credentials are binary digests
+        char[] password = Base64.getEncoder().encodeToString(credential).toCharArray();
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static final class Verifier {
+        final byte[] salt;
+        final int iterations;
+        final byte[] hash;
+
+        Verifier(byte[] salt, int iterations, byte[] hash) {
+            this.salt = salt;
+            this.iterations = iterations;
+            this.hash = hash;
+        }
+    }
+
+    private static final class VerifiedLogin {
+        final Verifier verifier;
+        final byte[] digest;
+        final long expiresAtNanos;
+
+        VerifiedLogin(Verifier verifier, byte[] digest, long expiresAtNanos) {
+            this.verifier = verifier;
+            this.digest = digest;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
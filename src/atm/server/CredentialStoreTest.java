@@ -0,0 +1,76 @@
+package atm.server;
+
+import atm.client.ATM;
+import atm.protocol.impls.InProcessConnectionImpl;
+import atm.protocol.impls.ServerConnectionProxy;
+import atm.protocol.impls.ServerConnectionStub;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CredentialStoreTest {
+    private static final byte[] PIN = "1234".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] WRONG_PIN = "4321".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testVerifiesEnrolledCredentialOnceThenFromCache() {
+        CredentialStore store = new CredentialStore(1000, false, 1, 16, TimeUnit.SECONDS.toNanos(60), 100);
+        store.enroll("alice", PIN);
+
+        assertFalse(store.verify("alice", WRONG_PIN).join());
+        assertTrue(store.verify("alice", PIN).join());
+        assertEquals(2, store.getSlowChecks());
+        assertTrue(store.verify("alice", PIN).join());
+        assertFalse(store.verify("alice", WRONG_PIN).join());
+        assertEquals(3, store.getSlowChecks());
+
+        store.enroll("alice", WRONG_PIN);
+        assertFalse("re-enrolling forgets the cached check", store.verify("alice", PIN).join());
+        assertFalse(store.verify("bob", PIN).join());
+        store.shutdown();
+    }
+
+    @Test
+    public void testUnknownUsersOnlyWhenAllowed() {
+        CredentialStore open = new CredentialStore(1000, true, 1, 16, 0, 100);
+        open.enroll("alice", PIN);
+
+        assertTrue(open.verify("bob", null).join());
+        assertFalse(open.verify("alice", null).join());
+        assertTrue(open.verify("alice", PIN).join());
+        assertTrue(open.verify("alice", PIN).join());
+        assertEquals("nothing cached", 2, open.getSlowChecks());
+        open.shutdown();
+    }
+
+    @Test
+    public void testLoginIsRefusedForWrongCredential() throws NoSuchAlgorithmException {
+        ServerConnectionStub stub = new ServerConnectionStub();
+        ServerConfig config = new ServerConfig();
+        config.credentialHashIterations = 1000;
+        config.allowUnknownUsers = false;
+        config.jmxEnabled = false;
+        ProcessingService service = new ProcessingService(stub, config);
+        // what the client sends for a password
+        service.getCredentialStore().enroll("alice", MessageDigest.getInstance("SHA-256").digest(PIN));
+        ATM atm = new ATM(new InProcessConnectionImpl(new ServerConnectionProxy(stub)));
+
+        atm.login("alice", PIN);
+        atm.increase(10);
+        assertEquals(10, atm.getAccountValue(), 0.00000001);
+        atm.logout();
+        for (String user : new String[] {"alice", "mallory"}) {
+            try {
+                atm.login(user, WRONG_PIN);
+                fail(user);
+            } catch (RuntimeException expected) {
+            }
+        }
+        service.shutdown();
+    }
+}
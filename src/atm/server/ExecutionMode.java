@@ -0,0 +1,13 @@
+package atm.server;
+
+/**
+ * Transaction engine used by {@link ProcessingService}.
+ */
+public enum ExecutionMode {
+    /** {@link ShardedTransactionEngine}: per-account single-writer shards. */
+    SHARDED,
+    /** {@link LockOrderedTransactionEngine}: shared worker pool with ordered account locks. */
+    LOCK_ORDERED,
+    /** {@link RingBufferTransactionEngine}: the shards of {@link #SHARDED}, fed through ring buffers. */
+    RING_BUFFER
+}
@@ -0,0 +1,103 @@
+package atm.server;
+
+import atm.util.ThreadMode;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Any worker runs any transaction, taking the locks of all accounts involved in account
+ * number order (see {@link AccountLocks}). Multi-leg transfers are applied atomically.
+ */
+public class LockOrderedTransactionEngine extends TransactionEngine {
+    private final ExecutorService executor;
+
+    public LockOrderedTransactionEngine(int poolSize) {
+        this(poolSize, ServerMetrics.DISABLED);
+    }
+
+    public LockOrderedTransactionEngine(int poolSize, ServerMetrics metrics) {
+        this(poolSize, metrics, new RetryScheduler());
+    }
+
+    public LockOrderedTransactionEngine(int poolSize, ServerMetrics metrics, RetryScheduler retries) {
+        this(poolSize, ThreadMode.PLATFORM, metrics, retries);
+    }
+
+    /**
+     * @param poolSize worker threads; ignored for {@link ThreadMode#VIRTUAL}, which runs every
+     *                 transaction on a virtual thread of its own
+     */
+    public LockOrderedTransactionEngine(int poolSize, ThreadMode threadMode, ServerMetrics metrics,
+                                        RetryScheduler retries) {
+        super(metrics, retries);
+        executor = threadMode.newExecutor(poolSize, "atm-worker");
+    }
+
+    @Override
+    public void submit(final Transaction transaction) {
+        executor.execute(() -> execute(transaction, Transaction::execute));
+    }
+
+    /**
+     * Takes the locks of every account the batch touches once and applies all of its
+     * transactions under them. If the locks can not be taken, the whole batch is retried later.
+     */
+    @Override
+    public void submitBatch(final TransactionBatch batch) {
+        executor.execute(() -> {
+            Transaction[] transactions = batch.getTransactions();
+            Account[] locked;
+            try {
+                locked = AccountLocks.lockAll(batch.getSourceAccount(), targetsOf(transactions));
+            } catch (TransactionException ex) {
+                if (!retryLater(ex, batch.nextAttempt(), () -> submitBatch(batch))) {
+                    for (Transaction transaction : transactions) {
+                        fail(transaction);
+                    }
+                }
+                return;
+            }
+            try {
+                for (Transaction transaction : transactions) {
+                    try {
+                        transaction.executeLocked();
+                    } catch (TransactionException ex) {
+                        fail(transaction);
+                    } catch (RuntimeException ex) {
+                        ex.printStackTrace();
+                        fail(transaction);
+                    }
+                }
+            } finally {
+                AccountLocks.unlockAll(locked);
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        executor.shutdown();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private static Account[] targetsOf(Transaction[] transactions) {
+        int count = 0;
+        for (Transaction transaction : transactions) {
+            count += transaction.getTargets().length;
+        }
+        Account[] targets = new Account[count];
+        count = 0;
+        for (Transaction transaction : transactions) {
+            Account[] legs = transaction.getTargets();
+            System.arraycopy(legs, 0, targets, count, legs.length);
+            count += legs.length;
+        }
+        return targets;
+    }
+}
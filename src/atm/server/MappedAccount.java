@@ -0,0 +1,81 @@
+package atm.server;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Handle on an account slot of a {@link MappedAccountStore}. Handles are cheap and not
+ * unique: two handles on the same slot are the same account, and share its lock. The
+ * balance semantics are those of {@link Account}, guarded by the caller.
+ */
+public class MappedAccount extends Account {
+    private final MappedAccountStore store;
+    final long slot;
+
+    MappedAccount(MappedAccountStore store, long slot, String id, long number, ReentrantLock lock) {
+        super(id, number, lock);
+        this.store = store;
+        this.slot = slot;
+    }
+
+    @Override
+    public boolean transferTo(Account to, double delta) {
+        if (debit(delta)) {
+            to.increase(delta);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean debit(double delta) {
+        double balance = store.getBalance(slot);
+        if (balance > delta) {
+            store.setBalance(slot, balance - delta);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void increase(double delta) {
+        store.setBalance(slot, store.getBalance(slot) + delta);
+    }
+
+    @Override
+    public boolean withdraw(double delta) {
+        double balance = store.getBalance(slot);
+        if (balance - delta > 0.00000001) {
+            store.setBalance(slot, balance - delta);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Account createCopy() {
+        Account res = new Account(getId(), getNumber());
+        res.restoreBalance(getBalance());
+        return res;
+    }
+
+    @Override
+    public void rollbackToCopy(Account account) {
+        if (getId().equals(account.getId())) {
+            store.setBalance(slot, account.getBalance());
+        }
+    }
+
+    @Override
+    public double getBalance() {
+        return store.getBalance(slot);
+    }
+
+    @Override
+    public void restoreBalance(double balance) {
+        store.setBalance(slot, balance);
+    }
+
+    boolean isLive() {
+        return store.isLive(this);
+    }
+}
@@ -0,0 +1,247 @@
+package atm.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Account balances and metadata kept in fixed-size slots of a memory-mapped file instead of
+ * on the heap. The slot array is itself an open-addressing hash table keyed by account id
+ * with linear probing, so an account is found and updated without any heap index, and an
+ * existing file is usable right after mapping it again: there is no load step on restart.
+ * <pre>
+ * header (64 bytes): magic:int slotSize:int capacity:long nextNumber:long
+ * slot (64 bytes):   state:int idLength:short id:char[23] balance:double number:long
+ * </pre>
+ * Values use the native byte order. Lookups never lock: a slot is claimed under the store
+ * monitor, filled, and then published by a release write of its state. Accounts handed out
+ * are light {@link MappedAccount} handles onto their slot; locks are striped by slot.
+ */
+public class MappedAccountStore implements Closeable {
+    public static final int MAX_ID_LENGTH = 23;
+    static final int SLOT_SIZE = 64;
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC = 0x41544d41;
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+    private static final int LOCK_STRIPES = 4096;
+
+    private static final int EMPTY = 0;
+    private static final int LIVE = 1;
+    private static final int REMOVED = 2;
+
+    private static final int STATE = 0;
+    private static final int ID_LENGTH = 4;
+    private static final int ID = 6;
+    private static final int BALANCE = 48;
+    private static final int NUMBER = 56;
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final long capacity;
+    private final long mask;
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    /**
+     * Maps {@code file}, creating it with room for {@code capacity} accounts (rounded up to
+     * a power of two) if it does not exist yet. An existing file keeps its own capacity.
+     */
+    public MappedAccountStore(File file, long capacity) throws IOException {
+        boolean exists = file.exists() && file.length() > 0;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (!exists) {
+            capacity = Long.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        } else {
+            capacity = (channel.size() - HEADER_SIZE) / SLOT_SIZE;
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        long size = HEADER_SIZE + capacity * SLOT_SIZE;
+        chunks = new MappedByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT)];
+        for (int i = 0; i < chunks.length; i++) {
+            long position = (long) i << CHUNK_SHIFT;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(CHUNK_MASK + 1, size - position));
+            chunks[i].order(ByteOrder.nativeOrder());
+        }
+        MappedByteBuffer header = chunks[0];
+        if (!exists) {
+            header.putInt(0, MAGIC);
+            header.putInt(4, SLOT_SIZE);
+            header.putLong(8, capacity);
+            header.putLong(16, 1);
+        } else if (header.getInt(0) != MAGIC || header.getInt(4) != SLOT_SIZE || header.getLong(8) != capacity) {
+            throw new IOException("Not an account store: " + file);
+        }
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return a handle on the account, or null if there is none with this id
+     */
+    public Account get(String accountId) {
+        long slot = find(accountId);
+        return slot < 0 ? null : handle(accountId, slot);
+    }
+
+    public Account getOrCreate(String accountId) {
+        long slot = find(accountId);
+        if (slot < 0) {
+            slot = insert(accountId);
+        }
+        return handle(accountId, slot);
+    }
+
+    /**
+     * Removes the account; its id resolves to a new, empty account afterwards.
+     *
+     * @return a handle on the removed account, or null
+     */
+    public synchronized Account remove(String accountId) {
+        long slot = find(accountId);
+        if (slot < 0) {
+            return null;
+        }
+        Account removed = handle(accountId, slot);
+        INT.setRelease(chunk(slot), offset(slot) + STATE, REMOVED);
+        return removed;
+    }
+
+    public void forEach(Consumer<Account> action) {
+        for (long slot = 0; slot < capacity; slot++) {
+            if ((int) INT.getAcquire(chunk(slot), offset(slot) + STATE) == LIVE) {
+                action.accept(handle(readId(slot), slot));
+            }
+        }
+    }
+
+    /**
+     * Writes changed balances back to the file.
+     */
+    public void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    boolean isLive(MappedAccount account) {
+        return (int) INT.getAcquire(chunk(account.slot), offset(account.slot) + STATE) == LIVE;
+    }
+
+    double getBalance(long slot) {
+        return chunk(slot).getDouble(offset(slot) + BALANCE);
+    }
+
+    void setBalance(long slot, double balance) {
+        chunk(slot).putDouble(offset(slot) + BALANCE, balance);
+    }
+
+    private MappedAccount handle(String accountId, long slot) {
+        MappedByteBuffer chunk = chunk(slot);
+        long number = chunk.getLong(offset(slot) + NUMBER);
+        return new MappedAccount(this, slot, accountId, number, locks[(int) (slot & (LOCK_STRIPES - 1))]);
+    }
+
+    private long find(String accountId) {
+        long slot = hash(accountId) & mask;
+        for (long probes = 0; probes < capacity; probes++) {
+            int state = (int) INT.getAcquire(chunk(slot), offset(slot) + STATE);
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state == LIVE && idEquals(slot, accountId)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private synchronized long insert(String accountId) {
+        if (accountId.length() > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("Account id longer than " + MAX_ID_LENGTH + " chars: " + accountId);
+        }
+        long slot = hash(accountId) & mask;
+        for (long probes = 0; probes < capacity; probes++) {
+            int state = (int) INT.getAcquire(chunk(slot), offset(slot) + STATE);
+            if (state == EMPTY) {
+                MappedByteBuffer chunk = chunk(slot);
+                int offset = offset(slot);
+                chunk.putShort(offset + ID_LENGTH, (short) accountId.length());
+                for (int i = 0; i < accountId.length(); i++) {
+                    chunk.putChar(offset + ID + i * 2, accountId.charAt(i));
+                }
+                chunk.putDouble(offset + BALANCE, 0);
+                long number = chunks[0].getLong(16);
+                chunks[0].putLong(16, number + 1);
+                chunk.putLong(offset + NUMBER, number);
+                INT.setRelease(chunk, offset + STATE, LIVE);
+                return slot;
+            }
+            // inserts are serialized, so a live slot with this id is one a racing lookup missed
+            if (state == LIVE && idEquals(slot, accountId)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        throw new IllegalStateException("Account store full: " + capacity + " slots");
+    }
+
+    private boolean idEquals(long slot, String accountId) {
+        MappedByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        int length = chunk.getShort(offset + ID_LENGTH);
+        if (length != accountId.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chunk.getChar(offset + ID + i * 2) != accountId.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readId(long slot) {
+        MappedByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        char[] chars = new char[chunk.getShort(offset + ID_LENGTH)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = chunk.getChar(offset + ID + i * 2);
+        }
+        return new String(chars);
+    }
+
+    private MappedByteBuffer chunk(long slot) {
+        return chunks[(int) ((HEADER_SIZE + slot * SLOT_SIZE) >>> CHUNK_SHIFT)];
+    }
+
+    private static int offset(long slot) {
+        return (int) ((HEADER_SIZE + slot * SLOT_SIZE) & CHUNK_MASK);
+    }
+
+    private static long hash(String accountId) {
+        long h = accountId.hashCode() * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+}
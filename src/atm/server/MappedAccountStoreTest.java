@@ -0,0 +1,131 @@
+package atm.server;
+
+import atm.server.operation.Operation;
+import atm.server.operation.OperationType;
+import atm.server.operation.ResultCallback;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MappedAccountStoreTest {
+    private static final int ACCOUNTS = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAccountsSurviveReopen() throws Exception {
+        File file = new File(folder.getRoot(), "accounts.map");
+        MappedAccountStore store = new MappedAccountStore(file, 100);
+        assertEquals(128, store.getCapacity());
+        for (int i = 0; i < 100; i++) {
+            store.getOrCreate("a" + i).increase(i);
+        }
+        long number = store.get("a7").getNumber();
+        store.close();
+
+        MappedAccountStore reopened = new MappedAccountStore(file, 1);
+        assertEquals(128, reopened.getCapacity());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, reopened.get("a" + i).getBalance(), 0);
+        }
+        assertEquals(number, reopened.get("a7").getNumber());
+        assertNull(reopened.get("a100"));
+        assertTrue(reopened.getOrCreate("a100").getNumber() > 100);
+        reopened.close();
+    }
+
+    @Test
+    public void testHandlesShareSlotAndLock() throws Exception {
+        MappedAccountStore store = new MappedAccountStore(folder.newFile(), 16);
+        Account first = store.getOrCreate("merchant");
+        Account second = store.getOrCreate("merchant");
+        first.increase(10);
+        assertTrue(second.withdraw(4));
+
+        assertEquals(6, first.getBalance(), 0.00000001);
+        assertEquals(first.getNumber(), second.getNumber());
+        assertSame(first.getLock(), second.getLock());
+        store.close();
+    }
+
+    @Test
+    public void testClosedAccountIsNotServedFromCache() throws Exception {
+        MappedAccountStore store = new MappedAccountStore(folder.newFile(), 16);
+        StorageService storage = new StorageService(AccountType.MAPPED, 1, store);
+        Account merchant = storage.lookupAccount("merchant");
+        merchant.increase(10);
+
+        assertEquals(merchant.getNumber(), storage.closeAccount("merchant").getNumber());
+        Account reopened = storage.lookupAccount("merchant");
+        assertNotEquals(merchant.getNumber(), reopened.getNumber());
+        assertEquals(0, reopened.getBalance(), 0);
+        store.close();
+    }
+
+    @Test
+    public void testConcurrentCreateYieldsOneAccount() throws Exception {
+        final MappedAccountStore store = new MappedAccountStore(folder.newFile(), 1024);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    store.getOrCreate("a" + i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final int[] count = new int[1];
+        store.forEach((account) -> count[0]++);
+        assertEquals(500, count[0]);
+        store.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFullStoreRejectsNewAccounts() throws Exception {
+        MappedAccountStore store = new MappedAccountStore(folder.newFile(), 2);
+        store.getOrCreate("a");
+        store.getOrCreate("b");
+        store.getOrCreate("c");
+    }
+
+    @Test
+    public void testTransfersKeepTotal() throws Exception {
+        MappedAccountStore store = new MappedAccountStore(folder.newFile(), ACCOUNTS);
+        StorageService storage = new StorageService(AccountType.MAPPED, 16, store);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            storage.lookupAccount("a" + i).increase(1000);
+        }
+        for (TransactionEngine engine : new TransactionEngine[] {new ShardedTransactionEngine(4), new LockOrderedTransactionEngine(4)}) {
+            final CountDownLatch done = new CountDownLatch(4000);
+            for (int i = 0; i < 4000; i++) {
+                Session session = new Session(storage.lookupAccount("a" + (i % ACCOUNTS)), -1, -1);
+                Operation operation = new Operation(OperationType.TRANSFER_TO, session, storage.lookupAccount("a" + ((i * 7 + 1) % ACCOUNTS)), 1);
+                engine.submit(new Transaction(operation, new ResultCallback() {
+                    public void onOperationResult(Operation op) {
+                        done.countDown();
+                    }
+
+                    public void onOperationFailed(Operation op) {
+                        done.countDown();
+                    }
+                }));
+            }
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            engine.shutdown();
+        }
+        final double[] total = new double[1];
+        storage.forEachAccount((account) -> total[0] += account.getBalance());
+        assertEquals(ACCOUNTS * 1000, total[0], 0.00001);
+        store.close();
+    }
+}
@@ -0,0 +1,38 @@
+package atm.server;
+
+import atm.server.operation.OperationType;
+import atm.util.LatencyHistogram;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Point-in-time copy of {@link ServerMetrics}; latencies in nanoseconds, all counts since
+ * the metrics were created.
+ */
+public class MetricsSnapshot {
+    public final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+    /** {@link Stage#TOTAL} latency per operation type. */
+    public final Map<OperationType, LatencyHistogram> operationTypes = new EnumMap<>(OperationType.class);
+    /** Operations completed successfully, single or batched, per type. */
+    public final Map<OperationType, Long> operations = new EnumMap<>(OperationType.class);
+    public long naks;
+    /** Executions rescheduled after a temporary failure such as a lock timeout. */
+    public long retries;
+    /** Transactions given up on, for good or after their last retry, and NAKed. */
+    public long failures;
+    /** Rounds in which taking several account locks failed and was retried after a pause. */
+    public long lockBackoffs;
+    /** Operations accepted and not answered yet per class, empty without admission control. */
+    public final Map<AdmissionControl.Priority, Integer> queueDepths = new EnumMap<>(AdmissionControl.Priority.class);
+    /** Requests answered as busy by admission control. */
+    public long shed;
+
+    public long getOperationCount() {
+        long total = 0;
+        for (long count : operations.values()) {
+            total += count;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,67 @@
+package atm.server;
+
+import atm.server.journal.Journal;
+import atm.server.operation.Operation;
+import atm.server.operation.OperationType;
+import atm.server.operation.ResultCallback;
+import atm.util.ObjectPool;
+
+/**
+ * Recycles the operations, and their transactions, of single requests: taken by the thread
+ * receiving a request and given back by whichever thread publishes its result, once that is
+ * done. Batches are not pooled, since their replies refer to their operations.
+ * <p>
+ * In debug mode an operation read after it was given back, or given back twice, throws
+ * {@link IllegalStateException} instead of silently serving another request's data.
+ */
+public class OperationPool {
+    private final ObjectPool<PooledOperation> pool;
+    private final ResultCallback callback;
+    private final Journal journal;
+    private final boolean debug;
+
+    /**
+     * @param callback told the results of every operation of the pool
+     * @param journal  journal of their transactions, or null
+     */
+    public OperationPool(int capacity, ResultCallback callback, Journal journal, boolean debug) {
+        pool = new ObjectPool<>(capacity);
+        this.callback = callback;
+        this.journal = journal;
+        this.debug = debug;
+    }
+
+    public Operation acquire(OperationType type, Session session, Account account2, double value) {
+        PooledOperation operation = pool.acquire();
+        if (operation == null) {
+            operation = new PooledOperation(callback, journal, debug);
+        }
+        operation.init(type, session, account2, value);
+        return operation;
+    }
+
+    /**
+     * Takes back an operation from {@link #acquire} once its result is published; ignores any
+     * other operation.
+     */
+    public void release(Operation operation) {
+        if (!(operation instanceof PooledOperation)) {
+            return;
+        }
+        PooledOperation pooled = (PooledOperation) operation;
+        if (debug) {
+            if (pooled.released) {
+                throw new IllegalStateException("Operation released twice");
+            }
+            pooled.released = true;
+        }
+        pool.release(pooled);
+    }
+
+    /**
+     * @return the transaction that comes with a pooled operation, or null for any other
+     */
+    public static Transaction transactionOf(Operation operation) {
+        return operation instanceof PooledOperation ? ((PooledOperation) operation).transaction : null;
+    }
+}
@@ -0,0 +1,205 @@
+package atm.server;
+
+import atm.protocol.CallbackConnection;
+import atm.protocol.MessageListener;
+import atm.protocol.SessionListener;
+import atm.protocol.messages.AccountOperationMessage;
+import atm.protocol.messages.LogonMessage;
+import atm.protocol.messages.ProtocolMessage;
+import atm.protocol.messages.ProtocolMessageType;
+import atm.server.operation.Operation;
+import atm.server.operation.OperationType;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class OperationPoolTest {
+    private static final int WINDOW = 256;
+    private static final int WARM_UP_ROUNDS = 2000;
+    private static final int MEASURED_ROUNDS = 2000;
+
+    @Test
+    public void testReusesOperationsOnceReleased() {
+        OperationPool pool = new OperationPool(4, null, null, false);
+        Operation first = pool.acquire(OperationType.INCREASE, null, null, 1);
+        Transaction transaction = OperationPool.transactionOf(first);
+        assertNotNull(transaction);
+        pool.release(first);
+
+        Operation second = pool.acquire(OperationType.GETVALUE, null, null, 0);
+        assertSame(first, second);
+        assertSame(transaction, OperationPool.transactionOf(second));
+        assertEquals(OperationType.GETVALUE, second.getOperationType());
+        assertEquals(0, second.getCorrelationId());
+        assertNull(OperationPool.transactionOf(new Operation(OperationType.INCREASE, null, 1)));
+    }
+
+    @Test
+    public void testDebugModeDetectsUseAfterRelease() {
+        OperationPool pool = new OperationPool(4, null, null, true);
+        Operation operation = pool.acquire(OperationType.INCREASE, null, null, 1);
+        operation.setCorrelationId(7);
+        assertEquals(7, operation.getCorrelationId());
+        pool.release(operation);
+
+        try {
+            operation.getValue();
+            fail("read after release");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            pool.release(operation);
+            fail("released twice");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(2, pool.acquire(OperationType.INCREASE, null, null, 2).getValue(), 0.00000001);
+    }
+
+    @Test
+    public void testRecycledRequestsDoNotAllocate() throws InterruptedException {
+        ServerConfig config = new ServerConfig();
+        config.recycleOperations = true;
+        config.executionMode = ExecutionMode.RING_BUFFER;
+        config.shardCount = 1;
+        config.jmxEnabled = false;
+        config.allowUnknownUsers = true;
+        ReplyCounter connection = new ReplyCounter();
+        ProcessingService service = new ProcessingService(connection, config);
+        try {
+            AccountOperationMessage request = new AccountOperationMessage();
+            request.sourceId = 1;
+            request.sessionId = connection.login("alice");
+
+            send(connection, request, WARM_UP_ROUNDS);
+            com.sun.management.ThreadMXBean threads =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long[] ids = engineAndCallerThreads();
+            long before = allocatedBytes(threads, ids);
+            send(connection, request, MEASURED_ROUNDS);
+            long perOperation = (allocatedBytes(threads, ids) - before) / ((long) MEASURED_ROUNDS * WINDOW);
+
+            assertEquals("bytes allocated per operation", 0, perOperation);
+            assertEquals(0, connection.naks.get());
+            assertEquals(0, service.getAdmissionControl().getShed());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    /**
+     * Sends windows of increases, transfers and balance reads through the transport the way
+     * a connection would, waiting for every reply before the next window.
+     */
+    private static void send(ReplyCounter connection, AccountOperationMessage request, int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            long expected = connection.replies.get() + WINDOW;
+            for (int i = 0; i < WINDOW; i++) {
+                switch (i % 3) {
+                    case 0:
+                        request.messageType = ProtocolMessageType.INCREASE;
+                        request.amount = 2;
+                        request.toAccountId = null;
+                        break;
+                    case 1:
+                        request.messageType = ProtocolMessageType.TRANSFER_TO;
+                        request.amount = 1;
+                        request.toAccountId = "bob";
+                        break;
+                    default:
+                        request.messageType = ProtocolMessageType.GETVALUE;
+                        request.amount = 0;
+                        request.toAccountId = null;
+                }
+                request.correlationId = i;
+                connection.listener.onMessage(request);
+            }
+            while (connection.replies.get() < expected) {
+                Thread.yield();
+            }
+        }
+    }
+
+    private static long[] engineAndCallerThreads() {
+        List<Long> ids = new ArrayList<>();
+        ids.add(Thread.currentThread().getId());
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("atm-ring-")) {
+                ids.add(thread.getId());
+            }
+        }
+        assertEquals(2, ids.size());
+        long[] result = new long[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+
+    private static long allocatedBytes(com.sun.management.ThreadMXBean threads, long[] ids) {
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(ids)) {
+            total += bytes;
+        }
+        return total;
+    }
+
+    /**
+     * Connection that encodes nothing and is done with a reply once it has counted it.
+     */
+    private static final class ReplyCounter implements CallbackConnection {
+        final AtomicLong replies = new AtomicLong();
+        final AtomicLong naks = new AtomicLong();
+        volatile long sessionId = -1;
+        MessageListener listener;
+        SessionListener sessionListener;
+
+        long login(String userId) throws InterruptedException {
+            LogonMessage logon = new LogonMessage();
+            logon.messageType = ProtocolMessageType.LOGIN;
+            logon.sourceId = 1;
+            logon.userId = userId;
+            logon.credentials = new byte[32];
+            listener.onMessage(logon);
+            while (sessionId < 0) {
+                Thread.sleep(1);
+            }
+            return sessionId;
+        }
+
+        public void sendMessage(ProtocolMessage message) {
+            if (message.messageType == ProtocolMessageType.LOGIN) {
+                sessionId = ((LogonMessage) message).sessionId;
+                return;
+            }
+            if (message.messageType != ProtocolMessageType.ACK && message.messageType != ProtocolMessageType.GETVALUE) {
+                naks.incrementAndGet();
+            }
+            replies.incrementAndGet();
+        }
+
+        public boolean keepsSentMessages() {
+            return false;
+        }
+
+        public void setMessageListener(MessageListener listener) {
+            this.listener = listener;
+        }
+
+        public MessageListener getMessageListener() {
+            return listener;
+        }
+
+        public void setSessionListener(SessionListener listener) {
+            this.sessionListener = listener;
+        }
+
+        public SessionListener getSessionListener() {
+            return sessionListener;
+        }
+    }
+}
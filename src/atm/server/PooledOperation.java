@@ -0,0 +1,75 @@
+package atm.server;
+
+import atm.server.journal.Journal;
+import atm.server.operation.Operation;
+import atm.server.operation.OperationType;
+import atm.server.operation.ResultCallback;
+
+/**
+ * Operation handed out by an {@link OperationPool}, together with the transaction that
+ * executes it; both are reused for request after request. In debug mode, reading one after
+ * it was given back fails.
+ */
+final class PooledOperation extends Operation {
+    final Transaction transaction;
+    private final boolean debug;
+    volatile boolean released;
+
+    PooledOperation(ResultCallback callback, Journal journal, boolean debug) {
+        super(null, null, (Session) null, 0);
+        this.debug = debug;
+        transaction = new Transaction(this, callback, journal);
+    }
+
+    void init(OperationType type, Session session, Account account2, double value) {
+        operationType = type;
+        session1 = session;
+        this.account2 = account2;
+        this.value = value;
+        correlationId = 0;
+        receivedNanos = 0;
+        validatedNanos = 0;
+        startedNanos = 0;
+        executedNanos = 0;
+        transaction.recycle();
+        if (debug) {
+            released = false;
+        }
+    }
+
+    @Override
+    public OperationType getOperationType() {
+        checkLive();
+        return super.getOperationType();
+    }
+
+    @Override
+    public Session getSession1() {
+        checkLive();
+        return super.getSession1();
+    }
+
+    @Override
+    public double getValue() {
+        checkLive();
+        return super.getValue();
+    }
+
+    @Override
+    public void setValue(double value) {
+        checkLive();
+        super.setValue(value);
+    }
+
+    @Override
+    public long getCorrelationId() {
+        checkLive();
+        return super.getCorrelationId();
+    }
+
+    private void checkLive() {
+        if (debug && released) {
+            throw new IllegalStateException("Operation used after it was released");
+        }
+    }
+}
@@ -1,13 +1,29 @@
 package atm.server;
 
 import atm.protocol.CallbackConnection;
+import atm.server.journal.Journal;
+import atm.server.journal.Recovery;
+import atm.server.journal.SnapshotWriter;
+import atm.server.operation.BatchResultCallback;
 import atm.server.operation.Operation;
+import atm.server.operation.OperationBatch;
+import atm.server.operation.OperationType;
 import atm.server.operation.ResultCallback;
 
-import java.util.concurrent.Executor;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 /**
  * Created by IntelliJ IDEA.
  * User: shesdmi
@@ -15,77 +31,355 @@ import java.util.concurrent.atomic.AtomicLong;
  * Time: 6:13 PM
  * To change this template use File | Settings | File Templates.
  */
-public class ProcessingService implements ResultCallback {
-    private static final int EXEC_POOL_SIZE = 1;
-    private static final Executor executor = Executors.newFixedThreadPool(EXEC_POOL_SIZE);
-    private static final int EXEC_TRIES = 3;
+public class ProcessingService implements ResultCallback, BatchResultCallback {
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+    private static final AtomicLong instanceIdGen = new AtomicLong();
     private final AtomicLong sessionIdGen = new AtomicLong(1);
+    private final TransactionEngine engine;
+    private final MappedAccountStore accountStore;
+    private final Journal journal;
+    private final ScheduledExecutorService snapshotScheduler;
+    private final SessionCache sessions;
+    private final CredentialStore credentialStore;
+    private final ExecutorService loginExecutor;
+    private final Semaphore pendingLogins;
+    private final ScheduledExecutorService sessionSweeper;
     private final ServerTransport transport;
+    private final AdmissionControl admission;
+    private final OperationPool operations;
+    private final ServerMetrics metrics;
+    private final ObjectName metricsName;
 
     public ProcessingService(CallbackConnection connection) {
-        transport = new ServerTransport(this, connection, new StorageService());
+        this(connection, new ServerConfig());
+    }
+
+    public ProcessingService(CallbackConnection connection, int shardCount) {
+        this(connection, shardConfig(shardCount));
+    }
+
+    public ProcessingService(CallbackConnection connection, ServerConfig config) {
+        admission = new AdmissionControl(config);
+        metrics = new ServerMetrics(config.metricsEnabled, admission);
+        engine = createEngine(config, metrics);
+        accountStore = openAccountStore(config);
+        sessions = new SessionCache(config);
+        credentialStore = new CredentialStore(config);
+        loginExecutor = config.workerThreads.newExecutor(config.loginThreads, "atm-login");
+        pendingLogins = new Semaphore(config.maxPendingLogins);
+        sessionSweeper = scheduleSessionSweeps(config, sessions);
+        StorageService storage = new StorageService(config.accountType, config.destinationCacheSize, accountStore, sessions);
+        journal = createJournal(config, storage);
+        snapshotScheduler = scheduleSnapshots(config, storage, journal);
+        operations = config.recycleOperations
+                ? new OperationPool(config.operationPoolSize, this, journal, config.debugRecycling) : null;
+        transport = new ServerTransport(this, connection, storage, metrics);
+        metricsName = config.jmxEnabled ? registerMetrics(metrics) : null;
     }
 
-    public long userLogin(Credentials username) {
-        if (validateCredentials(username)) {
-            return issueNewSessionId();
+    private static TransactionEngine createEngine(ServerConfig config, ServerMetrics metrics) {
+        switch (config.executionMode) {
+            case LOCK_ORDERED:
+                return new LockOrderedTransactionEngine(config.shardCount, config.workerThreads, metrics,
+                        new RetryScheduler(config));
+            case RING_BUFFER:
+                return new RingBufferTransactionEngine(config.shardCount, config.ringBufferSize, config.waitStrategy,
+                        metrics, new RetryScheduler(config));
+            default:
+                return new ShardedTransactionEngine(config.shardCount, metrics, new RetryScheduler(config));
         }
-        return -1;
     }
 
-    public void userLogout(String sessionId) {
+    /**
+     * @return the name the metrics were registered under, or null if that failed
+     */
+    private static ObjectName registerMetrics(ServerMetrics metrics) {
+        try {
+            ObjectName name = new ObjectName("atm:type=ServerMetrics,id=" + instanceIdGen.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            return name;
+        } catch (JMException e) {
+            e.printStackTrace();
+            return null;
+        }
     }
 
-    public void processOperation(long sessionId, Operation operation) throws InvalidSessionException {
-        validateSession(sessionId);
-        final Transaction transaction = transactionController.createTransaction(operation, this);
+    private void unregisterMetrics() {
+        if (metricsName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
 
-        executor.execute(() -> {
-            try {
-                processTransaction(transaction);
-            } catch (TransactionException ex) {
-                ex.printStackTrace();
+    private static MappedAccountStore openAccountStore(ServerConfig config) {
+        if (config.accountType != AccountType.MAPPED) {
+            return null;
+        }
+        try {
+            return new MappedAccountStore(config.accountStoreFile, config.accountStoreCapacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Recovers the accounts from an existing journal directory before opening the journal.
+     */
+    private static Journal createJournal(ServerConfig config, StorageService storage) {
+        if (config.journalDirectory == null) {
+            return null;
+        }
+        try {
+            if (config.journalDirectory.isDirectory()) {
+                Recovery.recover(config.journalDirectory, storage, config.recoveryThreads);
             }
+            return new Journal(config.journalDirectory, config.groupCommitMicros, config.groupCommitRecords, config.journalSegmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while recovering", e);
+        }
+    }
+
+    private static ScheduledExecutorService scheduleSnapshots(ServerConfig config, StorageService storage, Journal journal) {
+        if (journal == null || config.snapshotIntervalSeconds <= 0) {
+            return null;
+        }
+        final SnapshotWriter snapshots = new SnapshotWriter(config.journalDirectory, journal, storage, config.recoveryThreads);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread t = new Thread(r, "atm-snapshot");
+            t.setDaemon(true);
+            return t;
         });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshots.take();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, config.snapshotIntervalSeconds, config.snapshotIntervalSeconds, TimeUnit.SECONDS);
+        return scheduler;
     }
 
-    private void processTransaction(Transaction transaction) throws TransactionException {
-        for (int i = 0; i < EXEC_TRIES; i++) {
+    private static ScheduledExecutorService scheduleSessionSweeps(ServerConfig config, final SessionCache sessions) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread t = new Thread(r, "atm-session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
             try {
-                transaction.execute();
-                break;
-            } catch (TransactionException ex) {
-                if (ex.isTemporary && i != EXEC_TRIES - 1) {
-                    continue;
-                } else {
-                    throw ex;
-                }
+                sessions.sweep(System.nanoTime());
+            } catch (Exception e) {
+                e.printStackTrace();
             }
+        }, config.sessionSweepMillis, config.sessionSweepMillis, TimeUnit.MILLISECONDS);
+        return scheduler;
+    }
+
+    private static ServerConfig shardConfig(int shardCount) {
+        ServerConfig config = new ServerConfig();
+        config.shardCount = shardCount;
+        return config;
+    }
+
+    /**
+     * Waits for {@link #userLoginAsync}.
+     *
+     * @return the id of a new session, or -1 if the login was refused
+     */
+    public long userLogin(Credentials credentials) {
+        return userLoginAsync(credentials).join();
+    }
+
+    /**
+     * Checks the credentials on the {@link CredentialStore}'s threads and issues the session id
+     * on a login thread, so neither the caller nor the threads serving account operations wait
+     * for the check. Logins beyond {@link ServerConfig#maxPendingLogins} are refused at once.
+     *
+     * @return future completing on a login thread with the id of a new session, or with -1 if
+     *         the login was refused; completed already if refused right away
+     */
+    public CompletableFuture<Long> userLoginAsync(Credentials credentials) {
+        if (credentials.userId == null || !pendingLogins.tryAcquire()) {
+            return CompletableFuture.completedFuture(-1L);
+        }
+        return credentialStore.verify(credentials.userId, credentials.rawcred)
+                .thenApplyAsync((valid) -> valid ? issueNewSessionId() : -1L, loginExecutor)
+                .exceptionally((e) -> -1L)
+                .whenComplete((sessionId, e) -> pendingLogins.release());
+    }
+
+    public CredentialStore getCredentialStore() {
+        return credentialStore;
+    }
+
+    /**
+     * Ends the session if it was opened from {@code sourceId}.
+     */
+    public void userLogout(long sessionId, long sourceId) {
+        sessions.remove(sessionId, sourceId);
+    }
+
+    /**
+     * Ends every session opened over a connection that was closed.
+     */
+    public void sourceDisconnected(long sourceId) {
+        sessions.removeSource(sourceId);
+    }
+
+    /**
+     * @return the session if it exists, has not expired and was opened from {@code sourceId}
+     */
+    public Session validateSession(long sessionId, long sourceId) throws InvalidSessionException {
+        return sessions.validate(sessionId, sourceId, System.nanoTime());
+    }
+
+    /**
+     * @return a recycled operation if {@link ServerConfig#recycleOperations} is set, to be passed
+     *         to {@link #processOperation}, which gives it back once its result is published
+     */
+    public Operation createOperation(OperationType type, Session session, Account account2, double value) {
+        if (operations != null) {
+            return operations.acquire(type, session, account2, value);
         }
+        return new Operation(type, session, account2, value);
     }
 
+    public boolean isRecyclingOperations() {
+        return operations != null;
+    }
 
-    private void validateSession(long sessionId) throws InvalidSessionException {
-        double res = 0;
-        for (int i = 0; i < 100; i++) {
-            res = res + res * i;
-            Thread.yield();
+    /**
+     * Submits an operation whose session was checked by {@link #validateSession}.
+     *
+     * @throws ServerBusyException if {@link AdmissionControl} has no room for it
+     */
+    public void processOperation(Operation operation) throws InvalidSessionException, ServerBusyException {
+        if (operation.getSession1() == null) {
+            recycle(operation);
+            throw new InvalidSessionException();
+        }
+        AdmissionControl.Priority priority = AdmissionControl.Priority.of(operation.getOperationType());
+        if (!admission.tryAdmit(priority, 1)) {
+            recycle(operation);
+            throw new ServerBusyException();
         }
-        if (res < 0) {
+        if (operation.getReceivedNanos() != 0) {
+            operation.setValidatedNanos(System.nanoTime());
+        }
+        Transaction transaction = OperationPool.transactionOf(operation);
+        if (transaction == null) {
+            transaction = transactionController.createTransaction(operation, this, journal);
+        }
+        try {
+            engine.submit(transaction);
+        } catch (RuntimeException e) {
+            admission.release(priority, 1);
+            recycle(operation);
+            throw e;
+        }
+    }
+
+    /**
+     * Submits a batch whose session was checked once by {@link #validateSession} as a single
+     * unit of work; {@link #onBatchResult} follows when every item has been applied or has failed.
+     */
+    public void processBatch(OperationBatch batch) throws InvalidSessionException, ServerBusyException {
+        if (batch.getSession1() == null) {
             throw new InvalidSessionException();
         }
+        if (!admission.tryAdmit(AdmissionControl.Priority.WRITE, batch.size())) {
+            throw new ServerBusyException();
+        }
+        TransactionBatch transactions = transactionController.createBatch(batch, this, journal);
+        if (transactions.isEmpty()) {
+            onBatchResult(batch);
+            return;
+        }
+        try {
+            engine.submitBatch(transactions);
+        } catch (RuntimeException e) {
+            admission.release(AdmissionControl.Priority.WRITE, batch.size());
+            throw e;
+        }
     }
 
-    private boolean validateCredentials(Credentials credentials) {
-        return true;
+    public AdmissionControl getAdmissionControl() {
+        return admission;
+    }
+
+    /**
+     * Stops the engine; with a journal or an account store, also waits for running
+     * transactions and makes everything they wrote durable before closing them.
+     */
+    public void shutdown() {
+        unregisterMetrics();
+        sessionSweeper.shutdown();
+        loginExecutor.shutdown();
+        credentialStore.shutdown();
+        engine.shutdown();
+        if (journal == null && accountStore == null) {
+            return;
+        }
+        try {
+            if (snapshotScheduler != null) {
+                snapshotScheduler.shutdown();
+                snapshotScheduler.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+            engine.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (journal != null) {
+                journal.close();
+            }
+            if (accountStore != null) {
+                accountStore.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     private long issueNewSessionId() {
         return sessionIdGen.incrementAndGet();
     }
 
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
     public void onOperationResult(Operation operation) {
+        admission.release(AdmissionControl.Priority.of(operation.getOperationType()), 1);
         transport.publishOperationResult(operation);
+        metrics.recordCompleted(operation);
+        recycle(operation);
+    }
+
+    /**
+     * Answers an operation that failed for good, or on its last retry, with a NAK.
+     */
+    public void onOperationFailed(Operation operation) {
+        admission.release(AdmissionControl.Priority.of(operation.getOperationType()), 1);
+        transport.publishOperationFailed(operation);
+        recycle(operation);
+    }
+
+    private void recycle(Operation operation) {
+        if (operations != null) {
+            operations.release(operation);
+        }
+    }
+
+    public void onBatchResult(OperationBatch batch) {
+        admission.release(AdmissionControl.Priority.WRITE, batch.size());
+        transport.publishBatchResult(batch);
+        metrics.recordBatch(batch);
     }
 
     private TransactionController transactionController = TransactionController.getController();
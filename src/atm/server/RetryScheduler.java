@@ -0,0 +1,86 @@
+package atm.server;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs work that failed temporarily again after a randomized, exponentially growing delay,
+ * so the worker that saw the failure is free for other transactions in the meantime. The
+ * timer thread only hands the retry back to the engine; it is started on the first retry.
+ */
+public class RetryScheduler {
+    private final ScheduledThreadPoolExecutor timer;
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+
+    public RetryScheduler() {
+        this(ServerConfig.DEFAULT_MAX_EXECUTION_ATTEMPTS,
+                TimeUnit.MICROSECONDS.toNanos(ServerConfig.DEFAULT_RETRY_BASE_DELAY_MICROS),
+                TimeUnit.MICROSECONDS.toNanos(ServerConfig.DEFAULT_RETRY_MAX_DELAY_MICROS));
+    }
+
+    public RetryScheduler(ServerConfig config) {
+        this(config.maxExecutionAttempts, TimeUnit.MICROSECONDS.toNanos(config.retryBaseDelayMicros),
+                TimeUnit.MICROSECONDS.toNanos(config.retryMaxDelayMicros));
+    }
+
+    /**
+     * @param maxAttempts executions at most, the first one included
+     */
+    public RetryScheduler(int maxAttempts, long baseDelayNanos, long maxDelayNanos) {
+        if (maxAttempts <= 0 || baseDelayNanos <= 0 || maxDelayNanos < baseDelayNanos) {
+            throw new IllegalArgumentException("maxAttempts and delays must be positive, base delay at most max delay");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayNanos = baseDelayNanos;
+        this.maxDelayNanos = maxDelayNanos;
+        timer = new ScheduledThreadPoolExecutor(1, (r) -> {
+            Thread t = new Thread(r, "atm-retry");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Schedules the next execution of work whose {@code attempt}-th execution, counting from 1,
+     * failed temporarily.
+     *
+     * @return false if that was the last attempt allowed or the scheduler is shut down; the
+     *         work is to be failed then
+     */
+    public boolean schedule(Runnable retry, int attempt) {
+        if (attempt >= maxAttempts) {
+            return false;
+        }
+        try {
+            timer.schedule(retry, delayNanos(attempt), TimeUnit.NANOSECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Stops the timer; retries not run yet are dropped.
+     */
+    public void shutdown() {
+        timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        timer.shutdown();
+    }
+
+    private long delayNanos(int attempt) {
+        long delay = baseDelayNanos << Math.min(attempt - 1, 30);
+        if (delay <= 0 || delay > maxDelayNanos) {
+            delay = maxDelayNanos;
+        }
+        return ThreadLocalRandom.current().nextLong(delay / 2, delay + 1);
+    }
+}
@@ -0,0 +1,233 @@
+package atm.server;
+
+import atm.util.RingBuffer;
+import atm.util.WaitStrategy;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Same single-writer shards as {@link ShardedTransactionEngine}, fed through a
+ * {@link RingBuffer} per shard instead of an executor queue. Submitting a transaction, and
+ * handing a credit to another shard, fills a pre-allocated slot in place: no queue node and
+ * no task object per request, and no lock. Each shard thread drains everything published
+ * since it last looked before handing the slots back.
+ * <p>
+ * A shard never waits for room in another shard's ring, since two shards crediting each
+ * other could then wait forever; a credit that finds the ring full goes to a small overflow
+ * queue the shard drains as well. Submitters do wait for room, which pushes back on them.
+ */
+public class RingBufferTransactionEngine extends TransactionEngine {
+    private static final int SOURCE = -1;
+
+    private final Shard[] shards;
+    /** Slots published and not processed yet, in all shards. */
+    private final AtomicLong pending = new AtomicLong();
+    private volatile boolean halted;
+
+    public RingBufferTransactionEngine(int shardCount, int ringSize, WaitStrategy waitStrategy) {
+        this(shardCount, ringSize, waitStrategy, ServerMetrics.DISABLED, new RetryScheduler());
+    }
+
+    public RingBufferTransactionEngine(int shardCount, int ringSize, WaitStrategy waitStrategy,
+                                       ServerMetrics metrics, RetryScheduler retries) {
+        super(metrics, retries);
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        }
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, ringSize, waitStrategy);
+        }
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    @Override
+    public void submit(Transaction transaction) {
+        publish(shardFor(transaction.getSourceAccount()), transaction, null);
+    }
+
+    /**
+     * Debits the source for the whole batch in one slot on its shard; credits for other
+     * shards follow in slots of their own, which those shards drain together.
+     */
+    @Override
+    public void submitBatch(TransactionBatch batch) {
+        publish(shardFor(batch.getSourceAccount()), null, batch);
+    }
+
+    /**
+     * Processes what was submitted so far, then stops the shard threads.
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        halted = true;
+        for (Shard shard : shards) {
+            shard.ring.signal();
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Shard shard : shards) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (millis <= 0) {
+                return !shard.thread.isAlive();
+            }
+            shard.thread.join(millis);
+            if (shard.thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int shardFor(Account account) {
+        return ShardedExecutor.shardFor(account.getId(), shards.length);
+    }
+
+    private void publish(int shard, Transaction transaction, TransactionBatch batch) {
+        // counted before the check, so a shard can't see nothing pending and stop while this goes in
+        pending.incrementAndGet();
+        if (halted) {
+            pending.decrementAndGet();
+            throw new RejectedExecutionException("Engine is shut down");
+        }
+        RingBuffer<Slot> ring = shards[shard].ring;
+        long sequence = ring.claim();
+        ring.get(sequence).set(transaction, batch, SOURCE);
+        ring.publish(sequence);
+    }
+
+    /**
+     * Hands a credit to another shard from a shard thread, without waiting for room.
+     */
+    private void publishCredit(int shard, Transaction transaction, int leg) {
+        pending.incrementAndGet();
+        Shard target = shards[shard];
+        long sequence = target.ring.tryClaim();
+        if (sequence < 0) {
+            Slot slot = new Slot();
+            slot.set(transaction, null, leg);
+            target.overflow.add(slot);
+            target.ring.signal();
+            return;
+        }
+        target.ring.get(sequence).set(transaction, null, leg);
+        target.ring.publish(sequence);
+    }
+
+    private void executeOnSource(int shard, Transaction transaction) {
+        if (!execute(transaction, Transaction::executeOnSource)) {
+            return;
+        }
+        if (!transaction.isCreditPending()) {
+            transaction.complete();
+            return;
+        }
+        // the last credit may complete the transaction, which a pool can then hand out again
+        int legs = transaction.getTargetCount();
+        for (int leg = 0; leg < legs; leg++) {
+            int destinationShard = shardFor(transaction.getTarget(leg));
+            if (destinationShard == shard) {
+                credit(transaction, leg);
+            } else {
+                publishCredit(destinationShard, transaction, leg);
+            }
+        }
+    }
+
+    private void credit(Transaction transaction, int leg) {
+        if (transaction.executeOnDestination(leg)) {
+            transaction.complete();
+        }
+    }
+
+    /**
+     * Work for a shard: the source phase of a transaction or of a whole batch, or one credit.
+     */
+    private static final class Slot {
+        Transaction transaction;
+        TransactionBatch batch;
+        int leg;
+
+        void set(Transaction transaction, TransactionBatch batch, int leg) {
+            this.transaction = transaction;
+            this.batch = batch;
+            this.leg = leg;
+        }
+
+        void clear() {
+            transaction = null;
+            batch = null;
+        }
+    }
+
+    private final class Shard implements Runnable {
+        final int index;
+        final RingBuffer<Slot> ring;
+        final ConcurrentLinkedQueue<Slot> overflow = new ConcurrentLinkedQueue<>();
+        final Thread thread;
+
+        Shard(int index, int ringSize, WaitStrategy waitStrategy) {
+            this.index = index;
+            ring = new RingBuffer<>(ringSize, Slot::new, waitStrategy);
+            thread = new Thread(this, "atm-ring-" + index);
+            thread.setDaemon(true);
+        }
+
+        public void run() {
+            long next = 0;
+            while (true) {
+                long available = ring.waitFor(next);
+                long done = 0;
+                for (long sequence = next; sequence <= available; sequence++) {
+                    process(ring.get(sequence));
+                }
+                if (available >= next) {
+                    ring.release(available);
+                    done = available - next + 1;
+                    next = available + 1;
+                }
+                Slot slot;
+                while ((slot = overflow.poll()) != null) {
+                    process(slot);
+                    done++;
+                }
+                if (done > 0 && pending.addAndGet(-done) == 0 && halted) {
+                    // the others may be waiting for the last of the work to finish
+                    for (Shard shard : shards) {
+                        shard.ring.signal();
+                    }
+                }
+                if (halted && pending.get() == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void process(Slot slot) {
+            try {
+                if (slot.batch != null) {
+                    for (Transaction transaction : slot.batch.getTransactions()) {
+                        executeOnSource(index, transaction);
+                    }
+                } else if (slot.leg == SOURCE) {
+                    executeOnSource(index, slot.transaction);
+                } else {
+                    credit(slot.transaction, slot.leg);
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                slot.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package atm.server;
+
+/**
+ * Thrown when a request is refused by {@link AdmissionControl} because too much work is
+ * already queued; the client gets a busy reply and may try again later.
+ */
+public class ServerBusyException extends Exception {}
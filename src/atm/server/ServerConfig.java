@@ -0,0 +1,121 @@
+package atm.server;
+
+import atm.server.journal.Journal;
+import atm.util.ThreadMode;
+import atm.util.WaitStrategy;
+
+import java.io.File;
+
+/**
+ * Construction-time settings of {@link ProcessingService}.
+ */
+public class ServerConfig {
+    public static final int DEFAULT_DESTINATION_CACHE_SIZE = 4096;
+    public static final long DEFAULT_GROUP_COMMIT_MICROS = 200;
+    public static final int DEFAULT_GROUP_COMMIT_RECORDS = 1024;
+    public static final long DEFAULT_SNAPSHOT_INTERVAL_SECONDS = 300;
+    public static final long DEFAULT_ACCOUNT_STORE_CAPACITY = 1 << 20;
+    public static final long DEFAULT_SESSION_TTL_SECONDS = 8 * 60 * 60;
+    public static final long DEFAULT_SESSION_IDLE_TIMEOUT_SECONDS = 15 * 60;
+    public static final long DEFAULT_SESSION_SWEEP_MILLIS = 1000;
+    public static final int DEFAULT_MAX_SESSIONS = 1 << 20;
+    public static final int DEFAULT_MAX_SESSIONS_PER_USER = 256;
+    public static final int DEFAULT_MAX_SESSIONS_PER_SOURCE = 4096;
+    /** OWASP's recommendation for PBKDF2-HMAC-SHA256. */
+    public static final int DEFAULT_CREDENTIAL_HASH_ITERATIONS = 600000;
+    public static final int DEFAULT_CREDENTIAL_CHECK_QUEUE_SIZE = 1024;
+    public static final long DEFAULT_VERIFIED_LOGIN_CACHE_SECONDS = 60;
+    public static final int DEFAULT_VERIFIED_LOGIN_CACHE_SIZE = 1 << 16;
+    public static final int DEFAULT_MAX_PENDING_LOGINS = 4096;
+    public static final int DEFAULT_MAX_EXECUTION_ATTEMPTS = 5;
+    public static final long DEFAULT_RETRY_BASE_DELAY_MICROS = 100;
+    public static final long DEFAULT_RETRY_MAX_DELAY_MICROS = 10000;
+    public static final int DEFAULT_MAX_QUEUED_READS = 1 << 14;
+    public static final int DEFAULT_MAX_QUEUED_WRITES = 1 << 16;
+    public static final int DEFAULT_RING_BUFFER_SIZE = 1 << 14;
+    public static final int DEFAULT_OPERATION_POOL_SIZE = 1 << 14;
+
+    public ExecutionMode executionMode = ExecutionMode.SHARDED;
+    /** Number of shards, or of pool threads in {@link ExecutionMode#LOCK_ORDERED} mode. */
+    public int shardCount = Runtime.getRuntime().availableProcessors();
+    /** Slots of each shard's ring in {@link ExecutionMode#RING_BUFFER} mode, rounded up to a power of two. */
+    public int ringBufferSize = DEFAULT_RING_BUFFER_SIZE;
+    /** How idle shard threads wait in {@link ExecutionMode#RING_BUFFER} mode; BUSY_SPIN wants a core per shard. */
+    public WaitStrategy waitStrategy = WaitStrategy.PARK;
+    /**
+     * Threads of the {@link ExecutionMode#LOCK_ORDERED} workers and of logins; with VIRTUAL, a
+     * virtual thread per task, bounded by admission control instead of {@link #shardCount}. Shard
+     * threads own their accounts and stay platform threads.
+     */
+    public ThreadMode workerThreads = ThreadMode.PLATFORM;
+    /** Reuses the operations and transactions of single requests, see {@link OperationPool}. */
+    public boolean recycleOperations;
+    /** Idle operations kept for reuse at most. */
+    public int operationPoolSize = DEFAULT_OPERATION_POOL_SIZE;
+    /** Makes a recycled operation fail when used after it was given back; costs a check per access. */
+    public boolean debugRecycling;
+    /** Executions of a transaction that fails temporarily, such as on a lock timeout, before it is NAKed. */
+    public int maxExecutionAttempts = DEFAULT_MAX_EXECUTION_ATTEMPTS;
+    /** Delay before the first retry; doubled for each further one, randomized by up to half. */
+    public long retryBaseDelayMicros = DEFAULT_RETRY_BASE_DELAY_MICROS;
+    public long retryMaxDelayMicros = DEFAULT_RETRY_MAX_DELAY_MICROS;
+    /** Balance reads accepted and not answered yet; more are answered as busy, see {@link AdmissionControl}. */
+    public int maxQueuedReads = DEFAULT_MAX_QUEUED_READS;
+    /** Other operations, batch items included, accepted and not answered yet. */
+    public int maxQueuedWrites = DEFAULT_MAX_QUEUED_WRITES;
+    /** How long the thread delivering a request waits for room before answering busy; 0 does not wait. */
+    public long admissionWaitMicros;
+    public AccountType accountType = AccountType.HEAP_DOUBLE;
+    /** Slots of the transfer destination cache, rounded down to a power of two. */
+    public int destinationCacheSize = DEFAULT_DESTINATION_CACHE_SIZE;
+    /** File of the {@link MappedAccountStore}, required for {@link AccountType#MAPPED}. */
+    public File accountStoreFile;
+    /** Account slots of a new store file, rounded up to a power of two; an existing file keeps its own. */
+    public long accountStoreCapacity = DEFAULT_ACCOUNT_STORE_CAPACITY;
+    /** Directory of the write-ahead journal; null keeps account state in memory only. */
+    public File journalDirectory;
+    /** Longest a journal record waits for others to share its fsync. */
+    public long groupCommitMicros = DEFAULT_GROUP_COMMIT_MICROS;
+    /** Journal records that trigger an fsync without waiting out the commit window. */
+    public int groupCommitRecords = DEFAULT_GROUP_COMMIT_RECORDS;
+    public long journalSegmentSize = Journal.DEFAULT_SEGMENT_SIZE;
+    /** Seconds between account snapshots in the journal directory; 0 never takes one. */
+    public long snapshotIntervalSeconds = DEFAULT_SNAPSHOT_INTERVAL_SECONDS;
+    /** Threads replaying the journal on startup, and number of parts a snapshot is split into. */
+    public int recoveryThreads = Runtime.getRuntime().availableProcessors();
+    /** Time from login after which a session is rejected and has to log in again. */
+    public long sessionTtlSeconds = DEFAULT_SESSION_TTL_SECONDS;
+    /** Time without requests after which a session is rejected and has to log in again. */
+    public long sessionIdleTimeoutSeconds = DEFAULT_SESSION_IDLE_TIMEOUT_SECONDS;
+    /** Interval at which expired sessions are removed from the session table. */
+    public long sessionSweepMillis = DEFAULT_SESSION_SWEEP_MILLIS;
+    /** Sessions kept in all; beyond it the least recently used are evicted. */
+    public int maxSessions = DEFAULT_MAX_SESSIONS;
+    /** Sessions one user may hold; a further login evicts the user's least recently used one. */
+    public int maxSessionsPerUser = DEFAULT_MAX_SESSIONS_PER_USER;
+    /** Sessions opened over one connection; a further login evicts its least recently used one. */
+    public int maxSessionsPerSource = DEFAULT_MAX_SESSIONS_PER_SOURCE;
+    /** PBKDF2 iterations of newly enrolled credentials; existing verifiers keep their own. */
+    public int credentialHashIterations = DEFAULT_CREDENTIAL_HASH_ITERATIONS;
+    /**
+     * Whether users without a credential in the {@link CredentialStore} may log in unchecked;
+     * only for tests and load runs, since it lets anyone in under any unenrolled user id.
+     */
+    public boolean allowUnknownUsers;
+    /** Threads running credential checks, apart from the request and transaction threads. */
+    public int credentialCheckThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    /** Credential checks that may wait for a thread; logins beyond it are refused. */
+    public int credentialCheckQueueSize = DEFAULT_CREDENTIAL_CHECK_QUEUE_SIZE;
+    /** How long a successful credential check is remembered; 0 always runs the slow hash. */
+    public long verifiedLoginCacheSeconds = DEFAULT_VERIFIED_LOGIN_CACHE_SECONDS;
+    /** Users whose last successful check is remembered at most. */
+    public int verifiedLoginCacheSize = DEFAULT_VERIFIED_LOGIN_CACHE_SIZE;
+    /** Threads creating sessions and replying to logins once their credentials are checked. */
+    public int loginThreads = 1;
+    /** Logins being checked or waiting to be; logins beyond it are refused right away. */
+    public int maxPendingLogins = DEFAULT_MAX_PENDING_LOGINS;
+    /** Records per-stage latencies and counters, see {@link ProcessingService#getMetrics()}. */
+    public boolean metricsEnabled = true;
+    /** Registers the metrics with the platform MBean server as {@code atm:type=ServerMetrics,id=<n>}. */
+    public boolean jmxEnabled = true;
+}
@@ -0,0 +1,291 @@
+package atm.server;
+
+import atm.server.operation.Operation;
+import atm.server.operation.OperationBatch;
+import atm.server.operation.OperationType;
+import atm.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-stage and per-operation-type latencies of the requests a server completes, and counters
+ * of operations, NAKs, retries, failures, lock backoffs and shed requests. Latencies are
+ * computed from the timestamps kept on each {@link Operation} and recorded into one of a fixed
+ * set of histogram stripes picked by thread id. A pool of worker threads seldom shares a
+ * stripe, so the stripe locks are rarely contended, and any number of short-lived threads,
+ * such as one virtual thread per task, records into the same bounded memory. After the first
+ * sample of a stripe, recording allocates nothing. Readers pull a merged {@link #snapshot()},
+ * directly or over JMX.
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final Stage[] STAGES = Stage.values();
+    private static final OperationType[] TYPES = OperationType.values();
+    private static final double[] SUMMARY_PERCENTILES = {50, 99, 99.9};
+    /** Twice the processors rounded up to a power of two; a stripe holds over 300 KB, so it is created on first use. */
+    static final int STRIPES = Integer.highestOneBit(2 * Runtime.getRuntime().availableProcessors() - 1) * 2;
+
+    /** Records nothing; used by engines and transports created without metrics. */
+    public static final ServerMetrics DISABLED = new ServerMetrics(false);
+
+    private final boolean enabled;
+    private final AtomicReferenceArray<Recorder> recorders = new AtomicReferenceArray<>(STRIPES);
+    private final LongAdder[] operations = new LongAdder[TYPES.length];
+    private final LongAdder naks = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final long lockBackoffsAtStart = AccountLocks.backoffs();
+    private final AdmissionControl admission;
+
+    public ServerMetrics() {
+        this(true);
+    }
+
+    public ServerMetrics(boolean enabled) {
+        this(enabled, null);
+    }
+
+    /**
+     * @param admission where queue depths and shed requests are read from, or null
+     */
+    public ServerMetrics(boolean enabled, AdmissionControl admission) {
+        this.enabled = enabled;
+        this.admission = admission;
+        for (int i = 0; i < operations.length; i++) {
+            operations[i] = new LongAdder();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Counts a successful operation and, if it came in through the transport, records its
+     * stage latencies up to now.
+     */
+    public void recordCompleted(Operation operation) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        int type = operation.getOperationType().ordinal();
+        operations[type].increment();
+        long received = operation.getReceivedNanos();
+        if (received == 0 || operation.getExecutedNanos() == 0) {
+            return;
+        }
+        Recorder r = recorder();
+        r.lock.lock();
+        try {
+            r.stages[Stage.VALIDATE.ordinal()].record(operation.getValidatedNanos() - received);
+            r.stages[Stage.QUEUE.ordinal()].record(operation.getStartedNanos() - operation.getValidatedNanos());
+            r.stages[Stage.EXECUTE.ordinal()].record(operation.getExecutedNanos() - operation.getStartedNanos());
+            r.stages[Stage.COMMIT.ordinal()].record(now - operation.getExecutedNanos());
+            r.stages[Stage.TOTAL.ordinal()].record(now - received);
+            r.types[type].record(now - received);
+        } finally {
+            r.lock.unlock();
+        }
+    }
+
+    /**
+     * Counts the acknowledged items of a batch; batch items carry no stage timestamps.
+     */
+    public void recordBatch(OperationBatch batch) {
+        if (!enabled) {
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.isAcked(i)) {
+                operations[batch.getOperation(i).getOperationType().ordinal()].increment();
+            }
+        }
+    }
+
+    public void recordNak() {
+        if (enabled) {
+            naks.increment();
+        }
+    }
+
+    public void recordRetry() {
+        if (enabled) {
+            retries.increment();
+        }
+    }
+
+    public void recordFailure() {
+        if (enabled) {
+            failures.increment();
+        }
+    }
+
+    /**
+     * Merges what every thread recorded so far. Samples being recorded meanwhile may or may
+     * not be included, but a sample is never included in part.
+     */
+    public MetricsSnapshot snapshot() {
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        for (Stage stage : STAGES) {
+            snapshot.stages.put(stage, new LatencyHistogram(HIGHEST_TRACKABLE_NANOS));
+        }
+        for (OperationType type : TYPES) {
+            snapshot.operationTypes.put(type, new LatencyHistogram(HIGHEST_TRACKABLE_NANOS));
+            snapshot.operations.put(type, operations[type.ordinal()].sum());
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            Recorder r = recorders.get(i);
+            if (r == null) {
+                continue;
+            }
+            r.lock.lock();
+            try {
+                for (Stage stage : STAGES) {
+                    snapshot.stages.get(stage).add(r.stages[stage.ordinal()]);
+                }
+                for (OperationType type : TYPES) {
+                    snapshot.operationTypes.get(type).add(r.types[type.ordinal()]);
+                }
+            } finally {
+                r.lock.unlock();
+            }
+        }
+        snapshot.naks = naks.sum();
+        snapshot.retries = retries.sum();
+        snapshot.failures = failures.sum();
+        snapshot.lockBackoffs = getLockBackoffs();
+        if (admission != null) {
+            for (AdmissionControl.Priority priority : AdmissionControl.Priority.values()) {
+                snapshot.queueDepths.put(priority, admission.getQueueDepth(priority));
+            }
+            snapshot.shed = admission.getShed();
+        }
+        return snapshot;
+    }
+
+    public long getOperations() {
+        long total = 0;
+        for (LongAdder count : operations) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    public long getNaks() {
+        return naks.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public int getQueueDepth() {
+        if (admission == null) {
+            return 0;
+        }
+        int depth = 0;
+        for (AdmissionControl.Priority priority : AdmissionControl.Priority.values()) {
+            depth += admission.getQueueDepth(priority);
+        }
+        return depth;
+    }
+
+    public long getShed() {
+        return admission == null ? 0 : admission.getShed();
+    }
+
+    /**
+     * Counted for the whole process, since {@link AccountLocks} is shared by every engine.
+     */
+    public long getLockBackoffs() {
+        return AccountLocks.backoffs() - lockBackoffsAtStart;
+    }
+
+    public String[] getLatencySummary() {
+        MetricsSnapshot snapshot = snapshot();
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<Stage, LatencyHistogram> entry : snapshot.stages.entrySet()) {
+            lines.add(summary(entry.getKey().name(), entry.getValue()));
+        }
+        for (Map.Entry<OperationType, LatencyHistogram> entry : snapshot.operationTypes.entrySet()) {
+            if (entry.getValue().getTotalCount() > 0) {
+                lines.add(summary(entry.getKey().name(), entry.getValue()));
+            }
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    public double getLatencyMicros(String stage, double percentile) {
+        MetricsSnapshot snapshot = snapshot();
+        for (Stage s : STAGES) {
+            if (s.name().equals(stage)) {
+                return snapshot.stages.get(s).getValueAtPercentile(percentile) / 1000.0;
+            }
+        }
+        return snapshot.operationTypes.get(OperationType.valueOf(stage)).getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private static String summary(String label, LatencyHistogram histogram) {
+        StringBuilder line = new StringBuilder(label)
+                .append(" count=").append(histogram.getTotalCount())
+                .append(String.format(" mean=%.1f", histogram.getMean() / 1000));
+        for (double percentile : SUMMARY_PERCENTILES) {
+            line.append(String.format(" p%s=%.1f", percentile, histogram.getValueAtPercentile(percentile) / 1000.0));
+        }
+        return line.append(String.format(" max=%.1f us", histogram.getMax() / 1000.0)).toString();
+    }
+
+    /**
+     * @return the number of stripes recorded into so far, at most {@link #STRIPES}
+     */
+    int getRecorderCount() {
+        int count = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            if (recorders.get(i) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the stripe of the calling thread; the ids of a pool's threads are mostly
+     *         consecutive, so the low bits spread them over distinct stripes
+     */
+    private Recorder recorder() {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        Recorder r = recorders.get(stripe);
+        if (r == null) {
+            Recorder created = new Recorder();
+            r = recorders.compareAndSet(stripe, null, created) ? created : recorders.get(stripe);
+        }
+        return r;
+    }
+
+    private static final class Recorder {
+        // a lock rather than a monitor, which would pin a virtual thread to its carrier while it waits
+        final ReentrantLock lock = new ReentrantLock();
+        final LatencyHistogram[] stages = new LatencyHistogram[STAGES.length];
+        final LatencyHistogram[] types = new LatencyHistogram[TYPES.length];
+
+        Recorder() {
+            for (int i = 0; i < stages.length; i++) {
+                stages[i] = new LatencyHistogram(HIGHEST_TRACKABLE_NANOS);
+            }
+            for (int i = 0; i < types.length; i++) {
+                types[i] = new LatencyHistogram(HIGHEST_TRACKABLE_NANOS);
+            }
+        }
+    }
+}
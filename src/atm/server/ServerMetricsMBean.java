@@ -0,0 +1,35 @@
+package atm.server;
+
+/**
+ * JMX view of {@link ServerMetrics}. Latencies are in microseconds.
+ */
+public interface ServerMetricsMBean {
+    long getOperations();
+
+    long getNaks();
+
+    long getRetries();
+
+    long getFailures();
+
+    /**
+     * Operations accepted and not answered yet, see {@link AdmissionControl}; the time they
+     * wait for a worker is the {@link Stage#QUEUE} latency.
+     */
+    int getQueueDepth();
+
+    /** Requests answered as busy. */
+    long getShed();
+
+    long getLockBackoffs();
+
+    /**
+     * One line per {@link Stage} and per operation type with count, mean and percentiles.
+     */
+    String[] getLatencySummary();
+
+    /**
+     * @param stage name of a {@link Stage}, or of an operation type for its total latency
+     */
+    double getLatencyMicros(String stage, double percentile);
+}
@@ -0,0 +1,158 @@
+package atm.server;
+
+import atm.load.LoadConfig;
+import atm.load.LoadGenerator;
+import atm.protocol.impls.InProcessConnectionImpl;
+import atm.protocol.impls.ServerConnectionProxy;
+import atm.protocol.impls.ServerConnectionStub;
+import atm.server.operation.Operation;
+import atm.server.operation.OperationType;
+import atm.util.ThreadMode;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class ServerMetricsTest {
+
+    @Test
+    public void testStagesAddUpToTotal() throws InterruptedException {
+        ServerMetrics metrics = new ServerMetrics();
+        Thread other = new Thread(() -> metrics.recordCompleted(timed(OperationType.WITHDRAW)));
+        other.start();
+        other.join();
+        for (int i = 0; i < 10; i++) {
+            metrics.recordCompleted(timed(OperationType.INCREASE));
+        }
+        metrics.recordCompleted(new Operation(OperationType.INCREASE, null, 1));
+        metrics.recordNak();
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(12, snapshot.getOperationCount());
+        assertEquals(11, (long) snapshot.operations.get(OperationType.INCREASE));
+        assertEquals(1, snapshot.naks);
+        assertEquals(11, snapshot.stages.get(Stage.TOTAL).getTotalCount());
+        assertEquals(10, snapshot.operationTypes.get(OperationType.INCREASE).getTotalCount());
+        assertEquals(1, snapshot.operationTypes.get(OperationType.WITHDRAW).getTotalCount());
+        long stagesMax = 0;
+        for (Stage stage : new Stage[] {Stage.VALIDATE, Stage.QUEUE, Stage.EXECUTE, Stage.COMMIT}) {
+            assertEquals(11, snapshot.stages.get(stage).getTotalCount());
+            stagesMax = Math.max(stagesMax, snapshot.stages.get(stage).getMax());
+        }
+        assertTrue(snapshot.stages.get(Stage.QUEUE).getMax() >= 2000000);
+        assertTrue(snapshot.stages.get(Stage.TOTAL).getMax() >= stagesMax);
+    }
+
+    @Test
+    public void testShortLivedThreadsShareBoundedRecorders() throws InterruptedException {
+        ServerMetrics metrics = new ServerMetrics();
+        int threads = 4 * ServerMetrics.STRIPES;
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(() -> metrics.recordCompleted(timed(OperationType.INCREASE)));
+            thread.start();
+            thread.join();
+        }
+
+        assertTrue(metrics.getRecorderCount() <= ServerMetrics.STRIPES);
+        assertEquals(threads, metrics.snapshot().stages.get(Stage.TOTAL).getTotalCount());
+    }
+
+    @Test
+    public void testVirtualWorkersRecordIntoBoundedRecorders() throws InterruptedException {
+        assumeTrue(ThreadMode.VIRTUAL.isSupported());
+        ServerMetrics metrics = new ServerMetrics();
+        TransactionEngine engine = new LockOrderedTransactionEngine(1, ThreadMode.VIRTUAL, metrics, new RetryScheduler());
+        Account from = new Account("from", 1);
+        Account to = new Account("to", 2);
+        from.increase(1000);
+        int transfers = 20 * ServerMetrics.STRIPES;
+        CountDownLatch done = new CountDownLatch(transfers);
+        for (int i = 0; i < transfers; i++) {
+            Operation operation = new Operation(OperationType.TRANSFER_TO, new Session(from, -1, -1), to, 0.01);
+            long now = System.nanoTime();
+            operation.setReceivedNanos(now);
+            operation.setValidatedNanos(now);
+            // recorded on the virtual thread that ran the transfer, as the processing service does
+            engine.submit(new Transaction(operation, (op) -> {
+                metrics.recordCompleted(op);
+                done.countDown();
+            }));
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        engine.shutdown();
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(transfers, (long) snapshot.operations.get(OperationType.TRANSFER_TO));
+        assertEquals(transfers, snapshot.stages.get(Stage.TOTAL).getTotalCount());
+        assertTrue(metrics.getRecorderCount() <= ServerMetrics.STRIPES);
+    }
+
+    @Test
+    public void testDisabledRecordsNothing() {
+        ServerMetrics metrics = new ServerMetrics(false);
+        metrics.recordCompleted(timed(OperationType.INCREASE));
+        metrics.recordNak();
+        metrics.recordRetry();
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.getOperationCount());
+        assertEquals(0, snapshot.naks);
+        assertEquals(0, snapshot.retries);
+        assertEquals(0, snapshot.stages.get(Stage.TOTAL).getTotalCount());
+    }
+
+    @Test
+    public void testServerRecordsRequestsAndExposesThemOverJmx() throws Exception {
+        ServerConnectionStub stub = new ServerConnectionStub();
+        ServerConfig serverConfig = new ServerConfig();
+        serverConfig.allowUnknownUsers = true;
+        ProcessingService service = new ProcessingService(stub, serverConfig);
+        LoadConfig config = new LoadConfig();
+        config.connections = 2;
+        config.accounts = 10;
+        config.ratePerSecond = 200;
+        config.warmupSeconds = 0;
+        config.durationSeconds = 1;
+        LoadGenerator.Result result = new LoadGenerator(config,
+                () -> new InProcessConnectionImpl(new ServerConnectionProxy(stub))).run();
+
+        MetricsSnapshot snapshot = service.getMetrics().snapshot();
+        assertEquals(0, result.errors);
+        assertTrue(snapshot.getOperationCount() >= result.completed - result.histograms.get(LoadGenerator.Kind.LOGIN).getTotalCount());
+        assertTrue(snapshot.stages.get(Stage.TOTAL).getTotalCount() > 0);
+        assertTrue(snapshot.operationTypes.get(OperationType.TRANSFER_TO).getTotalCount() > 0);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = null;
+        for (ObjectName registered : server.queryNames(new ObjectName("atm:type=ServerMetrics,*"), null)) {
+            if (name == null || Long.parseLong(registered.getKeyProperty("id")) > Long.parseLong(name.getKeyProperty("id"))) {
+                name = registered;
+            }
+        }
+        assertEquals(service.getMetrics().getOperations(), (long) (Long) server.getAttribute(name, "Operations"));
+        String[] summary = (String[]) server.getAttribute(name, "LatencySummary");
+        assertTrue(summary[Stage.TOTAL.ordinal()].startsWith("TOTAL count="));
+        assertTrue((Double) server.invoke(name, "getLatencyMicros", new Object[] {"TOTAL", 99.0},
+                new String[] {String.class.getName(), double.class.getName()}) > 0);
+
+        service.shutdown();
+        assertFalse(server.isRegistered(name));
+    }
+
+    private static Operation timed(OperationType type) {
+        Operation operation = new Operation(type, null, 1);
+        long now = System.nanoTime();
+        operation.setReceivedNanos(now - 4000000);
+        operation.setValidatedNanos(now - 3000000);
+        operation.markStarted();
+        operation.markExecuted();
+        return operation;
+    }
+}
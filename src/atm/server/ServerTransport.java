@@ -1,10 +1,12 @@
 package atm.server;
 
 import atm.protocol.messages.AccountOperationMessage;
+import atm.protocol.messages.BatchMessage;
 import atm.protocol.messages.LogonMessage;
 import atm.protocol.messages.ProtocolMessage;
 import atm.protocol.messages.ProtocolMessageType;
 import atm.server.operation.Operation;
+import atm.server.operation.OperationBatch;
 import atm.server.operation.OperationType;
 import atm.protocol.*;
 
@@ -15,37 +17,34 @@ import atm.protocol.*;
  * Time: 6:58 PM
  * To change this template use File | Settings | File Templates.
  */
-public class ServerTransport implements MessageListener {
+public class ServerTransport implements MessageListener, SessionListener {
+    private static final ThreadLocal<AccountOperationMessage> REPLY =
+            ThreadLocal.withInitial(AccountOperationMessage::new);
 
     public ServerTransport(ProcessingService service, CallbackConnection connection, StorageService storage) {
+        this(service, connection, storage, ServerMetrics.DISABLED);
+    }
+
+    public ServerTransport(ProcessingService service, CallbackConnection connection, StorageService storage,
+                           ServerMetrics metrics) {
         this.service = service;
         this.connection = connection;
         this.storage = storage;
+        this.metrics = metrics;
+        reuseReplies = service.isRecyclingOperations() && !connection.keepsSentMessages();
         connection.setMessageListener(this);
+        connection.setSessionListener(this);
     }
 
     public void onMessage(ProtocolMessage message) {
         switch (message.messageType) {
             case LOGIN:
-                LogonMessage logon = (LogonMessage) message;
-                Credentials credentials = new Credentials();
-                credentials.userId = logon.userId;
-                credentials.rawcred = logon.credentials;
-                long sessionId = service.userLogin(credentials);
-                if (sessionId >= 0) {
-                    storage.createSessionById(sessionId, logon.userId, logon.sourceId, credentials.rawcred);
-                    LogonMessage responseBack = new LogonMessage();
-                    responseBack.messageType = ProtocolMessageType.LOGIN;
-                    responseBack.sourceId = logon.sourceId;
-                    responseBack.userId = logon.userId;
-                    responseBack.sessionId = sessionId;
-                    connection.sendMessage(responseBack);
-                }
+                processLogin((LogonMessage) message);
                 break;
             case LOGOUT:
                 LogonMessage logout = (LogonMessage) message;
                 if (logout.sessionId >= 0) {
-                    storage.cleanUpSession(logout.sessionId);
+                    service.userLogout(logout.sessionId, logout.sourceId);
                 }
                 break;
             case INCREASE:
@@ -55,34 +54,131 @@ public class ServerTransport implements MessageListener {
                 AccountOperationMessage operationMsg = (AccountOperationMessage) message;
                 processOperation(operationMsg);
                 break;
+            case BATCH:
+                processBatch((BatchMessage) message);
+                break;
         }
     }
 
+    public void onConnect(String sourceId) {
+    }
+
+    /**
+     * Drops the sessions of a closed connection instead of waiting for them to time out.
+     */
+    public void onDisconnect(String sourceId, String reason) {
+        service.sourceDisconnected(Long.parseLong(sourceId));
+    }
+
+    /**
+     * Hands the login to the service and returns; the session is created and the reply sent
+     * on a login thread once the credentials are checked. A reply is sent whatever happens,
+     * with session id -1 if the login or creating its session failed.
+     */
+    protected void processLogin(final LogonMessage logon) {
+        Credentials credentials = new Credentials();
+        credentials.userId = logon.userId;
+        credentials.rawcred = logon.credentials;
+        service.userLoginAsync(credentials).handle((issued, failure) -> {
+            long sessionId = failure == null && issued != null ? issued : -1;
+            if (sessionId >= 0) {
+                try {
+                    storage.createSessionById(sessionId, logon.userId, logon.sourceId);
+                } catch (RuntimeException ex) {
+                    // e.g. the account store is full or the user id does not fit a mapped account
+                    sessionId = -1;
+                }
+            }
+            LogonMessage responseBack = new LogonMessage();
+            responseBack.messageType = ProtocolMessageType.LOGIN;
+            responseBack.sourceId = logon.sourceId;
+            responseBack.correlationId = logon.correlationId;
+            responseBack.userId = logon.userId;
+            responseBack.sessionId = sessionId;
+            connection.sendMessage(responseBack);
+            return null;
+        });
+    }
+
     protected void processOperation(AccountOperationMessage msg) {
-        OperationType optype;
-        Operation operation = null;
-        switch (msg.messageType) {
+        long receivedNanos = metrics.isEnabled() ? System.nanoTime() : 0;
+        try {
+            Session session = service.validateSession(msg.sessionId, msg.sourceId);
+            OperationType type = operationType(msg.messageType);
+            Account account2 = type == OperationType.TRANSFER_TO ? storage.lookupAccount(msg.toAccountId) : null;
+            Operation operation = service.createOperation(type, session, account2, msg.amount);
+            operation.setCorrelationId(msg.correlationId);
+            operation.setReceivedNanos(receivedNanos);
+            service.processOperation(operation);
+        } catch (ServerBusyException ex) {
+            publishBusy(msg.sourceId, msg.correlationId);
+        } catch (Exception ex) {
+            publishNak(msg.sourceId, msg.correlationId);
+        }
+    }
+
+    protected void processBatch(BatchMessage msg) {
+        Session session;
+        try {
+            session = service.validateSession(msg.sessionId, msg.sourceId);
+        } catch (InvalidSessionException ex) {
+            // every item is answered with a NAK; nothing is resolved, so no account gets created
+            OperationBatch rejected = new OperationBatch(null, new Operation[msg.operations.length]);
+            rejected.setCorrelationId(msg.correlationId);
+            publishBatchResult(msg.sourceId, rejected);
+            return;
+        }
+        Operation[] operations = new Operation[msg.operations.length];
+        for (int i = 0; i < operations.length; i++) {
+            AccountOperationMessage item = msg.operations[i];
+            try {
+                operations[i] = createOperation(item.messageType, session, item.amount, item.toAccountId);
+            } catch (RuntimeException ex) {
+                // left null: the item is answered with a NAK
+            }
+        }
+        OperationBatch batch = new OperationBatch(session, operations);
+        batch.setCorrelationId(msg.correlationId);
+        try {
+            service.processBatch(batch);
+        } catch (ServerBusyException ex) {
+            // refused as a whole, nothing was applied
+            publishBusy(msg.sourceId, msg.correlationId);
+        } catch (Exception ex) {
+            publishBatchResult(msg.sourceId, batch);
+        }
+    }
+
+    /**
+     * @return the operation for a single account operation message type, or null for any other type
+     */
+    private Operation createOperation(ProtocolMessageType type, Session session, double amount, String toAccountId) {
+        switch (type) {
             case INCREASE:
-                optype = OperationType.INCREASE;
-                operation = new Operation(optype, storage.lookupSession(msg.sessionId), null, msg.amount);
-                break;
+                return new Operation(OperationType.INCREASE, session, amount);
             case GETVALUE:
-                optype = OperationType.GETVALUE;
-                operation = new Operation(optype, storage.lookupSession(msg.sessionId), null, msg.amount);
-                break;
+                return new Operation(OperationType.GETVALUE, session, amount);
             case TRANSFER_TO:
-                optype = OperationType.TRANSFER_TO;
-                operation = new Operation(optype, storage.lookupSession(msg.sessionId), storage.lookupSessionProxyForAccount(msg.toAccountId), msg.amount);
-                break;
+                return new Operation(OperationType.TRANSFER_TO, session, storage.lookupAccount(toAccountId), amount);
             case WITHDRAW:
-                optype = OperationType.WITHDRAW;
-                operation = new Operation(optype, storage.lookupSession(msg.sessionId), null, msg.amount);
-                break;
+                return new Operation(OperationType.WITHDRAW, session, amount);
+            default:
+                return null;
         }
-        try {
-            service.processOperation(msg.sessionId, operation);
-        } catch (Exception ex) {
-            publishNak(operation);
+    }
+
+    private static OperationType operationType(ProtocolMessageType type) {
+        switch (type) {
+            case INCREASE:
+                return OperationType.INCREASE;
+            case GETVALUE:
+                return OperationType.GETVALUE;
+            case TRANSFER_TO:
+                return OperationType.TRANSFER_TO;
+            case WITHDRAW:
+                return OperationType.WITHDRAW;
+            default:
+                throw new IllegalArgumentException("Not an account operation: " + type);
         }
     }
 
@@ -90,7 +186,7 @@ public class ServerTransport implements MessageListener {
         if (!requiredResponse(operation)) {
             return;
         }
-        AccountOperationMessage msg = new AccountOperationMessage();
+        AccountOperationMessage msg = replyMessage();
         if (operation.getOperationType() != OperationType.GETVALUE) {
             msg.messageType = ProtocolMessageType.ACK;
         } else {
@@ -98,16 +194,73 @@ public class ServerTransport implements MessageListener {
             msg.amount = operation.getValue();
         }
         msg.sourceId = operation.getSession1().getSourceId();
+        msg.correlationId = operation.getCorrelationId();
         connection.sendMessage(msg);
     }
 
-    private void publishNak(Operation operation) {
-        AccountOperationMessage msg = new AccountOperationMessage();
-        msg.messageType = ProtocolMessageType.NAK;
-        msg.sourceId = operation.getSession1().getSourceId();
+    public void publishOperationFailed(Operation operation) {
+        publishNak(operation.getSession1().getSourceId(), operation.getCorrelationId());
+    }
+
+    public void publishBatchResult(OperationBatch batch) {
+        publishBatchResult(batch.getSession1().getSourceId(), batch);
+    }
+
+    private void publishBatchResult(long sourceId, OperationBatch batch) {
+        BatchMessage msg = new BatchMessage();
+        msg.messageType = ProtocolMessageType.BATCH;
+        msg.sourceId = sourceId;
+        msg.correlationId = batch.getCorrelationId();
+        msg.operations = new AccountOperationMessage[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            AccountOperationMessage item = new AccountOperationMessage();
+            Operation operation = batch.getOperation(i);
+            if (!batch.isAcked(i)) {
+                item.messageType = ProtocolMessageType.NAK;
+                metrics.recordNak();
+            } else if (operation.getOperationType() == OperationType.GETVALUE) {
+                item.messageType = ProtocolMessageType.GETVALUE;
+                item.amount = operation.getValue();
+            } else {
+                item.messageType = ProtocolMessageType.ACK;
+            }
+            msg.operations[i] = item;
+        }
         connection.sendMessage(msg);
     }
 
+    private void publishNak(long sourceId, long correlationId) {
+        metrics.recordNak();
+        publish(ProtocolMessageType.NAK, sourceId, correlationId);
+    }
+
+    private void publishBusy(long sourceId, long correlationId) {
+        publish(ProtocolMessageType.BUSY, sourceId, correlationId);
+    }
+
+    private void publish(ProtocolMessageType type, long sourceId, long correlationId) {
+        AccountOperationMessage msg = replyMessage();
+        msg.messageType = type;
+        msg.sourceId = sourceId;
+        msg.correlationId = correlationId;
+        connection.sendMessage(msg);
+    }
+
+    /**
+     * @return a message for a single reply, reused by the thread when the connection is done
+     *         with it once sent and operations are recycled
+     */
+    private AccountOperationMessage replyMessage() {
+        if (!reuseReplies) {
+            return new AccountOperationMessage();
+        }
+        AccountOperationMessage msg = REPLY.get();
+        msg.amount = 0;
+        msg.sessionId = 0;
+        msg.toAccountId = null;
+        return msg;
+    }
+
     private boolean requiredResponse(Operation operation) {
         return true;
     }
@@ -115,4 +268,6 @@ public class ServerTransport implements MessageListener {
     private final Connection connection;
     private final ProcessingService service;
     private final StorageService storage;
+    private final ServerMetrics metrics;
+    private final boolean reuseReplies;
 }
@@ -0,0 +1,145 @@
+package atm.server;
+
+import atm.client.ATM;
+import atm.protocol.messages.AccountOperationMessage;
+import atm.protocol.messages.BatchMessage;
+import atm.protocol.messages.ProtocolMessageType;
+import atm.protocol.impls.InProcessConnectionImpl;
+import atm.protocol.impls.ServerConnectionProxy;
+import atm.protocol.impls.ServerConnectionStub;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ServerTransportTest {
+    private static final byte[] PIN = "1234".getBytes(StandardCharsets.UTF_8);
+    private static final int LOGINS = 4;
+
+    private final ServerConnectionStub stub = new ServerConnectionStub();
+    private ProcessingService service;
+
+    @After
+    public void shutdown() {
+        service.shutdown();
+    }
+
+    @Test
+    public void testSlowLoginsDoNotHoldUpOperations() throws NoSuchAlgorithmException {
+        start(LOGINS);
+        ATM teller = login("teller");
+
+        CompletableFuture<?>[] logins = startLogins();
+        teller.increase(1);
+        assertEquals(1, teller.getAccountValue(), 0.00000001);
+        assertFalse("a single check thread is still busy", CompletableFuture.allOf(logins).isDone());
+
+        for (CompletableFuture<?> l : logins) {
+            assertEquals(true, l.join());
+        }
+    }
+
+    @Test
+    public void testLoginsBeyondPendingLimitAreRefused() throws NoSuchAlgorithmException {
+        start(2);
+
+        CompletableFuture<?>[] logins = startLogins();
+        assertEquals(false, logins[2].getNow(null));
+        assertEquals(false, logins[3].getNow(null));
+        assertEquals(true, logins[0].join());
+        assertEquals(true, logins[1].join());
+        assertEquals(true, newAtm().loginAsync("user0", PIN).join());
+    }
+
+    @Test
+    public void testFailedOperationIsNaked() throws NoSuchAlgorithmException {
+        start(LOGINS);
+        ATM teller = login("teller");
+
+        teller.increase(5);
+        assertFalse(teller.withdrawAsync(6).join());
+        assertTrue(teller.withdrawAsync(4).join());
+        assertEquals(1, service.getMetrics().getFailures());
+        assertEquals(1, service.getMetrics().getNaks());
+    }
+
+    @Test
+    public void testLoginIsRefusedWhenItsSessionCannotBeCreated() throws Exception {
+        start(LOGINS);
+        ServerConnectionStub other = new ServerConnectionStub();
+        new ServerTransport(service, other, new StorageService() {
+            @Override
+            public Session createSessionById(long sessionId, String userId, long sourceId) {
+                throw new IllegalStateException("Account store full");
+            }
+        });
+        ATM atm = new ATM(new InProcessConnectionImpl(new ServerConnectionProxy(other)));
+
+        assertEquals(false, atm.loginAsync("teller", PIN).get(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testBatchWithoutSessionCreatesNoAccounts() throws Exception {
+        start(LOGINS);
+        ServerConnectionStub other = new ServerConnectionStub();
+        StorageService storage = new StorageService();
+        new ServerTransport(service, other, storage);
+        InProcessConnectionImpl connection = new InProcessConnectionImpl(new ServerConnectionProxy(other));
+        connection.connect();
+        ATM atm = new ATM(connection);
+
+        AccountOperationMessage item = new AccountOperationMessage();
+        item.messageType = ProtocolMessageType.TRANSFER_TO;
+        item.amount = 1;
+        item.toAccountId = "victim";
+        BatchMessage result = atm.submitBatchAsync(item, item).get(30, TimeUnit.SECONDS);
+
+        assertEquals(2, result.operations.length);
+        for (AccountOperationMessage reply : result.operations) {
+            assertEquals(ProtocolMessageType.NAK, reply.messageType);
+        }
+        AtomicInteger accounts = new AtomicInteger();
+        storage.forEachAccount((account) -> accounts.incrementAndGet());
+        assertEquals(0, accounts.get());
+    }
+
+    private void start(int maxPendingLogins) throws NoSuchAlgorithmException {
+        ServerConfig config = new ServerConfig();
+        config.credentialHashIterations = 100000;
+        config.credentialCheckThreads = 1;
+        config.allowUnknownUsers = false;
+        config.maxPendingLogins = maxPendingLogins;
+        config.jmxEnabled = false;
+        service = new ProcessingService(stub, config);
+        byte[] credential = MessageDigest.getInstance("SHA-256").digest(PIN);
+        service.getCredentialStore().enroll("teller", credential);
+        for (int i = 0; i < LOGINS; i++) {
+            service.getCredentialStore().enroll("user" + i, credential);
+        }
+    }
+
+    private CompletableFuture<?>[] startLogins() {
+        CompletableFuture<?>[] logins = new CompletableFuture<?>[LOGINS];
+        for (int i = 0; i < LOGINS; i++) {
+            logins[i] = newAtm().loginAsync("user" + i, PIN);
+        }
+        return logins;
+    }
+
+    private ATM login(String userId) {
+        ATM atm = newAtm();
+        atm.login(userId, PIN);
+        return atm;
+    }
+
+    private ATM newAtm() {
+        return new ATM(new InProcessConnectionImpl(new ServerConnectionProxy(stub)));
+    }
+}
@@ -8,11 +8,10 @@ package atm.server;
  * To change this template use File | Settings | File Templates.
  */
 public class Session {
-    public Session(Account account, long sessionId, long sourceId, byte[] passHash) {
+    public Session(Account account, long sessionId, long sourceId) {
         this.account = account;
         this.sessionId = sessionId;
         this.sourceId = sourceId;
-        this.passHash = passHash;
     }
 
     public Account getAccount() {
@@ -27,8 +26,36 @@ public class Session {
         return sourceId;
     }
 
+    /**
+     * {@code System.nanoTime()} at which the session stops being valid; set by {@link SessionCache}.
+     */
+    public long getExpiresAtNanos() {
+        return expiresAtNanos;
+    }
+
+    void setExpiresAtNanos(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    public boolean isExpired(long nowNanos) {
+        return nowNanos - expiresAtNanos >= 0;
+    }
+
+    /**
+     * {@code System.nanoTime()} of the last validated request, kept by {@link SessionCache}
+     * with the granularity of its sweeps.
+     */
+    public long getLastUsedNanos() {
+        return lastUsedNanos;
+    }
+
+    void setLastUsedNanos(long lastUsedNanos) {
+        this.lastUsedNanos = lastUsedNanos;
+    }
+
     private final Account account;
     private final long sessionId;
     private final long sourceId;
-    private final byte[] passHash;
+    private long expiresAtNanos;
+    private volatile long lastUsedNanos;
 }
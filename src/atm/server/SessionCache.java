@@ -0,0 +1,279 @@
+package atm.server;
+
+import atm.util.ConcurrentLongObjectHashMap;
+import atm.util.TimerWheel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Live sessions by id. Reads take no lock, so validating a request is one probe of the table
+ * plus a few field checks. A session expires a fixed time after it was added, or earlier when
+ * it has not been used for the idle timeout; expired sessions are rejected right away and
+ * removed from the table by {@link #sweep}, which only looks at the sessions due since the
+ * previous sweep.
+ * <p>
+ * The table is bounded: a user or a source connection opening more sessions than its cap
+ * loses its least recently used one, and when the whole table is over its cap the sessions
+ * closest to their deadline, which are the least recently used ones, are evicted first.
+ */
+public class SessionCache {
+    private static final int MAX_WHEEL_SIZE = 4096;
+
+    private final ConcurrentLongObjectHashMap<Session> sessions = new ConcurrentLongObjectHashMap<>();
+    private final Groups<String> byUser = new Groups<>();
+    private final Groups<Long> bySource = new Groups<>();
+    private final long ttlNanos;
+    private final long idleTimeoutNanos;
+    private final long tickNanos;
+    private final int maxSessions;
+    private final int maxSessionsPerUser;
+    private final int maxSessionsPerSource;
+    private final TimerWheel deadlines;
+    private final LongConsumer removeIfDue = this::removeIfDue;
+    private final TimerWheel.Visitor evictIfEarliest = this::evictIfEarliest;
+    // guarded by this
+    private long sweepNanos;
+    private int removeLimit;
+    private int removed;
+
+    public SessionCache(ServerConfig config) {
+        this(TimeUnit.SECONDS.toNanos(config.sessionTtlSeconds),
+                TimeUnit.SECONDS.toNanos(config.sessionIdleTimeoutSeconds),
+                TimeUnit.MILLISECONDS.toNanos(config.sessionSweepMillis),
+                config.maxSessions, config.maxSessionsPerUser, config.maxSessionsPerSource);
+    }
+
+    /**
+     * Sessions only expire at the end of their time to live, and the table is not bounded.
+     */
+    public SessionCache(long ttlNanos, long sweepTickNanos) {
+        this(ttlNanos, ttlNanos, sweepTickNanos, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param sweepTickNanos granularity at which expired sessions are removed and at which the
+     *                       time of last use is kept
+     */
+    public SessionCache(long ttlNanos, long idleTimeoutNanos, long sweepTickNanos,
+                        int maxSessions, int maxSessionsPerUser, int maxSessionsPerSource) {
+        if (ttlNanos <= 0 || idleTimeoutNanos <= 0) {
+            throw new IllegalArgumentException("ttlNanos and idleTimeoutNanos must be positive");
+        }
+        if (maxSessions <= 0 || maxSessionsPerUser <= 0 || maxSessionsPerSource <= 0) {
+            throw new IllegalArgumentException("session caps must be positive");
+        }
+        this.ttlNanos = ttlNanos;
+        this.idleTimeoutNanos = idleTimeoutNanos;
+        this.tickNanos = sweepTickNanos;
+        this.maxSessions = maxSessions;
+        this.maxSessionsPerUser = maxSessionsPerUser;
+        this.maxSessionsPerSource = maxSessionsPerSource;
+        int wheelSize = (int) Math.min(MAX_WHEEL_SIZE, Math.min(ttlNanos, idleTimeoutNanos) / sweepTickNanos + 1);
+        this.deadlines = new TimerWheel(sweepTickNanos, wheelSize, System.nanoTime());
+    }
+
+    /**
+     * Adds the session, replacing any with the same id, and starts its time to live. May
+     * evict other sessions to stay within the caps.
+     */
+    public void add(Session session) {
+        long now = System.nanoTime();
+        session.setExpiresAtNanos(now + ttlNanos);
+        session.setLastUsedNanos(now);
+        // grouped before it is visible, so anything that finds it in the table can unlink it
+        Session userVictim = byUser.add(userOf(session), session, maxSessionsPerUser);
+        Session sourceVictim = bySource.add(session.getSourceId(), session, maxSessionsPerSource);
+        sessions.put(session.getSessionId(), session);
+        deadlines.schedule(session.getSessionId(), deadline(session));
+        unlink(userVictim);
+        unlink(sourceVictim);
+        int excess = sessions.size() - maxSessions;
+        if (excess > 0) {
+            evictLeastRecentlyUsed(excess, now);
+        }
+    }
+
+    /**
+     * @return the session, expired or not, or null
+     */
+    public Session get(long sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    /**
+     * Checks the session and counts the request as a use of it.
+     *
+     * @return the session if it exists, has not expired and was opened from {@code sourceId}
+     */
+    public Session validate(long sessionId, long sourceId, long nowNanos) throws InvalidSessionException {
+        Session session = sessions.get(sessionId);
+        if (session == null || session.getSourceId() != sourceId || isExpired(session, nowNanos)) {
+            throw new InvalidSessionException();
+        }
+        // written at most once per tick, so busy sessions don't keep dirtying a shared line
+        if (nowNanos - session.getLastUsedNanos() >= tickNanos) {
+            session.setLastUsedNanos(nowNanos);
+        }
+        return session;
+    }
+
+    public Session remove(long sessionId) {
+        Session session = sessions.get(sessionId);
+        return unlink(session) ? session : null;
+    }
+
+    /**
+     * Removes the session only if it was opened from {@code sourceId}.
+     */
+    public Session remove(long sessionId, long sourceId) {
+        Session session = sessions.get(sessionId);
+        return session != null && session.getSourceId() == sourceId && unlink(session) ? session : null;
+    }
+
+    /**
+     * Removes every session opened from {@code sourceId}, for a connection that was closed.
+     *
+     * @return the number of sessions removed
+     */
+    public int removeSource(long sourceId) {
+        int count = 0;
+        for (Session session : bySource.get(sourceId)) {
+            if (unlink(session)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Removes the sessions that expired since the previous sweep; called periodically from one
+     * thread.
+     *
+     * @return the number of sessions removed
+     */
+    public synchronized int sweep(long nowNanos) {
+        sweepNanos = nowNanos;
+        removed = 0;
+        deadlines.advance(nowNanos, removeIfDue);
+        return removed;
+    }
+
+    /**
+     * Evicts {@code count} live sessions, those with the earliest deadlines first. An entry
+     * for a session used since it was scheduled goes back to the bucket of its new deadline,
+     * which the same pass reaches in order.
+     */
+    private synchronized void evictLeastRecentlyUsed(int count, long nowNanos) {
+        removeLimit = count;
+        removed = 0;
+        deadlines.poll(nowNanos + Math.min(ttlNanos, idleTimeoutNanos), evictIfEarliest);
+    }
+
+    private boolean evictIfEarliest(long sessionId, long scheduledNanos) {
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            return true;
+        }
+        long deadline = deadline(session);
+        if (removed >= removeLimit || deadline - scheduledNanos >= tickNanos) {
+            deadlines.schedule(sessionId, deadline);
+        } else if (unlink(session)) {
+            removed++;
+        }
+        return removed < removeLimit;
+    }
+
+    private void removeIfDue(long sessionId) {
+        // the id may have been logged out, or reused by another session
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            return;
+        }
+        long deadline = deadline(session);
+        if (sweepNanos - deadline < 0) {
+            // used since it was scheduled
+            deadlines.schedule(sessionId, deadline);
+        } else if (unlink(session)) {
+            removed++;
+        }
+    }
+
+    private boolean unlink(Session session) {
+        if (session == null) {
+            return false;
+        }
+        byUser.remove(userOf(session), session);
+        bySource.remove(session.getSourceId(), session);
+        return sessions.remove(session.getSessionId(), session);
+    }
+
+    private boolean isExpired(Session session, long nowNanos) {
+        return session.isExpired(nowNanos) || nowNanos - session.getLastUsedNanos() >= idleTimeoutNanos;
+    }
+
+    private long deadline(Session session) {
+        long idleDeadline = session.getLastUsedNanos() + idleTimeoutNanos;
+        return idleDeadline - session.getExpiresAtNanos() < 0 ? idleDeadline : session.getExpiresAtNanos();
+    }
+
+    private static String userOf(Session session) {
+        return session.getAccount().getId();
+    }
+
+    /**
+     * Sessions per user or per source, oldest first. Only touched on login, logout and
+     * expiry, never by requests.
+     */
+    private static final class Groups<K> {
+        private final ConcurrentHashMap<K, List<Session>> groups = new ConcurrentHashMap<>();
+
+        /**
+         * @return the least recently used session, taken out of the group to make room, or null
+         */
+        Session add(K key, Session session, int max) {
+            Session[] victim = new Session[1];
+            groups.compute(key, (k, group) -> {
+                if (group == null) {
+                    group = new ArrayList<>(2);
+                }
+                group.add(session);
+                if (group.size() > max) {
+                    int lru = 0;
+                    for (int i = 1; i < group.size(); i++) {
+                        if (group.get(i).getLastUsedNanos() - group.get(lru).getLastUsedNanos() < 0) {
+                            lru = i;
+                        }
+                    }
+                    victim[0] = group.remove(lru);
+                }
+                return group;
+            });
+            return victim[0];
+        }
+
+        void remove(K key, Session session) {
+            groups.computeIfPresent(key, (k, group) -> {
+                group.remove(session);
+                return group.isEmpty() ? null : group;
+            });
+        }
+
+        List<Session> get(K key) {
+            List<Session> copy = new ArrayList<>();
+            groups.computeIfPresent(key, (k, group) -> {
+                copy.addAll(group);
+                return group;
+            });
+            return copy.isEmpty() ? Collections.emptyList() : copy;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package atm.server;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SessionCacheTest {
+    private static final long TTL = TimeUnit.SECONDS.toNanos(10);
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void testValidateChecksSourceAndExpiry() throws InvalidSessionException {
+        SessionCache sessions = new SessionCache(TTL, TICK);
+        Session session = session(1, 7);
+        sessions.add(session);
+        long now = System.nanoTime();
+
+        assertSame(session, sessions.validate(1, 7, now));
+        assertInvalid(sessions, 2, 7, now);
+        assertInvalid(sessions, 1, 8, now);
+        assertInvalid(sessions, 1, 7, session.getExpiresAtNanos());
+        sessions.remove(1);
+        assertInvalid(sessions, 1, 7, now);
+    }
+
+    @Test
+    public void testSweepRemovesOnlyExpiredSessions() {
+        SessionCache sessions = new SessionCache(TTL, TICK);
+        for (int i = 0; i < 1000; i++) {
+            sessions.add(session(i, 1));
+        }
+        long expiresAt = sessions.get(999).getExpiresAtNanos();
+
+        assertEquals(0, sessions.sweep(expiresAt - TTL / 2));
+        assertEquals(1000, sessions.size());
+        sessions.remove(5);
+        // a replacement added later outlives the deadline its id was first scheduled for
+        Session replacement = session(6, 1);
+        sessions.add(replacement);
+        replacement.setExpiresAtNanos(expiresAt + TTL);
+        replacement.setLastUsedNanos(expiresAt);
+
+        assertEquals(998, sessions.sweep(expiresAt + TICK));
+        assertEquals(1, sessions.size());
+        assertSame(replacement, sessions.get(6));
+        assertEquals(0, sessions.sweep(expiresAt + 2 * TICK));
+    }
+
+    @Test
+    public void testSweepCatchesUpAfterMoreThanOneLap() {
+        SessionCache sessions = new SessionCache(TICK * 3, TICK);
+        for (int i = 0; i < 100; i++) {
+            sessions.add(session(i, 1));
+        }
+
+        assertEquals(100, sessions.sweep(System.nanoTime() + TTL));
+        assertEquals(0, sessions.size());
+    }
+
+    @Test
+    public void testIdleSessionExpiresUnlessUsed() throws InvalidSessionException {
+        SessionCache sessions = new SessionCache(TTL, TTL / 10, TICK, 100, 100, 100);
+        Session idle = session(1, 1);
+        Session busy = session(2, 1);
+        sessions.add(idle);
+        sessions.add(busy);
+        long start = busy.getLastUsedNanos();
+
+        long halfIdle = start + TTL / 20;
+        sessions.validate(2, 1, halfIdle);
+        assertEquals(halfIdle, busy.getLastUsedNanos());
+        long afterIdle = start + TTL / 10 + TICK;
+        assertInvalid(sessions, 1, 1, afterIdle);
+
+        assertEquals(1, sessions.sweep(afterIdle));
+        assertNull(sessions.get(1));
+        assertSame(busy, sessions.get(2));
+        assertEquals(1, sessions.sweep(halfIdle + TTL / 10 + TICK));
+        assertEquals(0, sessions.size());
+    }
+
+    @Test
+    public void testCapsEvictLeastRecentlyUsed() throws InvalidSessionException {
+        SessionCache sessions = new SessionCache(TTL * 10, TTL, TICK, 4, 2, 2);
+        Session first = session(1, "user", 1);
+        Session second = session(2, "user", 1);
+        sessions.add(first);
+        sessions.add(second);
+        first.setLastUsedNanos(second.getLastUsedNanos() + 1);
+        sessions.add(session(3, "user", 1));
+        assertSame(first, sessions.get(1));
+        assertNull("per user", sessions.get(2));
+
+        sessions.add(session(4, "other", 1));
+        assertNull("per source", sessions.get(1));
+        assertEquals(2, sessions.size());
+
+        sessions.validate(3, 1, System.nanoTime() + TICK);
+        sessions.add(session(5, "third", 2));
+        sessions.add(session(6, "fourth", 2));
+        sessions.add(session(7, "fifth", 3));
+        assertEquals(4, sessions.size());
+        assertNotNull(sessions.get(3));
+        assertNull("in all", sessions.get(4));
+    }
+
+    @Test
+    public void testRemoveOnlyFromOwningSource() {
+        SessionCache sessions = new SessionCache(TTL, TICK);
+        sessions.add(session(1, 1));
+        sessions.add(session(2, 1));
+        sessions.add(session(3, 2));
+
+        assertNull(sessions.remove(1, 2));
+        assertNotNull(sessions.remove(1, 1));
+        assertEquals(1, sessions.removeSource(1));
+        assertEquals(0, sessions.removeSource(1));
+        assertNotNull(sessions.get(3));
+    }
+
+    private static void assertInvalid(SessionCache sessions, long sessionId, long sourceId, long now) {
+        try {
+            sessions.validate(sessionId, sourceId, now);
+            fail();
+        } catch (InvalidSessionException expected) {
+        }
+    }
+
+    private static Session session(long sessionId, long sourceId) {
+        return session(sessionId, "user-" + sessionId, sourceId);
+    }
+
+    private static Session session(long sessionId, String userId, long sourceId) {
+        return new Session(new Account(userId, sessionId), sessionId, sourceId);
+    }
+}
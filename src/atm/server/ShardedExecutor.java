@@ -0,0 +1,70 @@
+package atm.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed set of single-threaded shards. Accounts are partitioned onto shards by id hash and
+ * every task touching an account runs on its owning shard, so account state is only ever
+ * mutated by one thread and needs no locking.
+ */
+public class ShardedExecutor {
+    private final ExecutorService[] shards;
+
+    public ShardedExecutor(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        }
+        shards = new ExecutorService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            final String name = "atm-shard-" + i;
+            shards[i] = Executors.newSingleThreadExecutor((r) -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public int shardFor(Account account) {
+        return shardFor(account.getId());
+    }
+
+    public int shardFor(String accountId) {
+        return shardFor(accountId, shards.length);
+    }
+
+    /**
+     * Partitioning shared by every sharded engine.
+     */
+    public static int shardFor(String accountId, int shardCount) {
+        int h = accountId.hashCode();
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % shardCount;
+    }
+
+    public void execute(int shard, Runnable task) {
+        shards[shard].execute(task);
+    }
+
+    public void shutdown() {
+        for (ExecutorService shard : shards) {
+            shard.shutdown();
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ExecutorService shard : shards) {
+            if (!shard.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,130 @@
+package atm.server;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-writer execution: every transaction runs on the shard owning its source account.
+ * A transfer debits the source there and then sends one credit per destination account to
+ * the destination's shard; the result is published once the last credit is applied, so a
+ * client that waits for the ack and then reads a destination account always sees the transfer.
+ */
+public class ShardedTransactionEngine extends TransactionEngine {
+    private final ShardedExecutor executor;
+
+    public ShardedTransactionEngine(int shardCount) {
+        this(shardCount, ServerMetrics.DISABLED);
+    }
+
+    public ShardedTransactionEngine(int shardCount, ServerMetrics metrics) {
+        this(shardCount, metrics, new RetryScheduler());
+    }
+
+    public ShardedTransactionEngine(int shardCount, ServerMetrics metrics, RetryScheduler retries) {
+        super(metrics, retries);
+        executor = new ShardedExecutor(shardCount);
+    }
+
+    @Override
+    public void submit(final Transaction transaction) {
+        final int shard = executor.shardFor(transaction.getSourceAccount());
+        executor.execute(shard, () -> {
+            if (!execute(transaction, Transaction::executeOnSource)) {
+                return;
+            }
+            if (!transaction.isCreditPending()) {
+                transaction.complete();
+                return;
+            }
+            // the last credit may complete the transaction, which a pool can then hand out again
+            int legs = transaction.getTargetCount();
+            for (int leg = 0; leg < legs; leg++) {
+                int destinationShard = executor.shardFor(transaction.getTarget(leg));
+                if (destinationShard == shard) {
+                    credit(transaction, leg);
+                } else {
+                    final int l = leg;
+                    executor.execute(destinationShard, () -> credit(transaction, l));
+                }
+            }
+        });
+    }
+
+    /**
+     * Debits the source for the whole batch in one task on its shard, then hands each
+     * destination shard all of its credits in one task.
+     */
+    @Override
+    public void submitBatch(final TransactionBatch batch) {
+        final int shard = executor.shardFor(batch.getSourceAccount());
+        executor.execute(shard, () -> {
+            Credits[] credits = new Credits[executor.getShardCount()];
+            for (Transaction transaction : batch.getTransactions()) {
+                if (!execute(transaction, Transaction::executeOnSource)) {
+                    continue;
+                }
+                if (!transaction.isCreditPending()) {
+                    transaction.complete();
+                    continue;
+                }
+                for (int leg = 0; leg < transaction.getTargetCount(); leg++) {
+                    int destinationShard = executor.shardFor(transaction.getTarget(leg));
+                    if (destinationShard == shard) {
+                        credit(transaction, leg);
+                    } else {
+                        if (credits[destinationShard] == null) {
+                            credits[destinationShard] = new Credits();
+                        }
+                        credits[destinationShard].add(transaction, leg);
+                    }
+                }
+            }
+            for (int i = 0; i < credits.length; i++) {
+                if (credits[i] != null) {
+                    executor.execute(i, credits[i]);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        executor.shutdown();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private void credit(Transaction transaction, int leg) {
+        if (transaction.executeOnDestination(leg)) {
+            transaction.complete();
+        }
+    }
+
+    /**
+     * Credit legs bound for one shard.
+     */
+    private final class Credits implements Runnable {
+        private Transaction[] transactions = new Transaction[16];
+        private int[] legs = new int[16];
+        private int size;
+
+        void add(Transaction transaction, int leg) {
+            if (size == legs.length) {
+                transactions = Arrays.copyOf(transactions, size * 2);
+                legs = Arrays.copyOf(legs, size * 2);
+            }
+            transactions[size] = transaction;
+            legs[size++] = leg;
+        }
+
+        public void run() {
+            for (int i = 0; i < size; i++) {
+                credit(transactions[i], legs[i]);
+            }
+        }
+    }
+}
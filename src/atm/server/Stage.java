@@ -0,0 +1,18 @@
+package atm.server;
+
+/**
+ * Intervals the server-side latency of a request is split into, between the timestamps kept
+ * on its {@link atm.server.operation.Operation}.
+ */
+public enum Stage {
+    /** Arrival at the server transport until handed to the engine: session lookup and validation. */
+    VALIDATE,
+    /** Waiting for an engine thread. */
+    QUEUE,
+    /** Locking and changing the source account, including retries. */
+    EXECUTE,
+    /** Credits on other shards and journal durability, until the result is published. */
+    COMMIT,
+    /** Arrival until the result is published. */
+    TOTAL
+}
@@ -1,9 +1,9 @@
 package atm.server;
 
-import atm.util.LongObjectHashMap;
-
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by IntelliJ IDEA.
@@ -13,41 +13,131 @@ import java.util.Map;
  * To change this template use File | Settings | File Templates.
  */
 public class StorageService {
-    private final Map<String, Account> accountHashMap = new HashMap<>(240000);
-    private final Map<Long, Session> sessionHashMap = new HashMap<>();
+    private final ConcurrentMap<String, Account> accountHashMap = new ConcurrentHashMap<>(240000);
+    private final SessionCache sessions;
+    private final AccountType accountType;
+    private final AtomicLong accountNumberGen = new AtomicLong();
+    private final AccountCache destinationCache;
+    private final MappedAccountStore accountStore;
+
+    public StorageService() {
+        this(AccountType.HEAP_DOUBLE, ServerConfig.DEFAULT_DESTINATION_CACHE_SIZE);
+    }
+
+    public StorageService(AccountType accountType, int destinationCacheSize) {
+        this(accountType, destinationCacheSize, null);
+    }
+
+    /**
+     * @param accountStore holds the accounts instead of the heap index; required for
+     *                     {@link AccountType#MAPPED} and ignored otherwise
+     */
+    public StorageService(AccountType accountType, int destinationCacheSize, MappedAccountStore accountStore) {
+        this(accountType, destinationCacheSize, accountStore, new SessionCache(new ServerConfig()));
+    }
 
-    public Session createSessionById(long sessionId, String userId, long sourceId, byte[] credentials) {
-        Session session = new Session(getOrCreateAccount(userId), sessionId, sourceId, credentials);
-        synchronized (sessionHashMap) {
-            sessionHashMap.put(sessionId, session);
+    public StorageService(AccountType accountType, int destinationCacheSize, MappedAccountStore accountStore,
+                          SessionCache sessions) {
+        if (accountType == AccountType.MAPPED && accountStore == null) {
+            throw new IllegalArgumentException("MAPPED accounts need an account store");
         }
+        this.accountType = accountType;
+        this.destinationCache = new AccountCache(destinationCacheSize);
+        this.accountStore = accountType == AccountType.MAPPED ? accountStore : null;
+        this.sessions = sessions;
+    }
+
+    public Session createSessionById(long sessionId, String userId, long sourceId) {
+        Session session = new Session(getOrCreateAccount(userId), sessionId, sourceId);
+        sessions.add(session);
         return session;
     }
 
     public Session lookupSession(long sessionId) {
-        synchronized (sessionHashMap) {
-            return sessionHashMap.get(sessionId);
+        return sessions.get(sessionId);
+    }
+
+    public SessionCache getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Resolves a transfer destination, going through the destination cache first.
+     */
+    public Account lookupAccount(String accountId) {
+        Account res = destinationCache.get(accountId);
+        if (res == null) {
+            res = getOrCreateAccount(accountId);
+            destinationCache.put(res);
+            // lost a race with closeAccount: don't leave the closed account cached
+            if (!isLive(res)) {
+                destinationCache.invalidate(res);
+            }
         }
+        return res;
     }
 
-    public Session lookupSessionProxyForAccount(String accountId) {
-        return new Session(getOrCreateAccount(accountId), -1, -1, null);
+    /**
+     * Removes the account from the index; the id resolves to a new, empty account afterwards.
+     */
+    public Account closeAccount(String accountId) {
+        if (accountStore != null) {
+            Account res = accountStore.remove(accountId);
+            // cached handles are distinct objects from the one returned by remove
+            destinationCache.invalidate(accountId);
+            return res;
+        }
+        Account res = accountHashMap.remove(accountId);
+        if (res != null) {
+            destinationCache.invalidate(res);
+        }
+        return res;
     }
 
-    public void cleanUpSession(long sessionId) {
-        synchronized (sessionHashMap) {
-            sessionHashMap.remove(sessionId);
+    /**
+     * Visits every account; accounts created or closed meanwhile may or may not be visited.
+     */
+    public void forEachAccount(Consumer<Account> action) {
+        if (accountStore != null) {
+            accountStore.forEach(action);
+            return;
         }
+        accountHashMap.values().forEach(action);
+    }
+
+    /**
+     * Creates the account if needed and sets its balance, for rebuilding state on recovery.
+     */
+    public Account restoreAccount(String accountId, double balance) {
+        Account account = getOrCreateAccount(accountId);
+        account.restoreBalance(balance);
+        return account;
     }
 
     private Account getOrCreateAccount(String accountId) {
-        synchronized (accountHashMap) {
-            Account res = accountHashMap.get(accountId);
-            if (res == null) {
-                res = new Account(accountId);
-                accountHashMap.put(accountId, res);
-            }
-            return res;
+        if (accountStore != null) {
+            return accountStore.getOrCreate(accountId);
+        }
+        Account res = accountHashMap.get(accountId);
+        if (res == null) {
+            res = accountHashMap.computeIfAbsent(accountId, (id) -> newAccount(id, accountNumberGen.incrementAndGet()));
+        }
+        return res;
+    }
+
+    private boolean isLive(Account account) {
+        if (accountStore != null) {
+            return ((MappedAccount) account).isLive();
+        }
+        return accountHashMap.get(account.getId()) == account;
+    }
+
+    private Account newAccount(String accountId, long number) {
+        switch (accountType) {
+            case ATOMIC_CENTS:
+                return new AtomicAccount(accountId, number);
+            default:
+                return new Account(accountId, number);
         }
     }
 }
@@ -0,0 +1,45 @@
+package atm.server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StorageServiceTest {
+
+    @Test
+    public void testLookupAccountReturnsIndexedAccount() {
+        StorageService storage = new StorageService();
+        Session session = storage.createSessionById(1, "merchant", 1);
+
+        assertSame(session.getAccount(), storage.lookupAccount("merchant"));
+        assertSame(session.getAccount(), storage.lookupAccount("merchant"));
+    }
+
+    @Test
+    public void testClosedAccountIsNotServedFromCache() {
+        StorageService storage = new StorageService(AccountType.HEAP_DOUBLE, 1);
+        Account merchant = storage.lookupAccount("merchant");
+        merchant.increase(10);
+
+        assertSame(merchant, storage.closeAccount("merchant"));
+        Account reopened = storage.lookupAccount("merchant");
+        assertNotSame(merchant, reopened);
+        assertEquals(0, reopened.getBalance(), 0.00000001);
+    }
+
+    @Test
+    public void testCacheEvictsOnCollision() {
+        AccountCache cache = new AccountCache(1);
+        Account a = new Account("a", 1);
+        Account b = new Account("b", 2);
+        cache.put(a);
+        cache.put(b);
+
+        assertNull(cache.get("a"));
+        assertSame(b, cache.get("b"));
+        cache.invalidate(a);
+        assertSame(b, cache.get("b"));
+        cache.invalidate(b);
+        assertNull(cache.get("b"));
+    }
+}
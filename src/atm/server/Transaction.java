@@ -1,9 +1,13 @@
 package atm.server;
 
 
+import atm.server.journal.Journal;
 import atm.server.operation.Operation;
+import atm.server.operation.OperationType;
 import atm.server.operation.ResultCallback;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 /**
  * Created by IntelliJ IDEA.
  * User: shesdmi
@@ -12,58 +16,252 @@ import atm.server.operation.ResultCallback;
  * To change this template use File | Settings | File Templates.
  */
 public class Transaction {
-    private static final Object globalLock = new Object();
     private final Operation operation;
-    private Account a1 = null,a2=null;
+    private Account a1 = null;
+    private Account[] targets = NO_TARGETS;
+    private double[] amounts;
     private double value;
+    private volatile int pendingCredits;
+    private long debitLsn;
+    private int attempts;
+    // kept for reuse by a pooled transaction
+    private Account[] singleTarget;
+    private double[] singleAmount;
+    private double[] targetBalances;
+    private Runnable publish;
+    private Runnable publishFailure;
     private final ResultCallback resultCallback;
+    private final Journal journal;
+
+    private static final Account[] NO_TARGETS = new Account[0];
+    private static final AtomicIntegerFieldUpdater<Transaction> PENDING_CREDITS =
+            AtomicIntegerFieldUpdater.newUpdater(Transaction.class, "pendingCredits");
 
     public Transaction(Operation operation, ResultCallback resultCallback) {
+        this(operation, resultCallback, null);
+    }
+
+    /**
+     * @param journal journal recording every change this transaction makes, or null;
+     *                with a journal the result is only reported once the change is durable
+     */
+    public Transaction(Operation operation, ResultCallback resultCallback, Journal journal) {
         this.operation = operation;
         this.resultCallback = resultCallback;
+        this.journal = journal;
     }
 
+    /**
+     * Executes the whole operation on the calling thread. Every account involved is locked
+     * in account number order, so concurrent transfers can not deadlock whatever the number
+     * of legs.
+     */
     public void execute() throws TransactionException {
-        a1 = operation.getSession1().getAccount();
-        if (operation.getSession2() != null) {
-            a2 = operation.getSession2().getAccount();
-        }
-        if (a2 == null) {
-            synchronized (a1) {
+        operation.markStarted();
+        resolveAccounts();
+        // journal records must reach the log in the order the account changed, which only a lock guarantees
+        if (targets.length == 0 && a1.isLockFree() && journal == null) {
+            nonSafeExec();
+        } else {
+            Account[] locked = AccountLocks.lockAll(a1, targets);
+            try {
                 nonSafeExec();
+            } finally {
+                AccountLocks.unlockAll(locked);
             }
+        }
+        complete();
+    }
+
+    /**
+     * Same as {@link #execute} for a caller that already holds the locks of the source
+     * account and of every {@link #getTargets() target}.
+     */
+    void executeLocked() throws TransactionException {
+        operation.markStarted();
+        resolveAccounts();
+        nonSafeExec();
+        complete();
+    }
+
+    /**
+     * First phase of sharded execution, run on the shard owning the source account.
+     * Single-account operations complete here; a transfer only debits the source
+     * and leaves one pending credit per destination account.
+     */
+    public void executeOnSource() throws TransactionException {
+        operation.markStarted();
+        resolveAccounts();
+        if (journal == null) {
+            debitSource();
+            return;
+        }
+        // the shard needs no lock, but a snapshot must not see a change before its journal record
+        a1.getLock().lock();
+        try {
+            debitSource();
+        } finally {
+            a1.getLock().unlock();
+        }
+    }
+
+    /**
+     * Second phase of a sharded transfer, run on the shard owning {@code getTarget(leg)}.
+     *
+     * @return true if this was the last pending credit of the transfer
+     */
+    public boolean executeOnDestination(int leg) {
+        Account target = targets[leg];
+        if (journal == null) {
+            target.increase(amounts[leg]);
         } else {
-            int a1HashCode = System.identityHashCode(a1);
-            int a2HashCode = System.identityHashCode(a2);
-            if (a1HashCode > a2HashCode) {
-                synchronized (a1) {
-                    Thread.yield();
-                    synchronized (a2) {
-                        nonSafeExec();
-                    }
-                }
-            } else if (a1HashCode < a2HashCode) {
-                synchronized (a2) {
-                    Thread.yield();
-                    synchronized (a1) {
-                        nonSafeExec();
-                    }
-                }
-            } else {
-                synchronized (globalLock) {
-                    synchronized (a1) {
-                        Thread.yield();
-                        synchronized (a2) {
-                            nonSafeExec();
-                        }
-                    }
-                }
+            target.getLock().lock();
+            try {
+                target.increase(amounts[leg]);
+                journal.appendCredit(debitLsn, leg, operation.getOperationType(), amounts[leg], target);
+            } catch (RuntimeException e) {
+                // the journal failed (the flusher reported why): the credit stays, as recovery
+                // applies it from the journaled debit too, and the commit fails the transaction
+            } finally {
+                target.getLock().unlock();
             }
         }
+        if (PENDING_CREDITS.decrementAndGet(this) == 0) {
+            operation.setValue(value);
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isCreditPending() {
+        return pendingCredits > 0;
+    }
+
+    public Account getSourceAccount() {
+        return operation.getSession1().getAccount();
+    }
+
+    public int getTargetCount() {
+        return targets.length;
+    }
+
+    public Account getTarget(int leg) {
+        return targets[leg];
+    }
+
+    Account[] getTargets() {
+        resolveAccounts();
+        return targets;
+    }
+
+    /**
+     * Reports the result, once everything journaled up to now is durable if there is a journal;
+     * if the journal fails first, the transaction is reported as failed instead.
+     */
+    public void complete() {
+        if (journal != null) {
+            if (publish == null) {
+                publish = this::publishResult;
+                publishFailure = this::fail;
+            }
+            journal.commit(publish, publishFailure);
+        } else {
+            publishResult();
+        }
+    }
+
+    private void publishResult() {
         resultCallback.onOperationResult(operation);
     }
 
+    /**
+     * Reports that the operation was given up on and has not changed any account.
+     */
+    public void fail() {
+        resultCallback.onOperationFailed(operation);
+    }
+
+    /**
+     * Forgets the previous execution, for a pooled operation reused by another request.
+     */
+    void recycle() {
+        a1 = null;
+        targets = NO_TARGETS;
+        amounts = null;
+        value = 0;
+        pendingCredits = 0;
+        debitLsn = 0;
+        attempts = 0;
+        if (singleTarget != null) {
+            singleTarget[0] = null;
+        }
+    }
+
+    /**
+     * @return the number of the execution that just failed, counting from 1
+     */
+    int nextAttempt() {
+        return ++attempts;
+    }
+
+    private void debitSource() throws TransactionException {
+        if (targets.length == 0) {
+            nonSafeExec();
+            return;
+        }
+        double sourceBalance = journal != null ? a1.getBalance() : 0;
+        if (!debitTransfer()) {
+            throw new TransactionException("Can't perform operation for " + a1.getId());
+        }
+        if (journal != null) {
+            try {
+                debitLsn = journal.appendDebit(operation.getOperationType(), operation.getValue(), a1, targets, amounts);
+            } catch (RuntimeException e) {
+                a1.restoreBalance(sourceBalance);
+                throw e;
+            }
+        }
+        pendingCredits = targets.length;
+        operation.markExecuted();
+    }
+
+    /**
+     * Debits the source of a transfer; the legs of a split transfer are debited through the
+     * account, which knows how their credits round.
+     */
+    private boolean debitTransfer() {
+        if (operation.getOperationType() == OperationType.SPLIT_TRANSFER) {
+            return a1.debitLegs(amounts);
+        }
+        return a1.debit(operation.getValue());
+    }
+
+    private void resolveAccounts() {
+        a1 = operation.getSession1().getAccount();
+        switch (operation.getOperationType()) {
+            case TRANSFER_TO:
+                if (singleTarget == null) {
+                    singleTarget = new Account[1];
+                    singleAmount = new double[1];
+                }
+                singleTarget[0] = operation.getAccount2();
+                singleAmount[0] = operation.getValue();
+                targets = singleTarget;
+                amounts = singleAmount;
+                break;
+            case SPLIT_TRANSFER:
+                targets = operation.getTargetAccounts();
+                amounts = operation.getAmounts();
+                break;
+        }
+    }
+
     private void nonSafeExec() throws TransactionException {
+        double amount = operation.getValue();
+        double sourceBalance = 0;
+        if (journal != null) {
+            sourceBalance = saveBalances();
+        }
         switch (operation.getOperationType()) {
             case INCREASE:
                 a1.increase(operation.getValue());
@@ -71,9 +269,13 @@ public class Transaction {
             case TRANSFER_FROM:
                 break;
             case TRANSFER_TO:
-                if (!a1.transferTo(a2, operation.getValue())) {
+            case SPLIT_TRANSFER:
+                if (!debitTransfer()) {
                     throw new TransactionException("Can't perform operation for " + a1.getId());
                 }
+                for (int i = 0; i < targets.length; i++) {
+                    targets[i].increase(amounts[i]);
+                }
                 break;
             case WITHDRAW:
                 if (!a1.withdraw(operation.getValue())) {
@@ -85,5 +287,43 @@ public class Transaction {
                 break;
         }
         operation.setValue(value);
+        if (journal != null && operation.getOperationType() != OperationType.GETVALUE) {
+            try {
+                journal.appendMutation(operation.getOperationType(), amount, a1, targets);
+            } catch (RuntimeException e) {
+                restoreBalances(sourceBalance);
+                throw e;
+            }
+        }
+        operation.markExecuted();
+    }
+
+    /**
+     * Keeps the balances of the targets, to undo a change the journal failed to record.
+     *
+     * @return the balance of the source account
+     */
+    private double saveBalances() {
+        if (targets.length > 0) {
+            if (targetBalances == null || targetBalances.length < targets.length) {
+                targetBalances = new double[targets.length];
+            }
+            for (int i = 0; i < targets.length; i++) {
+                targetBalances[i] = targets[i].getBalance();
+            }
+        }
+        return a1.getBalance();
+    }
+
+    /**
+     * Undoes the change of an operation that could not be journaled, so that memory holds no
+     * balance the log lacks. Every balance was saved before any changed, so an account listed
+     * more than once gets its original balance back whatever the order.
+     */
+    private void restoreBalances(double sourceBalance) {
+        a1.restoreBalance(sourceBalance);
+        for (int i = 0; i < targets.length; i++) {
+            targets[i].restoreBalance(targetBalances[i]);
+        }
     }
 }
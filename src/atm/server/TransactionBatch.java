@@ -0,0 +1,95 @@
+package atm.server;
+
+import atm.server.journal.Journal;
+import atm.server.operation.BatchResultCallback;
+import atm.server.operation.Operation;
+import atm.server.operation.OperationBatch;
+import atm.server.operation.ResultCallback;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transactions of an {@link OperationBatch}, all debiting the same session account. Engines
+ * run a batch as one unit of work; each transaction reports back to the batch, which calls
+ * its own callback once the last one is done.
+ */
+public class TransactionBatch {
+    private final OperationBatch batch;
+    private final Transaction[] transactions;
+    private final BatchResultCallback batchCallback;
+    private final AtomicInteger pending;
+    private int attempts;
+
+    public TransactionBatch(OperationBatch batch, BatchResultCallback batchCallback) {
+        this(batch, batchCallback, null);
+    }
+
+    public TransactionBatch(OperationBatch batch, BatchResultCallback batchCallback, Journal journal) {
+        this.batch = batch;
+        this.batchCallback = batchCallback;
+        int count = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.getOperation(i) != null) {
+                count++;
+            }
+        }
+        transactions = new Transaction[count];
+        count = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Operation operation = batch.getOperation(i);
+            if (operation != null) {
+                // each transaction reports to a callback that knows its item, so no lookup is needed
+                transactions[count++] = new Transaction(operation, new Item(i), journal);
+            }
+        }
+        pending = new AtomicInteger(count);
+    }
+
+    public Account getSourceAccount() {
+        return batch.getSession1().getAccount();
+    }
+
+    public Transaction[] getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * @return true if no item of the batch is to be executed; the batch never completes by itself then
+     */
+    public boolean isEmpty() {
+        return transactions.length == 0;
+    }
+
+    /**
+     * @return the number of the execution of the whole batch that just failed, counting from 1
+     */
+    int nextAttempt() {
+        return ++attempts;
+    }
+
+    private void done(int item, boolean ack) {
+        batch.setAcked(item, ack);
+        if (pending.decrementAndGet() == 0) {
+            batchCallback.onBatchResult(batch);
+        }
+    }
+
+    /**
+     * Result callback of the transaction executing one item of the batch.
+     */
+    private final class Item implements ResultCallback {
+        private final int index;
+
+        Item(int index) {
+            this.index = index;
+        }
+
+        public void onOperationResult(Operation operation) {
+            done(index, true);
+        }
+
+        public void onOperationFailed(Operation operation) {
+            done(index, false);
+        }
+    }
+}
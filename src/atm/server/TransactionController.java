@@ -1,6 +1,9 @@
 package atm.server;
 
+import atm.server.journal.Journal;
+import atm.server.operation.BatchResultCallback;
 import atm.server.operation.Operation;
+import atm.server.operation.OperationBatch;
 import atm.server.operation.ResultCallback;
 
 /**
@@ -17,8 +20,12 @@ public class TransactionController {
         return TransactionControllerHolder.instance;
     }
 
-    public Transaction createTransaction(Operation operation, ResultCallback resultCallback) {
-        return new Transaction(operation, resultCallback);
+    public Transaction createTransaction(Operation operation, ResultCallback resultCallback, Journal journal) {
+        return new Transaction(operation, resultCallback, journal);
+    }
+
+    public TransactionBatch createBatch(OperationBatch batch, BatchResultCallback batchCallback, Journal journal) {
+        return new TransactionBatch(batch, batchCallback, journal);
     }
 
     private static class TransactionControllerHolder {
@@ -0,0 +1,89 @@
+package atm.server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs submitted transactions asynchronously; results are reported through the
+ * transaction's {@link atm.server.operation.ResultCallback}.
+ */
+public abstract class TransactionEngine {
+    protected final ServerMetrics metrics;
+    protected final RetryScheduler retries;
+
+    protected TransactionEngine(ServerMetrics metrics) {
+        this(metrics, new RetryScheduler());
+    }
+
+    protected TransactionEngine(ServerMetrics metrics, RetryScheduler retries) {
+        this.metrics = metrics;
+        this.retries = retries;
+    }
+
+    public abstract void submit(Transaction transaction);
+
+    /**
+     * Runs every transaction of the batch; each one succeeds or fails on its own.
+     */
+    public abstract void submitBatch(TransactionBatch batch);
+
+    /**
+     * Stops accepting work; transactions waiting for a retry are dropped.
+     */
+    public void shutdown() {
+        retries.shutdown();
+    }
+
+    /**
+     * Waits for the transactions submitted before {@link #shutdown} to finish executing.
+     */
+    public abstract boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Runs one step of the transaction. If it fails temporarily, the transaction is submitted
+     * again after a back-off instead of being retried on the calling worker; if it fails for
+     * good, or too many times, the transaction is failed. Any other exception, such as a failed
+     * journal, fails the transaction for good rather than escaping into the worker.
+     *
+     * @return true if the step succeeded
+     */
+    protected boolean execute(Transaction transaction, Step step) {
+        try {
+            step.execute(transaction);
+            return true;
+        } catch (TransactionException ex) {
+            if (!retryLater(ex, transaction.nextAttempt(), () -> submit(transaction))) {
+                fail(transaction);
+            }
+            return false;
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+            fail(transaction);
+            return false;
+        }
+    }
+
+    /**
+     * @param attempt the execution that failed, counting from 1
+     * @return true if {@code retry} was scheduled; false if the failure is final
+     */
+    protected boolean retryLater(TransactionException ex, int attempt, Runnable retry) {
+        if (!ex.isTemporary || !retries.schedule(retry, attempt)) {
+            return false;
+        }
+        metrics.recordRetry();
+        return true;
+    }
+
+    protected void fail(Transaction transaction) {
+        metrics.recordFailure();
+        transaction.fail();
+    }
+
+    /**
+     * A phase of a transaction, such as {@code Transaction::execute}; taking the transaction
+     * as an argument keeps method references to it from allocating.
+     */
+    protected interface Step {
+        void execute(Transaction transaction) throws TransactionException;
+    }
+}
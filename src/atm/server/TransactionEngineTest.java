@@ -0,0 +1,241 @@
+package atm.server;
+
+import atm.server.operation.Operation;
+import atm.server.operation.OperationBatch;
+import atm.server.operation.OperationType;
+import atm.server.operation.ResultCallback;
+import atm.util.WaitStrategy;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TransactionEngineTest {
+    private static final int ACCOUNTS = 16;
+    private static final int TRANSFERS = 20000;
+    private static final double INITIAL = 1000;
+
+    @Test
+    public void testShardedTransfersKeepTotal() throws InterruptedException {
+        checkTransfersKeepTotal(new ShardedTransactionEngine(4));
+    }
+
+    @Test
+    public void testLockOrderedTransfersKeepTotal() throws InterruptedException {
+        checkTransfersKeepTotal(new LockOrderedTransactionEngine(4));
+    }
+
+    @Test
+    public void testRingBufferTransfersKeepTotal() throws InterruptedException {
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            if (strategy != WaitStrategy.BUSY_SPIN || Runtime.getRuntime().availableProcessors() > 4) {
+                // rings smaller than the burst, so submitters wait and credits overflow
+                checkTransfersKeepTotal(new RingBufferTransactionEngine(4, 64, strategy));
+            }
+        }
+    }
+
+    @Test
+    public void testSplitTransferIsAllOrNothing() throws TransactionException {
+        Account from = new Account("from", 1);
+        Account to1 = new Account("to1", 2);
+        Account to2 = new Account("to2", 3);
+        from.increase(10);
+
+        Operation tooMuch = new Operation(session(from), new Account[] {to1, to2}, new double[] {5, 6});
+        try {
+            new Transaction(tooMuch, (op) -> {}).execute();
+            fail();
+        } catch (TransactionException expected) {
+        }
+        new Transaction(new Operation(session(from), new Account[] {to1, to2, to1}, new double[] {1, 2, 3}), (op) -> {}).execute();
+
+        assertEquals(4, from.getBalance(), 0.00000001);
+        assertEquals(4, to1.getBalance(), 0.00000001);
+        assertEquals(2, to2.getBalance(), 0.00000001);
+    }
+
+    @Test
+    public void testShardedBatchAcksPerItem() throws Exception {
+        checkBatchAcksPerItem(new ShardedTransactionEngine(4));
+    }
+
+    @Test
+    public void testLockOrderedBatchAcksPerItem() throws Exception {
+        checkBatchAcksPerItem(new LockOrderedTransactionEngine(4));
+    }
+
+    @Test
+    public void testLockTimeoutIsRetriedWithoutHoldingTheWorker() throws Exception {
+        ServerMetrics metrics = new ServerMetrics();
+        TransactionEngine engine = new LockOrderedTransactionEngine(1, metrics,
+                new RetryScheduler(1000, TimeUnit.MILLISECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(1)));
+        Account from = new Account("from", 1);
+        Account to = new Account("to", 2);
+        Account other = new Account("other", 3);
+        from.increase(10);
+
+        Results transfer = new Results();
+        to.getLock().lock();
+        try {
+            engine.submit(new Transaction(new Operation(OperationType.TRANSFER_TO, session(from), session(to), 4), transfer));
+            Results increase = new Results();
+            engine.submit(new Transaction(new Operation(OperationType.INCREASE, session(other), 1), increase));
+            assertTrue("the single worker is free", increase.result.get(30, TimeUnit.SECONDS));
+            while (metrics.getRetries() < 2) {
+                Thread.sleep(1);
+            }
+        } finally {
+            to.getLock().unlock();
+        }
+        assertTrue(transfer.result.get(30, TimeUnit.SECONDS));
+        assertEquals(4, to.getBalance(), 0.00000001);
+        assertEquals(0, metrics.getFailures());
+        engine.shutdown();
+    }
+
+    @Test
+    public void testTransactionFailsAfterLastAttempt() throws Exception {
+        ServerMetrics metrics = new ServerMetrics();
+        TransactionEngine engine = new LockOrderedTransactionEngine(1, metrics,
+                new RetryScheduler(3, TimeUnit.MICROSECONDS.toNanos(100), TimeUnit.MICROSECONDS.toNanos(100)));
+        Account from = new Account("from", 1);
+        Account to = new Account("to", 2);
+        from.increase(10);
+
+        Results transfer = new Results();
+        Results overdraft = new Results();
+        to.getLock().lock();
+        try {
+            engine.submit(new Transaction(new Operation(OperationType.TRANSFER_TO, session(from), session(to), 4), transfer));
+            assertFalse(transfer.result.get(30, TimeUnit.SECONDS));
+        } finally {
+            to.getLock().unlock();
+        }
+        engine.submit(new Transaction(new Operation(OperationType.WITHDRAW, session(from), 11), overdraft));
+        assertFalse(overdraft.result.get(30, TimeUnit.SECONDS));
+
+        assertEquals(10, from.getBalance(), 0.00000001);
+        assertEquals(2, metrics.getRetries());
+        assertEquals(2, metrics.getFailures());
+        engine.shutdown();
+    }
+
+    @Test
+    public void testRingBufferBatchAcksPerItem() throws Exception {
+        checkBatchAcksPerItem(new RingBufferTransactionEngine(4, 16, WaitStrategy.PARK));
+    }
+
+    @Test
+    public void testRingBufferShutdownFinishesSubmittedWork() throws InterruptedException {
+        TransactionEngine engine = new RingBufferTransactionEngine(2, 16, WaitStrategy.PARK);
+        Account[] accounts = new Account[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts[i] = new Account("a" + i, i + 1);
+        }
+        for (int i = 0; i < 100 * ACCOUNTS; i++) {
+            engine.submit(new Transaction(new Operation(OperationType.INCREASE, session(accounts[i % ACCOUNTS]), 1), (op) -> {}));
+        }
+        engine.shutdown();
+        assertTrue(engine.awaitTermination(30, TimeUnit.SECONDS));
+        for (Account account : accounts) {
+            assertEquals(100, account.getBalance(), 0.00000001);
+        }
+        try {
+            engine.submit(new Transaction(new Operation(OperationType.INCREASE, session(accounts[0]), 1), (op) -> {}));
+            fail();
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    private void checkBatchAcksPerItem(TransactionEngine engine) throws Exception {
+        Account from = new Account("from", 1);
+        Account[] to = new Account[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            to[i] = new Account("to" + i, i + 2);
+        }
+        from.increase(100);
+        Session session = session(from);
+        int size = 3 * ACCOUNTS + 2;
+        Operation[] operations = new Operation[size];
+        for (int i = 0; i < 3 * ACCOUNTS; i++) {
+            operations[i] = new Operation(OperationType.TRANSFER_TO, session, to[i % ACCOUNTS], i < 2 * ACCOUNTS ? 1 : 1000);
+        }
+        operations[size - 1] = new Operation(OperationType.GETVALUE, session, 0);
+        for (int i = 0; i < size; i++) {
+            if (operations[i] != null) {
+                operations[i].setCorrelationId(1000 + i);
+            }
+        }
+        OperationBatch batch = new OperationBatch(session, operations);
+
+        CompletableFuture<OperationBatch> result = new CompletableFuture<>();
+        engine.submitBatch(new TransactionBatch(batch, result::complete));
+        assertSame(batch, result.get(30, TimeUnit.SECONDS));
+        engine.shutdown();
+
+        for (int i = 0; i < 3 * ACCOUNTS; i++) {
+            assertEquals("item " + i, i < 2 * ACCOUNTS, batch.isAcked(i));
+        }
+        assertFalse(batch.isAcked(size - 2));
+        assertTrue(batch.isAcked(size - 1));
+        assertEquals(100 - 2 * ACCOUNTS, operations[size - 1].getValue(), 0.00000001);
+        for (int i = 0; i < size; i++) {
+            if (operations[i] != null) {
+                assertEquals(1000 + i, operations[i].getCorrelationId());
+            }
+        }
+        for (Account account : to) {
+            assertEquals(2, account.getBalance(), 0.00000001);
+        }
+    }
+
+    private void checkTransfersKeepTotal(TransactionEngine engine) throws InterruptedException {
+        Account[] accounts = new Account[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts[i] = new Account("a" + i, i + 1);
+            accounts[i].increase(INITIAL);
+        }
+        final CountDownLatch done = new CountDownLatch(TRANSFERS);
+        for (int i = 0; i < TRANSFERS; i++) {
+            Account from = accounts[i % ACCOUNTS];
+            Operation operation;
+            if (i % 2 == 0) {
+                operation = new Operation(OperationType.TRANSFER_TO, session(from),
+                        session(accounts[(i * 7 + 3) % ACCOUNTS]), 0.5);
+            } else {
+                operation = new Operation(session(from),
+                        new Account[] {accounts[(i + 1) % ACCOUNTS], accounts[(i + 5) % ACCOUNTS]}, new double[] {0.25, 0.25});
+            }
+            engine.submit(new Transaction(operation, (op) -> done.countDown()));
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        engine.shutdown();
+
+        double total = 0;
+        for (Account account : accounts) {
+            total += account.getBalance();
+        }
+        assertEquals(ACCOUNTS * INITIAL, total, 0.00000001);
+    }
+
+    private static final class Results implements ResultCallback {
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        public void onOperationResult(Operation operation) {
+            result.complete(true);
+        }
+
+        public void onOperationFailed(Operation operation) {
+            result.complete(false);
+        }
+    }
+
+    private static Session session(Account account) {
+        return new Session(account, -1, -1);
+    }
+}
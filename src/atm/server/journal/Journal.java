@@ -0,0 +1,471 @@
+package atm.server.journal;
+
+import atm.server.Account;
+import atm.server.operation.OperationType;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only write-ahead log of account mutations with group commit. Appends only copy the
+ * record into a memory buffer; a single flusher thread writes out everything appended so far
+ * and syncs it once per commit window, so many operations share one fsync.
+ * <pre>
+ * record:   length:int crc:int lsn:long kind:byte type:byte amount:double body
+ * MUTATION: count:short (accountId:string balance:double)[count]
+ * DEBIT:    accountId:string balance:double legs:short (accountId:string amount:double)[legs]
+ * CREDIT:   debitLsn:long leg:short accountId:string balance:double
+ *
+ * string: length:short then UTF-16 chars
+ * </pre>
+ * {@code length} counts the bytes after the crc and the crc covers exactly those, so a torn
+ * write at the end of the log is detected and ignored on read. Records go to segment files
+ * named after the lsn of their first record.
+ */
+public class Journal implements Closeable {
+    public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    static final String SEGMENT_PREFIX = "journal-";
+    static final String SEGMENT_SUFFIX = ".log";
+    static final int RECORD_HEADER_LENGTH = 8;
+    private static final int RECORD_FIXED_LENGTH = 18;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final long groupCommitNanos;
+    private final int groupCommitRecords;
+    private final long segmentSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition wakeup = lock.newCondition();
+    private final CRC32C crc = new CRC32C();
+    private final Thread flusher;
+
+    // guarded by lock
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    private int bufferedRecords;
+    private long nextLsn;
+    private ArrayList<Runnable> callbacks = new ArrayList<>();
+    /** Parallel to {@link #callbacks}: what to run instead if the journal fails first. */
+    private ArrayList<Runnable> failureCallbacks = new ArrayList<>();
+    /** Debits with credit legs not journaled yet, by lsn: oldest first, as they are appended in lsn order. */
+    private final LinkedHashMap<Long, int[]> pendingDebits = new LinkedHashMap<>();
+    private boolean closed;
+
+    // flusher thread only
+    private ByteBuffer spare = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    private ArrayList<Runnable> spareCallbacks = new ArrayList<>();
+    private ArrayList<Runnable> spareFailureCallbacks = new ArrayList<>();
+    private FileChannel segment;
+    private long segmentPosition;
+
+    private volatile long durableLsn;
+    private volatile IOException failure;
+
+    /**
+     * Opens the journal in {@code directory}, continuing after the last intact record of an
+     * existing log. A zero commit window syncs as soon as anything is pending.
+     */
+    public Journal(File directory, long groupCommitMicros, int groupCommitRecords, long segmentSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create journal directory " + directory);
+        }
+        this.directory = directory;
+        this.groupCommitNanos = TimeUnit.MICROSECONDS.toNanos(groupCommitMicros);
+        this.groupCommitRecords = Math.max(1, groupCommitRecords);
+        this.segmentSize = segmentSize;
+        nextLsn = lastLsn(directory) + 1;
+        durableLsn = nextLsn - 1;
+        flusher = new Thread(this::flushLoop, "atm-journal");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Journals an operation that has changed {@code first} and {@code others}, recording
+     * their current balances. Must be called while no other thread can change these accounts.
+     *
+     * @return lsn of the record
+     */
+    public long appendMutation(OperationType type, double amount, Account first, Account[] others) {
+        int length = RECORD_FIXED_LENGTH + 2 + entryLength(first);
+        for (Account account : others) {
+            length += entryLength(account);
+        }
+        lock.lock();
+        try {
+            int start = begin(length, JournalRecord.MUTATION, type, amount);
+            buffer.putShort((short) (others.length + 1));
+            putEntry(first, first.getBalance());
+            for (Account account : others) {
+                putEntry(account, account.getBalance());
+            }
+            return end(start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Journals the debit of a transfer whose credits are applied later, one
+     * {@link #appendCredit} per leg.
+     *
+     * @return lsn of the record, to be passed to {@link #appendCredit}
+     */
+    public long appendDebit(OperationType type, double amount, Account source, Account[] targets, double[] amounts) {
+        int length = RECORD_FIXED_LENGTH + entryLength(source) + 2;
+        for (Account target : targets) {
+            length += entryLength(target);
+        }
+        lock.lock();
+        try {
+            int start = begin(length, JournalRecord.DEBIT, type, amount);
+            putEntry(source, source.getBalance());
+            buffer.putShort((short) targets.length);
+            for (int i = 0; i < targets.length; i++) {
+                putEntry(targets[i], amounts[i]);
+            }
+            long lsn = end(start);
+            pendingDebits.put(lsn, new int[] {targets.length});
+            return lsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long appendCredit(long debitLsn, int leg, OperationType type, double amount, Account target) {
+        int length = RECORD_FIXED_LENGTH + 10 + entryLength(target);
+        lock.lock();
+        try {
+            int start = begin(length, JournalRecord.CREDIT, type, amount);
+            buffer.putLong(debitLsn);
+            buffer.putShort((short) leg);
+            putEntry(target, target.getBalance());
+            int[] legsLeft = pendingDebits.get(debitLsn);
+            if (legsLeft != null && --legsLeft[0] == 0) {
+                pendingDebits.remove(debitLsn);
+            }
+            return end(start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs {@code onDurable} once every record appended so far is on disk: right away if it
+     * already is, otherwise on the flusher thread. If the journal fails or is closed before
+     * that, {@code onFailed} runs instead, so exactly one of the two always runs.
+     */
+    public void commit(Runnable onDurable, Runnable onFailed) {
+        Runnable now;
+        lock.lock();
+        try {
+            if (failure != null || closed) {
+                now = onFailed;
+            } else if (nextLsn - 1 > durableLsn || !callbacks.isEmpty()) {
+                callbacks.add(onDurable);
+                failureCallbacks.add(onFailed);
+                wakeup.signal();
+                return;
+            } else {
+                now = onDurable;
+            }
+        } finally {
+            lock.unlock();
+        }
+        now.run();
+    }
+
+    public long getDurableLsn() {
+        return durableLsn;
+    }
+
+    /**
+     * @return lsn from which the log must be replayed on top of account state read from now
+     *         on: the next lsn, or the oldest debit whose credits are not all journaled yet
+     */
+    public long replayStartLsn() {
+        lock.lock();
+        try {
+            Iterator<Long> oldest = pendingDebits.keySet().iterator();
+            return oldest.hasNext() ? oldest.next() : nextLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the segments holding only records older than {@code lsn}. The segment
+     * being written is always kept.
+     */
+    public void deleteSegmentsBefore(long lsn) {
+        File[] segments = segments(directory);
+        for (int i = 0; i + 1 < segments.length && firstLsn(segments[i + 1]) <= lsn; i++) {
+            if (!segments[i].delete()) {
+                System.err.println("Can't delete journal segment " + segments[i]);
+            }
+        }
+    }
+
+    /**
+     * Syncs everything appended so far, runs the pending commit callbacks and closes the log.
+     * If the journal failed, the pending commits are failed instead.
+     */
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            wakeup.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // none are left after a normal exit of the flusher; after an interrupted join some may be
+        failPending();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private int begin(int length, byte kind, OperationType type, double amount) {
+        checkOpen();
+        if (buffer.remaining() < RECORD_HEADER_LENGTH + length) {
+            buffer = grow(buffer, RECORD_HEADER_LENGTH + length);
+        }
+        int start = buffer.position();
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.putLong(nextLsn);
+        buffer.put(kind);
+        buffer.put((byte) type.ordinal());
+        buffer.putDouble(amount);
+        return start;
+    }
+
+    private long end(int start) {
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + RECORD_HEADER_LENGTH).limit(buffer.position());
+        crc.reset();
+        crc.update(body);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        if (++bufferedRecords == 1 || bufferedRecords >= groupCommitRecords) {
+            wakeup.signal();
+        }
+        return nextLsn++;
+    }
+
+    private void checkOpen() {
+        if (failure != null) {
+            throw new UncheckedIOException("Journal failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Journal closed");
+        }
+    }
+
+    private void putEntry(Account account, double value) {
+        String id = account.getId();
+        buffer.putShort((short) id.length());
+        for (int i = 0; i < id.length(); i++) {
+            buffer.putChar(id.charAt(i));
+        }
+        buffer.putDouble(value);
+    }
+
+    private static int entryLength(Account account) {
+        return 2 + account.getId().length() * 2 + 8;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer batch;
+            ArrayList<Runnable> done;
+            ArrayList<Runnable> failed;
+            long firstLsn;
+            long lastLsn;
+            lock.lock();
+            try {
+                while (!closed && bufferedRecords == 0 && callbacks.isEmpty()) {
+                    wakeup.awaitUninterruptibly();
+                }
+                // let concurrent transactions join this commit
+                long deadline = System.nanoTime() + groupCommitNanos;
+                long remaining;
+                while (!closed && bufferedRecords < groupCommitRecords && (remaining = deadline - System.nanoTime()) > 0) {
+                    try {
+                        wakeup.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                if (closed && bufferedRecords == 0 && callbacks.isEmpty()) {
+                    break;
+                }
+                batch = buffer;
+                buffer = spare;
+                spare = batch;
+                done = callbacks;
+                callbacks = spareCallbacks;
+                spareCallbacks = done;
+                failed = failureCallbacks;
+                failureCallbacks = spareFailureCallbacks;
+                spareFailureCallbacks = failed;
+                lastLsn = nextLsn - 1;
+                firstLsn = lastLsn - bufferedRecords + 1;
+                bufferedRecords = 0;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                write(batch, firstLsn);
+            } catch (IOException e) {
+                // nothing pending may be acknowledged any more: fail this commit and every later one
+                e.printStackTrace();
+                lock.lock();
+                try {
+                    failure = e;
+                } finally {
+                    lock.unlock();
+                }
+                done.clear();
+                runAll(failed);
+                failPending();
+                break;
+            }
+            durableLsn = lastLsn;
+            failed.clear();
+            runAll(done);
+        }
+        try {
+            if (segment != null) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs the failure callbacks of the commits still waiting; only called once no further
+     * commit can be queued, after a failure or once the flusher has stopped.
+     */
+    private void failPending() {
+        ArrayList<Runnable> failed;
+        lock.lock();
+        try {
+            failed = failureCallbacks;
+            failureCallbacks = new ArrayList<>();
+            callbacks.clear();
+        } finally {
+            lock.unlock();
+        }
+        runAll(failed);
+    }
+
+    private static void runAll(ArrayList<Runnable> callbacks) {
+        for (Runnable callback : callbacks) {
+            run(callback);
+        }
+        callbacks.clear();
+    }
+
+    private static void run(Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void write(ByteBuffer batch, long firstLsn) throws IOException {
+        batch.flip();
+        try {
+            if (!batch.hasRemaining()) {
+                return;
+            }
+            if (segment == null || segmentPosition > 0 && segmentPosition + batch.remaining() > segmentSize) {
+                roll(firstLsn);
+            }
+            while (batch.hasRemaining()) {
+                segmentPosition += segment.write(batch);
+            }
+            segment.force(false);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * A segment left over with this name holds no intact record, or the log would have
+     * resumed after it, so it is overwritten.
+     */
+    private void roll(long firstLsn) throws IOException {
+        if (segment != null) {
+            segment.close();
+        }
+        File file = new File(directory, segmentName(firstLsn));
+        segment = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        segmentPosition = 0;
+    }
+
+    static String segmentName(long firstLsn) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX);
+    }
+
+    static long firstLsn(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * @return the segment files of the journal in {@code directory}, oldest first
+     */
+    static File[] segments(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static long lastLsn(File directory) throws IOException {
+        File[] segments = segments(directory);
+        long last = 0;
+        for (int i = segments.length - 1; i >= 0 && last == 0; i--) {
+            try (JournalReader reader = new JournalReader(new File[] {segments[i]}, 0)) {
+                JournalRecord record;
+                while ((record = reader.next()) != null) {
+                    last = record.lsn;
+                }
+            }
+        }
+        return last;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        int capacity = buffer.capacity();
+        while (capacity - buffer.position() < needed) {
+            capacity *= 2;
+        }
+        ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+}
@@ -0,0 +1,144 @@
+package atm.server.journal;
+
+import atm.server.operation.OperationType;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads the records of a {@link Journal} in lsn order. A segment is read up to its first
+ * incomplete or corrupt record, which can only be the tail of a write torn by a crash.
+ */
+public class JournalReader implements Closeable {
+    private static final OperationType[] OPERATION_TYPES = OperationType.values();
+
+    private final File[] segments;
+    private final long fromLsn;
+    private final CRC32C crc = new CRC32C();
+    private int nextSegment;
+    private ByteBuffer current;
+
+    public JournalReader(File directory) {
+        this(Journal.segments(directory), 0);
+    }
+
+    /**
+     * Reads only the records from {@code fromLsn} on, skipping the segments before it unread.
+     */
+    public JournalReader(File directory, long fromLsn) {
+        this(Journal.segments(directory), fromLsn);
+    }
+
+    JournalReader(File[] segments, long fromLsn) {
+        int first = 0;
+        while (first + 1 < segments.length && Journal.firstLsn(segments[first + 1]) <= fromLsn) {
+            first++;
+        }
+        this.segments = segments;
+        this.fromLsn = fromLsn;
+        this.nextSegment = first;
+    }
+
+    /**
+     * @return the next intact record, or null at the end of the log
+     */
+    public JournalRecord next() throws IOException {
+        while (true) {
+            if (current == null) {
+                if (nextSegment == segments.length) {
+                    return null;
+                }
+                current = map(segments[nextSegment++]);
+            }
+            JournalRecord record = read(current);
+            if (record == null) {
+                current = null;
+            } else if (record.lsn >= fromLsn) {
+                return record;
+            }
+        }
+    }
+
+    public void close() {
+        current = null;
+        nextSegment = segments.length;
+    }
+
+    private JournalRecord read(ByteBuffer in) {
+        if (in.remaining() < Journal.RECORD_HEADER_LENGTH) {
+            return null;
+        }
+        int start = in.position();
+        int length = in.getInt(start);
+        if (length <= 0 || length > in.remaining() - Journal.RECORD_HEADER_LENGTH) {
+            return null;
+        }
+        int end = start + Journal.RECORD_HEADER_LENGTH + length;
+        ByteBuffer body = in.duplicate();
+        body.position(start + Journal.RECORD_HEADER_LENGTH).limit(end);
+        crc.reset();
+        crc.update(body);
+        if ((int) crc.getValue() != in.getInt(start + 4)) {
+            return null;
+        }
+        in.position(start + Journal.RECORD_HEADER_LENGTH);
+        JournalRecord record = new JournalRecord();
+        record.lsn = in.getLong();
+        record.kind = in.get();
+        record.operationType = OPERATION_TYPES[in.get()];
+        record.amount = in.getDouble();
+        switch (record.kind) {
+            case JournalRecord.MUTATION:
+                int count = in.getShort();
+                record.accountIds = new String[count];
+                record.balances = new double[count];
+                for (int i = 0; i < count; i++) {
+                    record.accountIds[i] = getString(in);
+                    record.balances[i] = in.getDouble();
+                }
+                break;
+            case JournalRecord.DEBIT:
+                record.accountIds = new String[] {getString(in)};
+                record.balances = new double[] {in.getDouble()};
+                int legs = in.getShort();
+                record.creditAccountIds = new String[legs];
+                record.creditAmounts = new double[legs];
+                for (int i = 0; i < legs; i++) {
+                    record.creditAccountIds[i] = getString(in);
+                    record.creditAmounts[i] = in.getDouble();
+                }
+                break;
+            case JournalRecord.CREDIT:
+                record.debitLsn = in.getLong();
+                record.leg = in.getShort();
+                record.accountIds = new String[] {getString(in)};
+                record.balances = new double[] {in.getDouble()};
+                break;
+            default:
+                return null;
+        }
+        in.position(end);
+        return record;
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getShort();
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = in.getChar();
+        }
+        return new String(chars);
+    }
+
+    private static MappedByteBuffer map(File segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package atm.server.journal;
+
+import atm.server.operation.OperationType;
+
+/**
+ * One decoded journal record. Balances are after-images: replaying the records of an account
+ * in log order and keeping the last balance seen restores it, except for credits of a
+ * {@link #DEBIT} whose {@link #CREDIT} record never made it to disk.
+ */
+public class JournalRecord {
+    /** Every account the operation changed, all in one record. */
+    public static final byte MUTATION = 0;
+    /** Source side of a transfer whose credits are applied and journaled separately. */
+    public static final byte DEBIT = 1;
+    /** One credit leg of an earlier {@link #DEBIT}. */
+    public static final byte CREDIT = 2;
+
+    public long lsn;
+    public byte kind;
+    public OperationType operationType;
+    public double amount;
+    /** Accounts changed by this record and their balances right after it. */
+    public String[] accountIds;
+    public double[] balances;
+    /** DEBIT only: destination accounts and the amounts still to be credited to them. */
+    public String[] creditAccountIds;
+    public double[] creditAmounts;
+    /** CREDIT only: lsn of the debit this credit completes and the index of its leg. */
+    public long debitLsn;
+    public int leg;
+}
@@ -0,0 +1,215 @@
+package atm.server.journal;
+
+import atm.server.Account;
+import atm.server.LockOrderedTransactionEngine;
+import atm.server.Session;
+import atm.server.ShardedTransactionEngine;
+import atm.server.Transaction;
+import atm.server.TransactionEngine;
+import atm.server.operation.Operation;
+import atm.server.operation.OperationType;
+import atm.server.operation.ResultCallback;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class JournalTest {
+    private static final Account[] NONE = new Account[0];
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecordsReadBack() throws Exception {
+        File dir = folder.newFolder();
+        Account a = new Account("a", 1);
+        Account b = new Account("b-\u0436", 2);
+        a.increase(10);
+        b.increase(3);
+
+        Journal journal = new Journal(dir, 100, 16, Journal.DEFAULT_SEGMENT_SIZE);
+        assertEquals(1, journal.appendMutation(OperationType.INCREASE, 10, a, NONE));
+        assertEquals(2, journal.appendMutation(OperationType.TRANSFER_TO, 1, a, new Account[] {b}));
+        assertEquals(3, journal.appendDebit(OperationType.SPLIT_TRANSFER, 2, a, new Account[] {b, a}, new double[] {1.5, 0.5}));
+        assertEquals(4, journal.appendCredit(3, 1, OperationType.SPLIT_TRANSFER, 0.5, b));
+        final AtomicLong durableAtCommit = new AtomicLong();
+        final CountDownLatch committed = new CountDownLatch(1);
+        journal.commit(() -> {
+            durableAtCommit.set(journal.getDurableLsn());
+            committed.countDown();
+        }, () -> fail("commit failed"));
+        assertTrue(committed.await(5, TimeUnit.SECONDS));
+        assertEquals(4, durableAtCommit.get());
+        journal.close();
+
+        try (JournalReader reader = new JournalReader(dir)) {
+            JournalRecord record = reader.next();
+            assertEquals(1, record.lsn);
+            assertEquals(JournalRecord.MUTATION, record.kind);
+            assertEquals(OperationType.INCREASE, record.operationType);
+            assertArrayEquals(new String[] {"a"}, record.accountIds);
+
+            record = reader.next();
+            assertEquals(OperationType.TRANSFER_TO, record.operationType);
+            assertEquals(1, record.amount, 0);
+            assertArrayEquals(new String[] {"a", "b-\u0436"}, record.accountIds);
+            assertArrayEquals(new double[] {10, 3}, record.balances, 0);
+
+            record = reader.next();
+            assertEquals(JournalRecord.DEBIT, record.kind);
+            assertArrayEquals(new String[] {"b-\u0436", "a"}, record.creditAccountIds);
+            assertArrayEquals(new double[] {1.5, 0.5}, record.creditAmounts, 0);
+
+            record = reader.next();
+            assertEquals(JournalRecord.CREDIT, record.kind);
+            assertEquals(3, record.debitLsn);
+            assertEquals(1, record.leg);
+            assertArrayEquals(new String[] {"b-\u0436"}, record.accountIds);
+
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testTornTailIsIgnoredAndLogResumes() throws Exception {
+        File dir = folder.newFolder();
+        Account a = new Account("a", 1);
+        Journal journal = new Journal(dir, 0, 1, Journal.DEFAULT_SEGMENT_SIZE);
+        for (int i = 0; i < 3; i++) {
+            journal.appendMutation(OperationType.INCREASE, 1, a, NONE);
+        }
+        journal.close();
+        File segment = Journal.segments(dir)[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        journal = new Journal(dir, 0, 1, Journal.DEFAULT_SEGMENT_SIZE);
+        assertEquals(3, journal.appendMutation(OperationType.WITHDRAW, 1, a, NONE));
+        journal.close();
+
+        try (JournalReader reader = new JournalReader(dir)) {
+            for (long lsn = 1; lsn <= 3; lsn++) {
+                assertEquals(lsn, reader.next().lsn);
+            }
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testAfterImagesMatchShardedExecution() throws Exception {
+        File dir = folder.newFolder();
+        Journal journal = new Journal(dir, 50, 64, 64 * 1024);
+        Account[] accounts = new Account[8];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = new Account("a" + i, i + 1);
+        }
+        ShardedTransactionEngine engine = new ShardedTransactionEngine(4);
+        int transactions = 4000;
+        final CountDownLatch done = new CountDownLatch(transactions);
+        for (int i = 0; i < transactions; i++) {
+            Session session = new Session(accounts[i % accounts.length], -1, -1);
+            Operation operation = i < accounts.length
+                    ? new Operation(OperationType.INCREASE, session, 1000)
+                    : new Operation(OperationType.TRANSFER_TO, session, accounts[(i * 3 + 1) % accounts.length], 1);
+            engine.submit(new Transaction(operation, (op) -> done.countDown(), journal));
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        engine.shutdown();
+        journal.close();
+
+        Map<String, Double> replayed = new HashMap<>();
+        try (JournalReader reader = new JournalReader(dir)) {
+            JournalRecord record;
+            while ((record = reader.next()) != null) {
+                for (int i = 0; i < record.accountIds.length; i++) {
+                    replayed.put(record.accountIds[i], record.balances[i]);
+                }
+            }
+        }
+        assertTrue(Journal.segments(dir).length > 1);
+        for (Account account : accounts) {
+            assertEquals(account.getBalance(), replayed.get(account.getId()), 0);
+        }
+    }
+
+    @Test
+    public void testFailedWriteFailsEveryPendingCommit() throws Exception {
+        File dir = folder.newFolder();
+        Journal journal = new Journal(dir, 100000, 64, Journal.DEFAULT_SEGMENT_SIZE);
+        // no segment is open yet, so the first write fails to create one
+        assertTrue(dir.delete());
+        Account a = new Account("a", 1);
+        a.increase(10);
+
+        journal.appendMutation(OperationType.INCREASE, 10, a, NONE);
+        CountDownLatch failed = new CountDownLatch(2);
+        journal.commit(() -> fail("not durable"), failed::countDown);
+        journal.commit(() -> fail("not durable"), failed::countDown);
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+
+        CountDownLatch failedLater = new CountDownLatch(1);
+        journal.commit(() -> fail("not durable"), failedLater::countDown);
+        assertEquals(0, failedLater.getCount());
+        try {
+            journal.appendMutation(OperationType.INCREASE, 10, a, NONE);
+            fail("appended to a failed journal");
+        } catch (UncheckedIOException expected) {
+        }
+        try {
+            journal.close();
+            fail("close hides the failure");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testTransactionsFailWithoutChangingAccountsOnceJournalFailed() throws Exception {
+        File dir = folder.newFolder();
+        Journal journal = new Journal(dir, 0, 1, Journal.DEFAULT_SEGMENT_SIZE);
+        assertTrue(dir.delete());
+        Account a = new Account("a", 1);
+        Account b = new Account("b", 2);
+        a.increase(10);
+        CountDownLatch journalFailed = new CountDownLatch(1);
+        journal.appendMutation(OperationType.INCREASE, 10, a, NONE);
+        journal.commit(() -> fail("not durable"), journalFailed::countDown);
+        assertTrue(journalFailed.await(5, TimeUnit.SECONDS));
+
+        TransactionEngine[] engines = {new LockOrderedTransactionEngine(1), new ShardedTransactionEngine(2)};
+        for (TransactionEngine engine : engines) {
+            Operation[] operations = {
+                    new Operation(OperationType.INCREASE, new Session(a, -1, -1), 5),
+                    new Operation(OperationType.TRANSFER_TO, new Session(a, -1, -1), b, 5)};
+            for (Operation operation : operations) {
+                CompletableFuture<Boolean> acked = new CompletableFuture<>();
+                engine.submit(new Transaction(operation, new ResultCallback() {
+                    public void onOperationResult(Operation op) {
+                        acked.complete(true);
+                    }
+
+                    public void onOperationFailed(Operation op) {
+                        acked.complete(false);
+                    }
+                }, journal));
+                assertFalse(acked.get(5, TimeUnit.SECONDS));
+            }
+            engine.shutdown();
+        }
+        assertEquals(10, a.getBalance(), 0);
+        assertEquals(0, b.getBalance(), 0);
+    }
+}
@@ -0,0 +1,190 @@
+package atm.server.journal;
+
+import atm.server.StorageService;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Rebuilds account state from the latest {@link SnapshotWriter snapshot} and the journal
+ * records from its replay start on. Snapshot parts are loaded in parallel; the journal is
+ * read once and its after-images are handed to one replay worker per partition of the
+ * account ids, so every account is replayed by a single worker in log order.
+ */
+public final class Recovery {
+    private static final int BATCH_SIZE = 1024;
+    private static final int QUEUE_DEPTH = 64;
+    private static final Entries END = new Entries();
+
+    private Recovery() {}
+
+    /**
+     * @return lsn of the last journal record replayed, 0 if there was nothing to recover
+     */
+    public static long recover(File directory, StorageService storage, int threads) throws IOException, InterruptedException {
+        threads = Math.max(1, threads);
+        File[] snapshots = SnapshotWriter.snapshots(directory);
+        long replayStart = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(threads, (r) -> {
+            Thread t = new Thread(r, "atm-recovery");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            if (snapshots.length > 0) {
+                File snapshot = snapshots[snapshots.length - 1];
+                replayStart = SnapshotWriter.replayStartLsn(snapshot);
+                loadSnapshot(snapshot, storage, pool);
+            }
+            return replay(directory, replayStart, storage, threads, pool);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void loadSnapshot(File snapshot, StorageService storage, ExecutorService pool) throws IOException, InterruptedException {
+        File[] parts = snapshot.listFiles();
+        List<Future<?>> loads = new ArrayList<>();
+        for (final File part : parts) {
+            loads.add(pool.submit(() -> {
+                loadPart(part, storage);
+                return null;
+            }));
+        }
+        await(loads);
+    }
+
+    private static void loadPart(File part, StorageService storage) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (in.remaining() < 12 || in.getInt() != SnapshotWriter.MAGIC) {
+            throw new IOException("Not a snapshot part: " + part);
+        }
+        in.getLong();
+        char[] chars = new char[64];
+        while (in.hasRemaining()) {
+            int length = in.getShort();
+            if (chars.length < length) {
+                chars = new char[length];
+            }
+            for (int i = 0; i < length; i++) {
+                chars[i] = in.getChar();
+            }
+            storage.restoreAccount(new String(chars, 0, length), in.getDouble());
+        }
+    }
+
+    private static long replay(File directory, long replayStart, StorageService storage, int threads, ExecutorService pool)
+            throws IOException, InterruptedException {
+        List<BlockingQueue<Entries>> queues = new ArrayList<>();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final BlockingQueue<Entries> queue = new ArrayBlockingQueue<>(QUEUE_DEPTH);
+            queues.add(queue);
+            workers.add(pool.submit(() -> {
+                applyPartition(queue, storage);
+                return null;
+            }));
+        }
+        Entries[] batches = new Entries[threads];
+        Map<Long, JournalRecord> openDebits = new HashMap<>();
+        long last = 0;
+        try (JournalReader reader = new JournalReader(directory, replayStart)) {
+            JournalRecord record;
+            while ((record = reader.next()) != null) {
+                last = record.lsn;
+                for (int i = 0; i < record.accountIds.length; i++) {
+                    int partition = SnapshotWriter.partition(record.accountIds[i], threads);
+                    if (batches[partition] == null) {
+                        batches[partition] = new Entries();
+                    }
+                    if (batches[partition].add(record.accountIds[i], record.balances[i])) {
+                        queues.get(partition).put(batches[partition]);
+                        batches[partition] = null;
+                    }
+                }
+                if (record.kind == JournalRecord.DEBIT) {
+                    openDebits.put(record.lsn, record);
+                } else if (record.kind == JournalRecord.CREDIT) {
+                    JournalRecord debit = openDebits.get(record.debitLsn);
+                    if (debit != null) {
+                        // a credited leg is covered by the after-image of its own record
+                        debit.creditAccountIds[record.leg] = null;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < threads; i++) {
+            if (batches[i] != null) {
+                queues.get(i).put(batches[i]);
+            }
+            queues.get(i).put(END);
+        }
+        await(workers);
+        // the debit made it to disk but some credits did not: finish the transfer
+        for (JournalRecord debit : openDebits.values()) {
+            for (int leg = 0; leg < debit.creditAccountIds.length; leg++) {
+                if (debit.creditAccountIds[leg] != null) {
+                    storage.lookupAccount(debit.creditAccountIds[leg]).increase(debit.creditAmounts[leg]);
+                }
+            }
+        }
+        return last;
+    }
+
+    private static void applyPartition(BlockingQueue<Entries> queue, StorageService storage) throws InterruptedException {
+        Map<String, Double> balances = new HashMap<>();
+        Entries entries;
+        while ((entries = queue.take()) != END) {
+            for (int i = 0; i < entries.size; i++) {
+                balances.put(entries.accountIds[i], entries.balances[i]);
+            }
+        }
+        for (Map.Entry<String, Double> balance : balances.entrySet()) {
+            storage.restoreAccount(balance.getKey(), balance.getValue());
+        }
+    }
+
+    private static void await(List<Future<?>> tasks) throws IOException, InterruptedException {
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException("Recovery failed", e.getCause());
+            }
+        }
+    }
+
+    private static final class Entries {
+        final String[] accountIds = new String[BATCH_SIZE];
+        final double[] balances = new double[BATCH_SIZE];
+        int size;
+
+        /**
+         * @return true once the batch is full
+         */
+        boolean add(String accountId, double balance) {
+            accountIds[size] = accountId;
+            balances[size++] = balance;
+            return size == BATCH_SIZE;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package atm.server.journal;
+
+import atm.server.Account;
+import atm.server.Session;
+import atm.server.ShardedTransactionEngine;
+import atm.server.StorageService;
+import atm.server.Transaction;
+import atm.server.operation.Operation;
+import atm.server.operation.OperationType;
+import atm.server.operation.ResultCallback;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RecoveryTest {
+    private static final int ACCOUNTS = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSnapshotTakenUnderLoadPlusJournalRestoresState() throws Exception {
+        File dir = folder.newFolder();
+        StorageService storage = new StorageService();
+        Journal journal = new Journal(dir, 50, 64, 16 * 1024);
+        ShardedTransactionEngine engine = new ShardedTransactionEngine(4);
+        SnapshotWriter snapshots = new SnapshotWriter(dir, journal, storage, 3);
+
+        run(engine, storage, journal, 0, 3000);
+        final CountDownLatch snapshotTaken = new CountDownLatch(1);
+        Thread snapshotter = new Thread(() -> {
+            try {
+                snapshots.take();
+                snapshotTaken.countDown();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        snapshotter.start();
+        run(engine, storage, journal, 3000, 6000);
+        assertTrue(snapshotTaken.await(30, TimeUnit.SECONDS));
+        run(engine, storage, journal, 6000, 8000);
+        engine.shutdown();
+        journal.close();
+        assertEquals(1, SnapshotWriter.snapshots(dir).length);
+        assertTrue("segments before the snapshot are dropped", Journal.firstLsn(Journal.segments(dir)[0]) > 1);
+
+        StorageService recovered = new StorageService();
+        assertTrue(Recovery.recover(dir, recovered, 3) > 0);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            String id = "a" + i;
+            assertEquals(id, storage.lookupAccount(id).getBalance(), recovered.lookupAccount(id).getBalance(), 0);
+        }
+    }
+
+    @Test
+    public void testTransferMissingCreditsIsCompleted() throws Exception {
+        File dir = folder.newFolder();
+        Account a = new Account("a", 1);
+        Account b = new Account("b", 2);
+        Journal journal = new Journal(dir, 0, 1, Journal.DEFAULT_SEGMENT_SIZE);
+        a.increase(100);
+        journal.appendMutation(OperationType.INCREASE, 100, a, new Account[0]);
+        a.debit(30);
+        journal.appendDebit(OperationType.SPLIT_TRANSFER, 30, a, new Account[] {b, a}, new double[] {20, 10});
+        a.increase(10);
+        journal.appendCredit(2, 1, OperationType.SPLIT_TRANSFER, 10, a);
+        journal.close();
+
+        StorageService recovered = new StorageService();
+        assertEquals(3, Recovery.recover(dir, recovered, 2));
+        assertEquals(80, recovered.lookupAccount("a").getBalance(), 0);
+        assertEquals(20, recovered.lookupAccount("b").getBalance(), 0);
+    }
+
+    private static void run(ShardedTransactionEngine engine, StorageService storage, Journal journal, int from, int to)
+            throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(to - from);
+        for (int i = from; i < to; i++) {
+            Session session = new Session(storage.lookupAccount("a" + (i % ACCOUNTS)), -1, -1);
+            Operation operation = i % 5 == 0
+                    ? new Operation(OperationType.INCREASE, session, 10)
+                    : new Operation(OperationType.TRANSFER_TO, session, storage.lookupAccount("a" + ((i * 7 + 1) % ACCOUNTS)), 1);
+            engine.submit(new Transaction(operation, new ResultCallback() {
+                public void onOperationResult(Operation op) {
+                    done.countDown();
+                }
+
+                public void onOperationFailed(Operation op) {
+                    done.countDown();
+                }
+            }, journal));
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+    }
+}
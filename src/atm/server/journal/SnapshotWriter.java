@@ -0,0 +1,187 @@
+package atm.server.journal;
+
+import atm.server.StorageService;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes snapshots of every account balance while transactions keep running. Each account is
+ * read under its lock, so the value read is one whose journal record has been appended; the
+ * snapshot is published only once all of these records are durable. Replaying the journal
+ * from the snapshot's lsn on top of it then restores the state, whatever ran meanwhile.
+ * <pre>
+ * directory: snapshot-&lt;replay start lsn&gt;/part-&lt;i&gt;.snap, accounts spread over parts by id hash
+ * part:      magic:int replayStartLsn:long (accountId:string balance:double)*
+ * </pre>
+ */
+public class SnapshotWriter {
+    static final String SNAPSHOT_PREFIX = "snapshot-";
+    static final String TMP_SUFFIX = ".tmp";
+    static final int MAGIC = 0x41544d53;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final File directory;
+    private final Journal journal;
+    private final StorageService storage;
+    private final int parts;
+
+    public SnapshotWriter(File directory, Journal journal, StorageService storage, int parts) {
+        this.directory = directory;
+        this.journal = journal;
+        this.storage = storage;
+        this.parts = Math.max(1, parts);
+    }
+
+    /**
+     * Takes a snapshot, then drops older snapshots and the journal segments no longer needed.
+     *
+     * @return directory of the new snapshot
+     */
+    public synchronized File take() throws IOException, InterruptedException {
+        long replayStart = journal.replayStartLsn();
+        File target = new File(directory, snapshotName(replayStart));
+        if (target.isDirectory()) {
+            return target;
+        }
+        File tmp = new File(directory, target.getName() + TMP_SUFFIX);
+        deleteRecursively(tmp);
+        if (!tmp.mkdirs()) {
+            throw new IOException("Can't create " + tmp);
+        }
+        PartWriter[] writers = new PartWriter[parts];
+        try {
+            for (int i = 0; i < parts; i++) {
+                writers[i] = new PartWriter(new File(tmp, partName(i)), replayStart);
+            }
+            storage.forEachAccount((account) -> {
+                double balance;
+                account.getLock().lock();
+                try {
+                    balance = account.getBalance();
+                } finally {
+                    account.getLock().unlock();
+                }
+                writers[partition(account.getId(), parts)].write(account.getId(), balance);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (PartWriter writer : writers) {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+        }
+        CountDownLatch durable = new CountDownLatch(1);
+        AtomicBoolean failed = new AtomicBoolean();
+        journal.commit(durable::countDown, () -> {
+            failed.set(true);
+            durable.countDown();
+        });
+        durable.await();
+        if (failed.get()) {
+            throw new IOException("Journal failed before the snapshot was durable");
+        }
+        if (!tmp.renameTo(target)) {
+            throw new IOException("Can't publish snapshot " + target);
+        }
+        for (File old : snapshots(directory)) {
+            if (old.getName().compareTo(target.getName()) < 0) {
+                deleteRecursively(old);
+            }
+        }
+        journal.deleteSegmentsBefore(replayStart);
+        return target;
+    }
+
+    static String snapshotName(long replayStartLsn) {
+        return String.format("%s%020d", SNAPSHOT_PREFIX, replayStartLsn);
+    }
+
+    static String partName(int part) {
+        return "part-" + part + ".snap";
+    }
+
+    static long replayStartLsn(File snapshot) {
+        return Long.parseLong(snapshot.getName().substring(SNAPSHOT_PREFIX.length()));
+    }
+
+    /**
+     * @return the published snapshots in {@code directory}, oldest first
+     */
+    static File[] snapshots(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SNAPSHOT_PREFIX) && !name.endsWith(TMP_SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    static int partition(String accountId, int parts) {
+        int h = accountId.hashCode();
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % parts;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static final class PartWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        PartWriter(File file, long replayStartLsn) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            buffer.putInt(MAGIC);
+            buffer.putLong(replayStartLsn);
+        }
+
+        void write(String accountId, double balance) {
+            if (buffer.remaining() < 10 + accountId.length() * 2) {
+                drain();
+            }
+            buffer.putShort((short) accountId.length());
+            for (int i = 0; i < accountId.length(); i++) {
+                buffer.putChar(accountId.charAt(i));
+            }
+            buffer.putDouble(balance);
+        }
+
+        void close() throws IOException {
+            try {
+                drain();
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void drain() {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.clear();
+        }
+    }
+}
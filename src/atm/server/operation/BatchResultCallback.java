@@ -0,0 +1,8 @@
+package atm.server.operation;
+
+/**
+ * Notified once every item of a batch has either been applied or failed.
+ */
+public interface BatchResultCallback {
+    void onBatchResult(OperationBatch batch);
+}
@@ -1,5 +1,6 @@
 package atm.server.operation;
 
+import atm.server.Account;
 import atm.server.Session;
 
 /**
@@ -17,6 +18,39 @@ public class Operation {
         this.setValue(value);
     }
 
+    public Operation(OperationType optype, Session session1, double value) {
+        this(optype, session1, (Session) null, value);
+    }
+
+    /**
+     * Operation on the session account whose counterpart account is referenced directly
+     * rather than through a session.
+     */
+    public Operation(OperationType optype, Session session1, Account account2, double value) {
+        this(optype, session1, (Session) null, value);
+        this.account2 = account2;
+    }
+
+    /**
+     * Split transfer: moves {@code amounts[i]} from the session account to {@code targets[i]}
+     * for every leg, atomically.
+     */
+    public Operation(Session session1, Account[] targets, double[] amounts) {
+        if (targets.length != amounts.length) {
+            throw new IllegalArgumentException("Every target account needs an amount");
+        }
+        operationType = OperationType.SPLIT_TRANSFER;
+        this.session1 = session1;
+        this.session2 = null;
+        this.targetAccounts = targets;
+        this.amounts = amounts;
+        double total = 0;
+        for (double amount : amounts) {
+            total += amount;
+        }
+        this.setValue(total);
+    }
+
     public OperationType getOperationType() {
         return operationType;
     }
@@ -29,6 +63,24 @@ public class Operation {
         return session2;
     }
 
+    /**
+     * @return the counterpart account of a two-account operation, or null
+     */
+    public Account getAccount2() {
+        if (account2 != null) {
+            return account2;
+        }
+        return session2 != null ? session2.getAccount() : null;
+    }
+
+    public Account[] getTargetAccounts() {
+        return targetAccounts;
+    }
+
+    public double[] getAmounts() {
+        return amounts;
+    }
+
     public double getValue() {
         return value;
     }
@@ -37,8 +89,77 @@ public class Operation {
         this.value = value;
     }
 
-    protected final OperationType operationType;
-    protected final Session session1;
-    protected final Session session2;
+    public long getCorrelationId() {
+        return correlationId;
+    }
+
+    public void setCorrelationId(long correlationId) {
+        this.correlationId = correlationId;
+    }
+
+    /**
+     * {@code System.nanoTime()} when the request arrived at the server transport.
+     */
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    public void setReceivedNanos(long receivedNanos) {
+        this.receivedNanos = receivedNanos;
+    }
+
+    /**
+     * {@code System.nanoTime()} when the session was validated and the operation handed to the engine.
+     */
+    public long getValidatedNanos() {
+        return validatedNanos;
+    }
+
+    public void setValidatedNanos(long validatedNanos) {
+        this.validatedNanos = validatedNanos;
+    }
+
+    /**
+     * {@code System.nanoTime()} when an engine thread first picked the operation up.
+     */
+    public long getStartedNanos() {
+        return startedNanos;
+    }
+
+    /**
+     * Only operations stamped with {@link #setReceivedNanos} are timed.
+     */
+    public void markStarted() {
+        if (receivedNanos != 0 && startedNanos == 0) {
+            startedNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * {@code System.nanoTime()} when the source account was changed; credits to other shards
+     * and journal durability may still be outstanding.
+     */
+    public long getExecutedNanos() {
+        return executedNanos;
+    }
+
+    public void markExecuted() {
+        if (receivedNanos != 0) {
+            executedNanos = System.nanoTime();
+        }
+    }
+
+    // not final so that pooled subclasses can be reused for another request
+    protected OperationType operationType;
+    protected Session session1;
+    protected Session session2;
+    protected Account account2;
+    protected Account[] targetAccounts;
+    protected double[] amounts;
     protected double value;
+    protected long correlationId;
+    protected long receivedNanos;
+    protected long validatedNanos;
+    protected long startedNanos;
+    protected long executedNanos;
 }
@@ -0,0 +1,51 @@
+package atm.server.operation;
+
+import atm.server.Session;
+
+/**
+ * Operations of one session submitted and answered together. An item that could not be
+ * turned into an operation is kept as a null entry and answered with a NAK.
+ */
+public class OperationBatch {
+    public OperationBatch(Session session1, Operation[] operations) {
+        this.session1 = session1;
+        this.operations = operations;
+        this.acked = new boolean[operations.length];
+    }
+
+    public Session getSession1() {
+        return session1;
+    }
+
+    public int size() {
+        return operations.length;
+    }
+
+    /**
+     * @return the item at {@code index}, or null if the item was rejected
+     */
+    public Operation getOperation(int index) {
+        return operations[index];
+    }
+
+    public boolean isAcked(int index) {
+        return acked[index];
+    }
+
+    public void setAcked(int index, boolean ack) {
+        acked[index] = ack;
+    }
+
+    public long getCorrelationId() {
+        return correlationId;
+    }
+
+    public void setCorrelationId(long correlationId) {
+        this.correlationId = correlationId;
+    }
+
+    protected final Session session1;
+    protected final Operation[] operations;
+    protected final boolean[] acked;
+    protected long correlationId;
+}
@@ -8,7 +8,8 @@ package atm.server.operation;
  * To change this template use File | Settings | File Templates.
  */
 public enum OperationType {
-    TRANSFER_FROM("TF"), TRANSFER_TO("TT"), INCREASE("I"), WITHDRAW("R"), GETVALUE("GV");
+    TRANSFER_FROM("TF"), TRANSFER_TO("TT"), INCREASE("I"), WITHDRAW("R"), GETVALUE("GV"),
+    SPLIT_TRANSFER("ST");
 
     private OperationType(String operation) {
         this.operation = operation;
@@ -9,4 +9,9 @@ package atm.server.operation;
  */
 public interface ResultCallback {
     void onOperationResult(Operation operation);
+
+    /**
+     * Called instead of {@link #onOperationResult} when the operation was given up on.
+     */
+    default void onOperationFailed(Operation operation) {}
 }
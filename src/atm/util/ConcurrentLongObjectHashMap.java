@@ -0,0 +1,251 @@
+package atm.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Thread-safe counterpart of {@link LongObjectHashMap}. Keys are spread over independently
+ * locked segments, so writers only contend when they hit the same segment, and readers never
+ * lock: bucket chains are immutable apart from their values and are published through
+ * volatile array slots, so a reader always sees either the old or the new chain.
+ */
+public class ConcurrentLongObjectHashMap<V> {
+    private static final int DEFAULT_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_CAPACITY = 4;
+
+    private final Segment<V>[] segments;
+    private final int segmentShift;
+
+    public ConcurrentLongObjectHashMap() {
+        this(DEFAULT_SEGMENTS * MIN_SEGMENT_CAPACITY, DEFAULT_SEGMENTS);
+    }
+
+    public ConcurrentLongObjectHashMap(int size) {
+        this(size, DEFAULT_SEGMENTS);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongObjectHashMap(int size, int concurrencyLevel) {
+        int segmentCount = powerOfTwo(Math.max(1, concurrencyLevel));
+        int capacity = powerOfTwo(Math.max(MIN_SEGMENT_CAPACITY, (size + size / 3) / segmentCount));
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>(capacity);
+        }
+        segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+    }
+
+    public int size() {
+        long size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.count;
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    public boolean isEmpty() {
+        for (Segment<V> segment : segments) {
+            if (segment.count != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    public V get(long key) {
+        long h = hash(key);
+        return segmentFor(h).get(key, h);
+    }
+
+    public V put(long key, V value) {
+        checkValue(value);
+        long h = hash(key);
+        return segmentFor(h).put(key, h, value, false);
+    }
+
+    public V putIfAbsent(long key, V value) {
+        checkValue(value);
+        long h = hash(key);
+        return segmentFor(h).put(key, h, value, true);
+    }
+
+    public V remove(long key) {
+        long h = hash(key);
+        return segmentFor(h).remove(key, h, null);
+    }
+
+    /**
+     * Removes the entry only while the key is still mapped to the given value.
+     */
+    public boolean remove(long key, V value) {
+        checkValue(value);
+        long h = hash(key);
+        return segmentFor(h).remove(key, h, value) != null;
+    }
+
+    public void clear() {
+        for (Segment<V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public Set<Long> keySet() {
+        Set<Long> result = new HashSet<>();
+        for (Segment<V> segment : segments) {
+            segment.collectKeys(result);
+        }
+        return result;
+    }
+
+    public Collection<V> values() {
+        List<V> result = new ArrayList<>();
+        for (Segment<V> segment : segments) {
+            segment.collectValues(result);
+        }
+        return result;
+    }
+
+    private Segment<V> segmentFor(long h) {
+        return segments.length == 1 ? segments[0] : segments[(int) (h >>> segmentShift)];
+    }
+
+    private static void checkValue(Object value) {
+        if (value == null) {
+            throw new NullPointerException("null values are not supported");
+        }
+    }
+
+    // stafford variant 13 of the murmur3 finalizer: every key bit affects both the segment
+    // (high bits) and the bucket (low bits)
+    static long hash(long key) {
+        key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+        key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+        return key ^ (key >>> 31);
+    }
+
+    private static int powerOfTwo(int n) {
+        int p = Integer.highestOneBit(n);
+        return p == n ? n : p << 1;
+    }
+
+    static final class Node<V> {
+        final long key;
+        volatile V value;
+        final Node<V> next;
+
+        Node(long key, V value, Node<V> next) {
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    static final class Segment<V> {
+        private volatile AtomicReferenceArray<Node<V>> table;
+        private volatile int count;
+
+        Segment(int capacity) {
+            table = new AtomicReferenceArray<>(capacity);
+        }
+
+        V get(long key, long h) {
+            AtomicReferenceArray<Node<V>> tab = table;
+            Node<V> e = tab.get((int) h & (tab.length() - 1));
+            while (e != null) {
+                if (e.key == key) {
+                    return e.value;
+                }
+                e = e.next;
+            }
+            return null;
+        }
+
+        synchronized V put(long key, long h, V value, boolean onlyIfAbsent) {
+            AtomicReferenceArray<Node<V>> tab = table;
+            int i = (int) h & (tab.length() - 1);
+            Node<V> first = tab.get(i);
+            for (Node<V> e = first; e != null; e = e.next) {
+                if (e.key == key) {
+                    V oldValue = e.value;
+                    if (!onlyIfAbsent) {
+                        e.value = value;
+                    }
+                    return oldValue;
+                }
+            }
+            tab.set(i, new Node<>(key, value, first));
+            if (++count > tab.length() - tab.length() / 4) {
+                rehash(tab);
+            }
+            return null;
+        }
+
+        /**
+         * @param expected the value the key must map to, or null for any
+         */
+        synchronized V remove(long key, long h, V expected) {
+            AtomicReferenceArray<Node<V>> tab = table;
+            int i = (int) h & (tab.length() - 1);
+            Node<V> first = tab.get(i);
+            Node<V> e = first;
+            while (e != null && e.key != key) {
+                e = e.next;
+            }
+            if (e == null || (expected != null && e.value != expected)) {
+                return null;
+            }
+            // nodes before the removed one are copied, so concurrent readers of the old
+            // chain are not affected
+            Node<V> newFirst = e.next;
+            for (Node<V> p = first; p != e; p = p.next) {
+                newFirst = new Node<>(p.key, p.value, newFirst);
+            }
+            tab.set(i, newFirst);
+            --count;
+            return e.value;
+        }
+
+        synchronized void clear() {
+            table = new AtomicReferenceArray<>(table.length());
+            count = 0;
+        }
+
+        void collectKeys(Set<Long> dest) {
+            AtomicReferenceArray<Node<V>> tab = table;
+            for (int i = 0; i < tab.length(); i++) {
+                for (Node<V> e = tab.get(i); e != null; e = e.next) {
+                    dest.add(e.key);
+                }
+            }
+        }
+
+        void collectValues(Collection<V> dest) {
+            AtomicReferenceArray<Node<V>> tab = table;
+            for (int i = 0; i < tab.length(); i++) {
+                for (Node<V> e = tab.get(i); e != null; e = e.next) {
+                    dest.add(e.value);
+                }
+            }
+        }
+
+        private void rehash(AtomicReferenceArray<Node<V>> oldTab) {
+            AtomicReferenceArray<Node<V>> newTab = new AtomicReferenceArray<>(oldTab.length() * 2);
+            int mask = newTab.length() - 1;
+            for (int i = 0; i < oldTab.length(); i++) {
+                for (Node<V> e = oldTab.get(i); e != null; e = e.next) {
+                    int j = (int) hash(e.key) & mask;
+                    newTab.set(j, new Node<>(e.key, e.value, newTab.get(j)));
+                }
+            }
+            table = newTab;
+        }
+    }
+}
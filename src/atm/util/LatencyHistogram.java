@@ -0,0 +1,142 @@
+package atm.util;
+
+import java.io.PrintStream;
+
+/**
+ * Log-linear histogram of latencies in nanoseconds, laid out like HdrHistogram: values
+ * below 256 are counted exactly and every power of two above is split into 128 equal
+ * buckets, so any recorded value is reported within 0.8%. Recording never allocates.
+ * Not thread safe: record into one histogram per thread and {@link #add} them up.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 8;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_COUNT = SUB_COUNT >> 1;
+    private static final double[] REPORTED_PERCENTILES = {50, 90, 99, 99.9, 99.99, 100};
+
+    private final long[] counts;
+    private final long highestTrackableValue;
+    private long totalCount;
+    private long max;
+    private double sum;
+
+    /**
+     * Tracks any long value, with about 58 KB of counters.
+     */
+    public LatencyHistogram() {
+        this(Long.MAX_VALUE);
+    }
+
+    /**
+     * @param highestTrackableValue larger values are counted in the bucket of this one; the
+     *                              maximum is still reported exactly
+     */
+    public LatencyHistogram(long highestTrackableValue) {
+        this.highestTrackableValue = Math.max(SUB_COUNT, highestTrackableValue);
+        this.counts = new long[index(this.highestTrackableValue) + 1];
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[index(Math.min(value, highestTrackableValue))]++;
+        totalCount++;
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Records {@code value} measured by a caller that issues its next request only after the
+     * previous one completed, and so missed the requests it should have sent every
+     * {@code expectedInterval} meanwhile. Those are recorded as well, with the latencies they
+     * would have seen, so that a stall weighs as much as it would for an open-loop client.
+     */
+    public void recordCorrected(long value, long expectedInterval) {
+        record(value);
+        if (expectedInterval <= 0) {
+            return;
+        }
+        for (long missed = value - expectedInterval; missed >= expectedInterval; missed -= expectedInterval) {
+            record(missed);
+        }
+    }
+
+    /**
+     * Adds the counts of a histogram tracking values up to the same or a lower limit.
+     */
+    public void add(LatencyHistogram other) {
+        if (other.counts.length > counts.length) {
+            throw new IllegalArgumentException("Can't add a histogram tracking larger values");
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : sum / totalCount;
+    }
+
+    /**
+     * @return the largest value that the bucket holding the {@code percentile}th value can
+     *         hold, capped by the largest value recorded; 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Prints count, mean and the usual percentiles, in microseconds.
+     */
+    public void print(String label, PrintStream out) {
+        out.printf("%-10s count=%d mean=%.1f", label, totalCount, getMean() / 1000);
+        for (double percentile : REPORTED_PERCENTILES) {
+            out.printf(" p%s=%.1f", percentile == (long) percentile ? Long.toString((long) percentile) : Double.toString(percentile),
+                    getValueAtPercentile(percentile) / 1000.0);
+        }
+        out.println(" us");
+    }
+
+    static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return exponent * HALF_COUNT + (int) (value >>> exponent);
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int exponent = index / HALF_COUNT - 1;
+        long sub = index - (long) exponent * HALF_COUNT;
+        long upper = ((sub + 1) << exponent) - 1;
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+}
@@ -0,0 +1,64 @@
+package atm.util;
+
+import org.junit.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1000000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(1000000, histogram.getTotalCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500000.5, histogram.getMean(), 0.001);
+        assertEquals(500000, histogram.getValueAtPercentile(50), 500000 * 0.008);
+        assertEquals(990000, histogram.getValueAtPercentile(99), 990000 * 0.008);
+        assertEquals(1000000, histogram.getValueAtPercentile(100));
+        assertEquals(100, histogram.getValueAtPercentile(0.01));
+    }
+
+    @Test
+    public void testBucketsAreContiguous() {
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextLong(Long.MAX_VALUE) >>> random.nextInt(63);
+            int index = LatencyHistogram.index(value);
+            assertTrue(value <= LatencyHistogram.highestEquivalentValue(index));
+            assertTrue(index == 0 || value > LatencyHistogram.highestEquivalentValue(index - 1));
+        }
+    }
+
+    @Test
+    public void testCorrectionBackfillsMissedRequests() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.recordCorrected(1000, 10000);
+        }
+        // one 1 ms stall of a client sending every 10 us hides 99 more requests
+        histogram.recordCorrected(1000000, 10000);
+
+        assertEquals(99 + 100, histogram.getTotalCount());
+        assertTrue(histogram.getValueAtPercentile(75) > 200000);
+        assertEquals(1000, histogram.getValueAtPercentile(49), 8);
+    }
+
+    @Test
+    public void testAdd() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(10);
+        b.record(30);
+        a.add(b);
+
+        assertEquals(2, a.getTotalCount());
+        assertEquals(30, a.getMax());
+        assertEquals(20, a.getMean(), 0);
+        assertEquals(10, a.getValueAtPercentile(50));
+    }
+}
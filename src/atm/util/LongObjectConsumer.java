@@ -0,0 +1,9 @@
+package atm.util;
+
+/**
+ * Receives the mappings of a long-keyed map without boxing the key.
+ */
+@FunctionalInterface
+public interface LongObjectConsumer<V> {
+    void accept(long key, V value);
+}
@@ -96,7 +96,7 @@ public class LongObjectHashMap<V> {
     }
 
     private int index(long key) {
-        return (int) (key ^ (key >>> 32)) % data.length;
+        return ((int) (key ^ (key >>> 32)) & 0x7fffffff) % data.length;
     }
 
     private void incSize() {
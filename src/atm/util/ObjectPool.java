@@ -0,0 +1,91 @@
+package atm.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded pool of reusable objects that any thread may take from and give back to, such as
+ * objects taken on the thread receiving a request and given back on the one answering it.
+ * Backed by a fixed array with a sequence per slot (Dmitry Vyukov's bounded MPMC queue), so
+ * neither side takes a lock or allocates. The pool starts empty: callers create an object
+ * when {@link #acquire} finds none, and objects given back to a full pool are dropped.
+ */
+public final class ObjectPool<T> {
+    private final Object[] items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity objects kept at most, rounded up to a power of two
+     */
+    public ObjectPool(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be positive and at most 2^30: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        items = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * @return a pooled object, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        long position = head.get();
+        int index;
+        while (true) {
+            index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+        T item = (T) items[index];
+        items[index] = null;
+        sequences.set(index, position + items.length);
+        return item;
+    }
+
+    /**
+     * @return false if the pool is full; the object is left to the garbage collector then
+     */
+    public boolean release(T item) {
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+        items[index] = item;
+        sequences.set(index, position + 1);
+        return true;
+    }
+
+    public int getCapacity() {
+        return items.length;
+    }
+}
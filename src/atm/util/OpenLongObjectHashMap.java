@@ -0,0 +1,214 @@
+package atm.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * {@link LongObjectHashMap} without entry objects: keys and values sit in two parallel arrays
+ * and collisions are resolved by linear probing, so neither {@link #get} nor {@link #put} of
+ * an existing key allocates or chases a pointer. Keys are spread with a multiplicative hash,
+ * and removal shifts the rest of the probe run back instead of leaving tombstones.
+ * Null values are not supported, since a null value marks a free slot.
+ */
+public class OpenLongObjectHashMap<V> {
+    private static final int MIN_CAPACITY = 8;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private Object[] values;
+    private int shift;
+    private int mask;
+    private int resizeAt;
+    private int size;
+
+    public OpenLongObjectHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param size number of mappings the map holds without resizing
+     */
+    public OpenLongObjectHashMap(int size) {
+        allocate(tableSizeFor(size));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int i = index(key); ; i = (i + 1) & mask) {
+            Object value = values[i];
+            if (value == null || keys[i] == key) {
+                return (V) value;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not supported");
+        }
+        int i = index(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        for (int i = index(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                shiftBack(i);
+                size--;
+                return old;
+            }
+        }
+        return null;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Visits every mapping in table order, without boxing keys or allocating.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(LongObjectConsumer<? super V> action) {
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                action.accept(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    public Set<Long> keySet() {
+        Set<Long> result = new HashSet<>(size);
+        forEach((key, value) -> result.add(key));
+        return result;
+    }
+
+    public Collection<V> values() {
+        Collection<V> result = new ArrayList<>(size);
+        forEach((key, value) -> result.add(value));
+        return result;
+    }
+
+    public Set<LongObjectHashMap.Entry<V>> entrySet() {
+        Set<LongObjectHashMap.Entry<V>> result = new HashSet<>(size);
+        forEach((key, value) -> result.add(new SimpleEntry<>(key, value)));
+        return result;
+    }
+
+    /**
+     * Closes the gap left at {@code free} by moving back every later entry of the probe run
+     * whose home slot does not lie cyclically between the gap and the entry itself.
+     */
+    private void shiftBack(int free) {
+        for (int i = (free + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            int home = index(keys[i]);
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                keys[free] = keys[i];
+                values[free] = values[i];
+                free = i;
+            }
+        }
+        values[free] = null;
+    }
+
+    private int index(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] != null) {
+                int i = index(oldKeys[j]);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        shift = Long.numberOfLeadingZeros(mask);
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int tableSizeFor(int size) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * LOAD_FACTOR < size) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static final class SimpleEntry<V> implements LongObjectHashMap.Entry<V> {
+        private final long key;
+        private final V value;
+
+        SimpleEntry(long key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SimpleEntry)) {
+                return false;
+            }
+            SimpleEntry<?> e = (SimpleEntry<?>) o;
+            return key == e.key && value.equals(e.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(key) ^ value.hashCode();
+        }
+    }
+}
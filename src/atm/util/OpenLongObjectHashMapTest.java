@@ -0,0 +1,74 @@
+package atm.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OpenLongObjectHashMapTest {
+
+    @Test
+    public void testMatchesHashMapUnderRandomOperations() {
+        OpenLongObjectHashMap<Long> map = new OpenLongObjectHashMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            // small key range with both signs, so keys collide, repeat and get removed
+            long key = random.nextInt(4096) - 2048;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = -2048; key < 2048; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+        assertEquals(expected.keySet(), map.keySet());
+    }
+
+    @Test
+    public void testExtremeKeys() {
+        OpenLongObjectHashMap<String> map = new OpenLongObjectHashMap<>(1);
+        long[] keys = {0, -1, Long.MIN_VALUE, Long.MAX_VALUE, 1L << 32, -(1L << 32)};
+        for (long key : keys) {
+            map.put(key, Long.toString(key));
+        }
+        for (long key : keys) {
+            assertEquals(Long.toString(key), map.get(key));
+        }
+        assertNull(map.get(2));
+        assertEquals("0", map.remove(0));
+        assertFalse(map.containsKey(0));
+        assertEquals(keys.length - 1, map.size());
+    }
+
+    @Test
+    public void testForEachVisitsEveryMapping() {
+        OpenLongObjectHashMap<Long> map = new OpenLongObjectHashMap<>();
+        for (long i = 0; i < 1000; i++) {
+            map.put(i * 31, i);
+        }
+        final long[] sums = new long[2];
+        map.forEach((key, value) -> {
+            assertEquals(key, value * 31);
+            sums[0] += key;
+            sums[1]++;
+        });
+        assertEquals(31L * 999 * 1000 / 2, sums[0]);
+        assertEquals(1000, sums[1]);
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(31));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullValueRejected() {
+        new OpenLongObjectHashMap<String>().put(1, null);
+    }
+}
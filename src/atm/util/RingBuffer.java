@@ -0,0 +1,162 @@
+package atm.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Bounded multi-producer, single-consumer queue of pre-allocated entries, in the style of
+ * the LMAX Disruptor. A producer claims the next sequence with one compare-and-set, fills the
+ * entry at that sequence in place and publishes it; the consumer takes everything published
+ * so far in one go and then hands the entries back with {@link #release}. Nothing is
+ * allocated and no lock is taken on either side.
+ */
+public final class RingBuffer<E> {
+    private static final long FULL = -1;
+    private static final long PRODUCER_PARK_NANOS = 1000;
+
+    private final Object[] entries;
+    private final int mask;
+    private final int shift;
+    /** Lap of the sequence last published into each slot. */
+    private final AtomicIntegerArray published;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private final WaitStrategy waitStrategy;
+    private volatile long consumed = -1;
+    private volatile Thread parkedConsumer;
+    private volatile boolean signalled;
+
+    /**
+     * @param size number of entries, rounded up to a power of two
+     */
+    public RingBuffer(int size, Supplier<E> factory, WaitStrategy waitStrategy) {
+        if (size <= 0 || size > 1 << 30) {
+            throw new IllegalArgumentException("size must be positive and at most 2^30: " + size);
+        }
+        int capacity = Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1;
+        entries = new Object[capacity];
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = factory.get();
+        }
+        mask = capacity - 1;
+        shift = Integer.numberOfTrailingZeros(capacity);
+        published = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /**
+     * @return the claimed sequence, or -1 if the ring is full
+     */
+    public long tryClaim() {
+        long current;
+        do {
+            current = claimed.get();
+            if (current - consumed >= entries.length) {
+                return FULL;
+            }
+        } while (!claimed.compareAndSet(current, current + 1));
+        return current + 1;
+    }
+
+    /**
+     * Claims the next sequence, waiting for the consumer to make room if the ring is full.
+     */
+    public long claim() {
+        int idle = 0;
+        long sequence;
+        while ((sequence = tryClaim()) == FULL) {
+            if (waitStrategy.idle(idle++)) {
+                LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+            }
+        }
+        return sequence;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E) entries[(int) sequence & mask];
+    }
+
+    /**
+     * Makes the entry at the claimed sequence visible to the consumer.
+     */
+    public void publish(long sequence) {
+        published.set((int) sequence & mask, lap(sequence));
+        wakeConsumer();
+    }
+
+    /**
+     * Waits until {@code from} is published, or until {@link #signal} is called.
+     *
+     * @return the highest sequence such that all from {@code from} on are published, or
+     *         {@code from - 1} if woken by a signal with nothing published
+     */
+    public long waitFor(long from) {
+        int idle = 0;
+        while (true) {
+            long available = highestPublished(from);
+            if (available >= from) {
+                return available;
+            }
+            if (signalled) {
+                signalled = false;
+                return from - 1;
+            }
+            if (waitStrategy.idle(idle++)) {
+                parkedConsumer = Thread.currentThread();
+                // a producer publishing from now on sees the parked thread and wakes it
+                if (highestPublished(from) < from && !signalled) {
+                    LockSupport.park(this);
+                }
+                parkedConsumer = null;
+            }
+        }
+    }
+
+    /**
+     * @return the highest sequence such that all from {@code from} on are published, or
+     *         {@code from - 1} if {@code from} is not
+     */
+    public long highestPublished(long from) {
+        long sequence = from;
+        while (published.get((int) sequence & mask) == lap(sequence)) {
+            sequence++;
+        }
+        return sequence - 1;
+    }
+
+    /**
+     * Hands the entries up to and including {@code sequence} back to the producers; called by
+     * the consumer once it is done with them.
+     */
+    public void release(long sequence) {
+        consumed = sequence;
+    }
+
+    /**
+     * Makes the consumer's current or next {@link #waitFor} return even if nothing is published.
+     */
+    public void signal() {
+        signalled = true;
+        wakeConsumer();
+    }
+
+    private void wakeConsumer() {
+        Thread consumer = parkedConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private int lap(long sequence) {
+        return (int) (sequence >>> shift);
+    }
+}
@@ -0,0 +1,107 @@
+package atm.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class RingBufferTest {
+    private static final int PRODUCERS = 4;
+    private static final int PER_PRODUCER = 200000;
+
+    @Test
+    public void testClaimsUntilFullAndWrapsAfterRelease() {
+        RingBuffer<long[]> ring = new RingBuffer<>(3, () -> new long[1], WaitStrategy.BUSY_SPIN);
+        assertEquals(4, ring.getCapacity());
+
+        for (long i = 0; i < 4; i++) {
+            long sequence = ring.tryClaim();
+            assertEquals(i, sequence);
+            ring.get(sequence)[0] = i * 10;
+            if (i != 2) {
+                ring.publish(sequence);
+            }
+        }
+        assertEquals(-1, ring.tryClaim());
+        assertEquals("stops at the gap", 1, ring.highestPublished(0));
+        ring.publish(2);
+        assertEquals(3, ring.waitFor(0));
+        assertEquals(20, ring.get(2)[0]);
+
+        ring.release(1);
+        assertEquals(4, ring.tryClaim());
+        assertEquals(5, ring.tryClaim());
+        assertEquals(-1, ring.tryClaim());
+        assertEquals(3, ring.highestPublished(2));
+        assertSame("the same entries come round again", ring.get(0), ring.get(4));
+        ring.publish(4);
+        assertEquals(4, ring.highestPublished(4));
+    }
+
+    @Test
+    public void testSignalWakesWaitingConsumer() throws InterruptedException {
+        RingBuffer<long[]> ring = new RingBuffer<>(4, () -> new long[1], WaitStrategy.PARK);
+        Thread signaller = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            ring.signal();
+        });
+        signaller.start();
+        assertEquals(-1, ring.waitFor(0));
+        signaller.join();
+    }
+
+    @Test
+    public void testProducersHandOffEverythingInOrder() throws InterruptedException {
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            // spinning threads starve each other without a core each
+            if (strategy != WaitStrategy.BUSY_SPIN || Runtime.getRuntime().availableProcessors() > PRODUCERS) {
+                checkProducersHandOffEverythingInOrder(strategy);
+            }
+        }
+    }
+
+    private void checkProducersHandOffEverythingInOrder(WaitStrategy strategy) throws InterruptedException {
+        final RingBuffer<long[]> ring = new RingBuffer<>(64, () -> new long[2], strategy);
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < PER_PRODUCER; i++) {
+                    long sequence = ring.claim();
+                    long[] entry = ring.get(sequence);
+                    entry[0] = producer;
+                    entry[1] = i;
+                    ring.publish(sequence);
+                }
+            });
+            producers[p].start();
+        }
+
+        long[] expected = new long[PRODUCERS];
+        AtomicBoolean ordered = new AtomicBoolean(true);
+        long next = 0;
+        while (next < (long) PRODUCERS * PER_PRODUCER) {
+            long available = ring.waitFor(next);
+            for (long sequence = next; sequence <= available; sequence++) {
+                long[] entry = ring.get(sequence);
+                if (entry[1] != expected[(int) entry[0]]++) {
+                    ordered.set(false);
+                }
+            }
+            ring.release(available);
+            next = available + 1;
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertTrue(strategy.name(), ordered.get());
+        for (long count : expected) {
+            assertEquals(PER_PRODUCER, count);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package atm.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Kind of thread that runs work which spends most of its time blocked, such as an ATM waiting
+ * for its reply. Virtual threads cost a few hundred bytes while blocked instead of a stack and
+ * a kernel thread each, so tens of thousands of them can wait at once; they need Java 21, and
+ * are looked up reflectively so that the code still builds and runs on older releases.
+ */
+public enum ThreadMode {
+    /** Daemon platform threads, one kernel thread each. */
+    PLATFORM,
+    /** Virtual threads, mounted on a small carrier pool only while they run. */
+    VIRTUAL;
+
+    private static final Method OF_VIRTUAL = lookup(Thread.class, "ofVirtual");
+    private static final Method NAME = OF_VIRTUAL == null ? null : lookup(builderClass(), "name", String.class, long.class);
+    private static final Method FACTORY = OF_VIRTUAL == null ? null : lookup(builderClass(), "factory");
+    private static final Method THREAD_PER_TASK = OF_VIRTUAL == null ? null
+            : lookup(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+    /**
+     * @return false for {@link #VIRTUAL} before Java 21
+     */
+    public boolean isSupported() {
+        return this == PLATFORM || THREAD_PER_TASK != null;
+    }
+
+    /**
+     * @return factory of threads named {@code name-N}, counting from 0
+     * @throws UnsupportedOperationException if this mode is not {@link #isSupported supported}
+     */
+    public ThreadFactory factory(String name) {
+        if (this == PLATFORM) {
+            AtomicInteger count = new AtomicInteger();
+            return (r) -> {
+                Thread t = new Thread(r, name + "-" + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            };
+        }
+        checkSupported();
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name + "-", 0L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available", e);
+        }
+    }
+
+    /**
+     * @return executor running at most {@code threads} tasks at once on platform threads, or
+     *         every task at once on a virtual thread of its own; virtual threads are cheap
+     *         enough not to be pooled, so callers bound the work they submit themselves
+     */
+    public ExecutorService newExecutor(int threads, String name) {
+        if (this == PLATFORM) {
+            return Executors.newFixedThreadPool(threads, factory(name));
+        }
+        ThreadFactory factory = factory(name);
+        try {
+            return (ExecutorService) THREAD_PER_TASK.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available", e);
+        }
+    }
+
+    private void checkSupported() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21, running on "
+                    + System.getProperty("java.version"));
+        }
+    }
+
+    private static Class<?> builderClass() {
+        try {
+            return Class.forName("java.lang.Thread$Builder");
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static Method lookup(Class<?> type, String name, Class<?>... parameterTypes) {
+        if (type == null) {
+            return null;
+        }
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package atm.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class ThreadModeTest {
+    private static final int BLOCKED_TASKS = 10000;
+
+    @Test
+    public void testPlatformThreadsAreNamedDaemons() {
+        ThreadFactory factory = ThreadMode.PLATFORM.factory("atm-test");
+        Thread thread = factory.newThread(() -> { });
+        assertEquals("atm-test-0", thread.getName());
+        assertTrue(thread.isDaemon());
+        assertEquals("atm-test-1", factory.newThread(() -> { }).getName());
+    }
+
+    @Test
+    public void testVirtualThreadsRefusedWhereUnsupported() {
+        assumeTrue(!ThreadMode.VIRTUAL.isSupported());
+        try {
+            ThreadMode.VIRTUAL.factory("atm-test");
+            fail("no virtual threads before Java 21");
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void testVirtualExecutorRunsEveryBlockedTaskAtOnce() throws InterruptedException {
+        assumeTrue(ThreadMode.VIRTUAL.isSupported());
+        ExecutorService executor = ThreadMode.VIRTUAL.newExecutor(1, "atm-test");
+        CountDownLatch started = new CountDownLatch(BLOCKED_TASKS);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < BLOCKED_TASKS; i++) {
+            executor.execute(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        assertTrue("every task waits at the same time", started.await(30, TimeUnit.SECONDS));
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,147 @@
+package atm.util;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Hashed timing wheel of long keys with deadlines in {@code System.nanoTime()} terms. A key is
+ * filed in the bucket of the tick its deadline falls in, and {@link #advance} only visits the
+ * buckets of the ticks that elapsed since the previous call, so the cost of a sweep follows the
+ * number of due entries rather than the number scheduled. Deadlines further away than one lap
+ * of the wheel stay in their bucket until a later lap reaches them.
+ * <p>
+ * Any thread may schedule, including the consumer of a sweep; one thread at a time advances.
+ * A key scheduled into the bucket being swept, or for a deadline already passed, fires up to
+ * one lap late.
+ */
+public class TimerWheel {
+    private final long tickNanos;
+    private final long startNanos;
+    private final Bucket[] buckets;
+    private final int mask;
+    private volatile long nextTick;
+    private long[] dueKeys = new long[64];
+    private long[] dueDeadlines = new long[64];
+
+    /**
+     * @param wheelSize buckets, rounded up to a power of two
+     */
+    public TimerWheel(long tickNanos, int wheelSize, long startNanos) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tickNanos must be positive");
+        }
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickNanos = tickNanos;
+        this.startNanos = startNanos;
+        this.buckets = new Bucket[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    public void schedule(long key, long deadlineNanos) {
+        long tick = Math.max(tick(deadlineNanos), nextTick);
+        buckets[(int) tick & mask].add(key, deadlineNanos);
+    }
+
+    /**
+     * Passes every key whose deadline is at or before {@code nowNanos} and whose bucket was
+     * reached to {@code expired}, and forgets it.
+     *
+     * @return the number of keys passed
+     */
+    public synchronized int advance(long nowNanos, LongConsumer expired) {
+        long nowTick = tick(nowNanos);
+        if (nowTick < nextTick) {
+            return 0;
+        }
+        long to = Math.min(nowTick, nextTick + mask);
+        int count = 0;
+        for (long tick = nextTick; tick <= to; tick++) {
+            int n = buckets[(int) tick & mask].drainDue(nowNanos, this);
+            for (int i = 0; i < n; i++) {
+                expired.accept(dueKeys[i]);
+            }
+            count += n;
+        }
+        nextTick = nowTick + 1;
+        return count;
+    }
+
+    /**
+     * Visits the keys due by {@code untilNanos} ahead of time, bucket by bucket in deadline
+     * order, without moving the wheel; every key visited is forgotten unless the visitor
+     * schedules it again, which may put it in a bucket later in the same pass.
+     */
+    public synchronized void poll(long untilNanos, Visitor visitor) {
+        long to = Math.min(tick(untilNanos), nextTick + mask);
+        for (long tick = nextTick; tick <= to; tick++) {
+            int n = buckets[(int) tick & mask].drainDue(untilNanos, this);
+            boolean more = true;
+            for (int i = 0; i < n; i++) {
+                more &= visitor.visit(dueKeys[i], dueDeadlines[i]);
+            }
+            if (!more) {
+                return;
+            }
+        }
+    }
+
+    private long tick(long nanos) {
+        return Math.max(0, nanos - startNanos) / tickNanos;
+    }
+
+    private void ensureDueCapacity(int size) {
+        if (dueKeys.length < size) {
+            int length = Math.max(size, dueKeys.length * 2);
+            dueKeys = Arrays.copyOf(dueKeys, length);
+            dueDeadlines = Arrays.copyOf(dueDeadlines, length);
+        }
+    }
+
+    public interface Visitor {
+        /**
+         * @return false to stop the pass after the current bucket
+         */
+        boolean visit(long key, long deadlineNanos);
+    }
+
+    private static final class Bucket {
+        private long[] keys = new long[4];
+        private long[] deadlines = new long[4];
+        private int size;
+
+        synchronized void add(long key, long deadlineNanos) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                deadlines = Arrays.copyOf(deadlines, size * 2);
+            }
+            keys[size] = key;
+            deadlines[size] = deadlineNanos;
+            size++;
+        }
+
+        /**
+         * Moves the due entries into the wheel's scratch arrays, keeping the others in order.
+         */
+        synchronized int drainDue(long nowNanos, TimerWheel wheel) {
+            wheel.ensureDueCapacity(size);
+            int dueCount = 0;
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (nowNanos - deadlines[i] >= 0) {
+                    wheel.dueKeys[dueCount] = keys[i];
+                    wheel.dueDeadlines[dueCount] = deadlines[i];
+                    dueCount++;
+                } else {
+                    keys[kept] = keys[i];
+                    deadlines[kept] = deadlines[i];
+                    kept++;
+                }
+            }
+            size = kept;
+            return dueCount;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package atm.util;
+
+/**
+ * What a thread does while it waits on a {@link RingBuffer}: for entries to consume, or for
+ * room to publish into.
+ */
+public enum WaitStrategy {
+    /** Spins; the lowest latency, at the price of a busy core per waiting thread. */
+    BUSY_SPIN,
+    /** Spins briefly, then yields the processor between checks. */
+    YIELD,
+    /** Spins and yields briefly, then parks until woken; an idle thread costs no CPU. */
+    PARK;
+
+    private static final int SPINS = 100;
+    private static final int YIELDS = 10;
+
+    /**
+     * Backs off once, for the {@code idleCount}-th time in a row that there was nothing to do.
+     *
+     * @return true if the caller should block now rather than check again
+     */
+    public boolean idle(int idleCount) {
+        if (this == BUSY_SPIN || idleCount < SPINS) {
+            Thread.onSpinWait();
+            return false;
+        }
+        if (this == YIELD || idleCount < SPINS + YIELDS) {
+            Thread.yield();
+            return false;
+        }
+        return true;
+    }
+}
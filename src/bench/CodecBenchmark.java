@@ -0,0 +1,76 @@
+package bench;
+
+import atm.protocol.codec.AccountOperationFlyweight;
+import atm.protocol.codec.MessageCodec;
+import atm.protocol.messages.AccountOperationMessage;
+import atm.protocol.messages.LogonMessage;
+import atm.protocol.messages.ProtocolMessage;
+import atm.protocol.messages.ProtocolMessageType;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link MessageCodec} encode/decode and of the in-place flyweight read
+ * for the hot account operation messages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+    private final AccountOperationFlyweight flyweight = new AccountOperationFlyweight();
+    private AccountOperationMessage transfer;
+    private LogonMessage login;
+
+    @Setup
+    public void setup() {
+        transfer = new AccountOperationMessage();
+        transfer.messageType = ProtocolMessageType.TRANSFER_TO;
+        transfer.sourceId = 17;
+        transfer.sessionId = 123456789L;
+        transfer.amount = 200;
+        transfer.toAccountId = "test12-9999";
+
+        login = new LogonMessage();
+        login.messageType = ProtocolMessageType.LOGIN;
+        login.sourceId = 17;
+        login.userId = "test12-9999";
+        login.credentials = new byte[32];
+    }
+
+    @Benchmark
+    public int encodeOperation() {
+        buffer.clear();
+        MessageCodec.encode(transfer, buffer);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public ProtocolMessage roundTripOperation() {
+        buffer.clear();
+        MessageCodec.encode(transfer, buffer);
+        buffer.flip();
+        return MessageCodec.decode(buffer);
+    }
+
+    @Benchmark
+    public double flyweightOperation() {
+        buffer.clear();
+        MessageCodec.encode(transfer, buffer);
+        flyweight.wrap(buffer, 0);
+        return flyweight.amount() + flyweight.sessionId() + flyweight.toAccountIdLength();
+    }
+
+    @Benchmark
+    public ProtocolMessage roundTripLogin() {
+        buffer.clear();
+        MessageCodec.encode(login, buffer);
+        buffer.flip();
+        return MessageCodec.decode(buffer);
+    }
+}
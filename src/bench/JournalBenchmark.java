@@ -0,0 +1,72 @@
+package bench;
+
+import atm.server.Account;
+import atm.server.journal.Journal;
+import atm.server.operation.OperationType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journaled operations per second at several group commit windows: every operation appends
+ * one record and waits until it is durable, as an ACK does. A zero window syncs as soon as
+ * anything is pending; wider windows trade latency for fewer fsyncs, which only pays off when
+ * the disk sync is slower than the window or the record threshold ends the window early.
+ * Point {@code java.io.tmpdir} at the disk under test: on tmpfs an fsync costs nothing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class JournalBenchmark {
+    private static final Account[] NO_TARGETS = new Account[0];
+
+    @Param({"0", "100", "500", "2000"})
+    public long groupCommitMicros;
+
+    /** 16 lets a commit go out as soon as every benchmark thread has a record pending. */
+    @Param({"16", "1024"})
+    public int groupCommitRecords;
+
+    private File directory;
+    private Journal journal;
+
+    @State(Scope.Thread)
+    public static class ThreadAccount {
+        final Account account = new Account("bench-" + Thread.currentThread().getId(), Thread.currentThread().getId());
+    }
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        directory = Files.createTempDirectory("atm-journal-bench").toFile();
+        journal = new Journal(directory, groupCommitMicros, groupCommitRecords, Journal.DEFAULT_SEGMENT_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        journal.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public Object durableIncrease(ThreadAccount state) {
+        state.account.increase(1);
+        journal.appendMutation(OperationType.INCREASE, 1, state.account, NO_TARGETS);
+        CompletableFuture<Object> durable = new CompletableFuture<>();
+        journal.commit(() -> durable.complete(state), () -> durable.completeExceptionally(new IllegalStateException("Journal failed")));
+        return durable.join();
+    }
+}
@@ -0,0 +1,205 @@
+package bench;
+
+import atm.util.LongObjectHashMap;
+import atm.util.OpenLongObjectHashMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link OpenLongObjectHashMap} against the chained {@link LongObjectHashMap} and
+ * {@code HashMap<Long, V>}: lookups of present and absent keys, removals, filling a map, and
+ * visiting every mapping. {@link KeyProfile} picks how the keys collide.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LongMapBenchmark {
+    private static final int LOOKUPS = 1024;
+
+    public enum KeyProfile {
+        /** Random longs. */
+        RANDOM,
+        /** 0, 1, 2...: as session ids are issued. */
+        SEQUENTIAL,
+        /** Eight keys per value of {@code key ^ (key >>> 32)}, which both other maps hash on. */
+        FOLDED_COLLISIONS;
+
+        long key(int i, SplittableRandom random) {
+            switch (this) {
+                case SEQUENTIAL:
+                    return i;
+                case FOLDED_COLLISIONS:
+                    long high = i % 8 + 1;
+                    return (high << 32) | ((i / 8) ^ high);
+                default:
+                    return random.nextLong();
+            }
+        }
+    }
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"RANDOM", "SEQUENTIAL", "FOLDED_COLLISIONS"})
+    public KeyProfile profile;
+
+    private long[] keys;
+    private long[] absent;
+    private LongObjectHashMap<Object> chained;
+    private OpenLongObjectHashMap<Object> open;
+    private Map<Long, Object> boxed;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(7);
+        keys = new long[size];
+        absent = new long[LOOKUPS];
+        chained = new LongObjectHashMap<>(size);
+        open = new OpenLongObjectHashMap<>(size);
+        boxed = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            keys[i] = profile.key(i, random);
+            chained.put(keys[i], keys);
+            open.put(keys[i], keys);
+            boxed.put(keys[i], keys);
+        }
+        for (int i = 0; i < LOOKUPS; i++) {
+            absent[i] = profile.key(size + i, random);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void getHitChained(Blackhole bh) {
+        for (int i = 0; i < LOOKUPS; i++) {
+            bh.consume(chained.get(keys[i % size]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void getHitOpen(Blackhole bh) {
+        for (int i = 0; i < LOOKUPS; i++) {
+            bh.consume(open.get(keys[i % size]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void getHitHashMap(Blackhole bh) {
+        for (int i = 0; i < LOOKUPS; i++) {
+            bh.consume(boxed.get(keys[i % size]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void getMissChained(Blackhole bh) {
+        for (long key : absent) {
+            bh.consume(chained.get(key));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void getMissOpen(Blackhole bh) {
+        for (long key : absent) {
+            bh.consume(open.get(key));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void getMissHashMap(Blackhole bh) {
+        for (long key : absent) {
+            bh.consume(boxed.get(key));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void removeChained(Blackhole bh) {
+        for (int i = 0; i < LOOKUPS; i++) {
+            long key = keys[i % size];
+            bh.consume(chained.put(key, chained.remove(key)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void removeOpen(Blackhole bh) {
+        for (int i = 0; i < LOOKUPS; i++) {
+            long key = keys[i % size];
+            bh.consume(open.put(key, open.remove(key)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void removeHashMap(Blackhole bh) {
+        for (int i = 0; i < LOOKUPS; i++) {
+            long key = keys[i % size];
+            bh.consume(boxed.put(key, boxed.remove(key)));
+        }
+    }
+
+    @Benchmark
+    public Object fillChained() {
+        LongObjectHashMap<Object> map = new LongObjectHashMap<>(16);
+        for (long key : keys) {
+            map.put(key, keys);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public Object fillOpen() {
+        OpenLongObjectHashMap<Object> map = new OpenLongObjectHashMap<>();
+        for (long key : keys) {
+            map.put(key, keys);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public Object fillHashMap() {
+        Map<Long, Object> map = new HashMap<>();
+        for (long key : keys) {
+            map.put(key, keys);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public long iterateChained() {
+        long sum = 0;
+        for (long key : chained.keySet()) {
+            sum += key;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long iterateOpen() {
+        final long[] sum = new long[1];
+        open.forEach((key, value) -> sum[0] += key);
+        return sum[0];
+    }
+
+    @Benchmark
+    public long iterateHashMap() {
+        long sum = 0;
+        for (long key : boxed.keySet()) {
+            sum += key;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,52 @@
+package bench;
+
+import atm.server.ServerMetrics;
+import atm.server.operation.Operation;
+import atm.server.operation.OperationType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording one completed request into {@link ServerMetrics}: the counter, the reads
+ * of the clock and the five stage and one per-type histogram samples, from several threads.
+ * Run with {@code -prof gc} to confirm that recording allocates nothing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+    @Param({"true", "false"})
+    public boolean enabled;
+
+    private ServerMetrics metrics;
+
+    @State(Scope.Thread)
+    public static class Request {
+        Operation operation;
+
+        @Setup
+        public void create() {
+            operation = new Operation(OperationType.TRANSFER_TO, null, 1);
+            long now = System.nanoTime();
+            operation.setReceivedNanos(now - 30000);
+            operation.setValidatedNanos(now - 20000);
+            operation.markStarted();
+            operation.markExecuted();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        metrics = new ServerMetrics(enabled);
+    }
+
+    @Benchmark
+    public void recordCompleted(Request request) {
+        metrics.recordCompleted(request.operation);
+    }
+}
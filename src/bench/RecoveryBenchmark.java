@@ -0,0 +1,76 @@
+package bench;
+
+import atm.server.Account;
+import atm.server.StorageService;
+import atm.server.journal.Journal;
+import atm.server.journal.Recovery;
+import atm.server.journal.SnapshotWriter;
+import atm.server.operation.OperationType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restart time: loading a snapshot of {@code accounts} accounts and replaying the journal
+ * written after it (one record per ten accounts) into an empty {@link StorageService}.
+ * 10M accounts need a heap of about 4g.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class RecoveryBenchmark {
+    private static final Account[] NO_TARGETS = new Account[0];
+
+    @Param({"1000000", "10000000"})
+    public int accounts;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private File directory;
+
+    @Setup(Level.Trial)
+    public void write() throws IOException, InterruptedException {
+        directory = Files.createTempDirectory("atm-recovery-bench").toFile();
+        StorageService storage = new StorageService();
+        for (int i = 0; i < accounts; i++) {
+            storage.restoreAccount("acct-" + i, i % 1000);
+        }
+        Journal journal = new Journal(directory, 1000, 4096, Journal.DEFAULT_SEGMENT_SIZE);
+        new SnapshotWriter(directory, journal, storage, threads).take();
+        for (int i = 0; i < accounts; i += 10) {
+            Account account = storage.lookupAccount("acct-" + i);
+            account.increase(1);
+            journal.appendMutation(OperationType.INCREASE, 1, account, NO_TARGETS);
+        }
+        journal.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public StorageService recover() throws IOException, InterruptedException {
+        StorageService storage = new StorageService();
+        Recovery.recover(directory, storage, threads);
+        return storage;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
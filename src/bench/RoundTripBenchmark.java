@@ -0,0 +1,134 @@
+package bench;
+
+import atm.client.ATM;
+import atm.protocol.ClientConnection;
+import atm.protocol.CallbackConnection;
+import atm.protocol.impls.InProcessConnectionImpl;
+import atm.protocol.impls.NioClientConnection;
+import atm.protocol.impls.NioEventLoopGroup;
+import atm.protocol.impls.NioServerConnection;
+import atm.protocol.impls.ServerConnectionProxy;
+import atm.protocol.impls.ServerConnectionStub;
+import atm.server.ExecutionMode;
+import atm.server.ProcessingService;
+import atm.server.ServerConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Full request path: {@link ATM} to {@code ClientTransport}, over the transport, through
+ * {@code ServerTransport} and {@link ProcessingService} and back, one blocking call at a
+ * time per benchmark thread. Reports throughput and the latency distribution with its
+ * percentiles, for the in-process transport and for localhost TCP, with server metrics
+ * recording and without to show what the instrumentation costs, and with the shards fed
+ * through executor queues or through ring buffers.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+    public enum Transport {
+        IN_PROCESS, NIO
+    }
+
+    @Param({"IN_PROCESS", "NIO"})
+    public Transport transport;
+
+    @Param({"true", "false"})
+    public boolean metrics;
+
+    @Param({"SHARDED", "RING_BUFFER"})
+    public ExecutionMode executionMode;
+
+    private final AtomicInteger clients = new AtomicInteger();
+    /** Logged out by {@link #stop}: the trial teardown may run before that of the client states. */
+    private final Queue<ATM> atms = new ConcurrentLinkedQueue<>();
+    private ProcessingService service;
+    private ServerConnectionStub stub;
+    private NioServerConnection server;
+    private NioEventLoopGroup clientGroup;
+
+    @State(Scope.Thread)
+    public static class Client {
+        ATM atm;
+        String peer;
+
+        @Setup
+        public void login(RoundTripBenchmark benchmark) {
+            int client = benchmark.clients.getAndIncrement();
+            String id = "bench-" + client;
+            peer = "bench-peer-" + client;
+            atm = new ATM(benchmark.connect());
+            atm.login(id, id.getBytes());
+            atm.increase(1e12);
+            benchmark.atms.add(atm);
+        }
+    }
+
+    @Setup
+    public void start() throws IOException {
+        CallbackConnection connection;
+        if (transport == Transport.NIO) {
+            server = new NioServerConnection(new InetSocketAddress("localhost", 0), 2);
+            connection = server;
+        } else {
+            stub = new ServerConnectionStub();
+            connection = stub;
+        }
+        ServerConfig config = new ServerConfig();
+        config.metricsEnabled = metrics;
+        config.executionMode = executionMode;
+        config.jmxEnabled = false;
+        config.allowUnknownUsers = true;
+        service = new ProcessingService(connection, config);
+        if (server != null) {
+            server.start();
+            clientGroup = new NioEventLoopGroup(2, "atm-client-io");
+        }
+    }
+
+    @TearDown
+    public void stop() throws IOException {
+        ATM atm;
+        while ((atm = atms.poll()) != null) {
+            atm.logout();
+        }
+        if (server != null) {
+            clientGroup.shutdown();
+            server.close();
+        }
+        service.shutdown();
+    }
+
+    ClientConnection connect() {
+        if (transport == Transport.NIO) {
+            return new NioClientConnection(new InetSocketAddress("localhost", server.getLocalPort()), clientGroup);
+        }
+        return new InProcessConnectionImpl(new ServerConnectionProxy(stub));
+    }
+
+    @Benchmark
+    public void increase(Client client) {
+        client.atm.increase(1);
+    }
+
+    @Benchmark
+    public double getAccountValue(Client client) {
+        return client.atm.getAccountValue();
+    }
+
+    @Benchmark
+    public void transferTo(Client client) {
+        client.atm.transferTo(1, client.peer);
+    }
+}
@@ -0,0 +1,76 @@
+package bench;
+
+import atm.server.AccountType;
+import atm.server.MappedAccountStore;
+import atm.server.ServerConfig;
+import atm.server.Session;
+import atm.server.StorageService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StorageService} lookups from several threads: transfer destinations through the
+ * destination cache, which holds all accounts when there are few and misses mostly when there
+ * are many, and sessions by id.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class StorageServiceBenchmark {
+    @Param({"1000", "1000000"})
+    public int accounts;
+
+    @Param({"HEAP_DOUBLE", "MAPPED"})
+    public AccountType accountType;
+
+    private String[] ids;
+    private StorageService storage;
+    private MappedAccountStore store;
+    private File storeFile;
+
+    @State(Scope.Thread)
+    public static class Picker {
+        final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        if (accountType == AccountType.MAPPED) {
+            storeFile = File.createTempFile("atm-storage-bench", ".map");
+            storeFile.delete();
+            store = new MappedAccountStore(storeFile, accounts * 2L);
+        }
+        storage = new StorageService(accountType, ServerConfig.DEFAULT_DESTINATION_CACHE_SIZE, store);
+        ids = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            ids[i] = "bench-" + i;
+            storage.createSessionById(i, ids[i], 1);
+        }
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        if (store != null) {
+            store.close();
+            storeFile.delete();
+        }
+    }
+
+    @Benchmark
+    public Object lookupAccount(Picker picker) {
+        return storage.lookupAccount(ids[picker.random.nextInt(accounts)]);
+    }
+
+    @Benchmark
+    public Session lookupSession(Picker picker) {
+        return storage.lookupSession(picker.random.nextInt(accounts));
+    }
+}
@@ -0,0 +1,93 @@
+package bench;
+
+import atm.client.ATM;
+import atm.protocol.impls.InProcessConnectionImpl;
+import atm.protocol.impls.ServerConnectionProxy;
+import atm.protocol.impls.ServerConnectionStub;
+import atm.server.ExecutionMode;
+import atm.server.ProcessingService;
+import atm.server.ServerConfig;
+import atm.util.ThreadMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many terminals, each an {@link ATM} blocked on its own thread until its reply arrives, as
+ * a real terminal or a simulated one would be. One round lets every terminal make a deposit
+ * and waits until all of them got their ACK, so the score is the time to serve the whole
+ * population once. Terminals and the server's workers ({@link ExecutionMode#LOCK_ORDERED})
+ * run on platform threads or on virtual threads; VIRTUAL needs Java 21 and fails its setup
+ * on older releases.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TerminalsBenchmark {
+    @Param({"PLATFORM", "VIRTUAL"})
+    public ThreadMode threadMode;
+
+    @Param({"24", "1000", "50000"})
+    public int terminals;
+
+    private ProcessingService service;
+    private ATM[] atms;
+    /** Terminals and the benchmark thread meet here at the start and at the end of a round. */
+    private Phaser rounds;
+    private volatile boolean stopped;
+
+    @Setup
+    public void start() {
+        ServerConfig config = new ServerConfig();
+        config.executionMode = ExecutionMode.LOCK_ORDERED;
+        config.workerThreads = threadMode;
+        config.maxQueuedWrites = Math.max(config.maxQueuedWrites, terminals);
+        config.jmxEnabled = false;
+        config.allowUnknownUsers = true;
+        ServerConnectionStub stub = new ServerConnectionStub();
+        service = new ProcessingService(stub, config);
+
+        ThreadFactory factory = threadMode.factory("atm-terminal");
+        rounds = new Phaser(terminals + 1);
+        atms = new ATM[terminals];
+        for (int i = 0; i < terminals; i++) {
+            ATM atm = new ATM(new InProcessConnectionImpl(new ServerConnectionProxy(stub)));
+            String id = "terminal-" + i;
+            atm.login(id, id.getBytes());
+            atms[i] = atm;
+            factory.newThread(() -> serve(atm)).start();
+        }
+    }
+
+    private void serve(ATM atm) {
+        while (true) {
+            rounds.arriveAndAwaitAdvance();
+            if (stopped) {
+                return;
+            }
+            atm.increase(1);
+            rounds.arriveAndAwaitAdvance();
+        }
+    }
+
+    @TearDown
+    public void stop() {
+        stopped = true;
+        rounds.arriveAndAwaitAdvance();
+        for (ATM atm : atms) {
+            atm.logout();
+        }
+        service.shutdown();
+    }
+
+    @Benchmark
+    public void round() {
+        rounds.arriveAndAwaitAdvance();
+        rounds.arriveAndAwaitAdvance();
+    }
+}
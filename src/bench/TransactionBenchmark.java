@@ -0,0 +1,82 @@
+package bench;
+
+import atm.server.Account;
+import atm.server.AccountType;
+import atm.server.ServerConfig;
+import atm.server.Session;
+import atm.server.StorageService;
+import atm.server.Transaction;
+import atm.server.TransactionException;
+import atm.server.operation.Operation;
+import atm.server.operation.OperationType;
+import atm.server.operation.ResultCallback;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Transaction#execute} of every {@link OperationType} on the calling thread, with
+ * contention set by the number of accounts the benchmark threads pick from at random: with
+ * one account every operation fights for the same lock, with thousands almost none do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class TransactionBenchmark {
+    private static final double INITIAL_BALANCE = 1e12;
+    private static final ResultCallback NO_CALLBACK = (operation) -> {};
+
+    @Param({"TRANSFER_FROM", "TRANSFER_TO", "INCREASE", "WITHDRAW", "GETVALUE", "SPLIT_TRANSFER"})
+    public OperationType operationType;
+
+    @Param({"1", "16", "4096"})
+    public int accounts;
+
+    @Param({"HEAP_DOUBLE", "ATOMIC_CENTS"})
+    public AccountType accountType;
+
+    private Session[] sessions;
+    private Account[] targets;
+
+    @State(Scope.Thread)
+    public static class Picker {
+        final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Setup
+    public void setup() {
+        StorageService storage = new StorageService(accountType, ServerConfig.DEFAULT_DESTINATION_CACHE_SIZE);
+        sessions = new Session[accounts];
+        targets = new Account[accounts];
+        for (int i = 0; i < accounts; i++) {
+            targets[i] = storage.restoreAccount("bench-" + i, INITIAL_BALANCE);
+            sessions[i] = new Session(targets[i], -1, -1);
+        }
+    }
+
+    @Benchmark
+    public Operation execute(Picker picker) throws TransactionException {
+        Session session = sessions[picker.random.nextInt(accounts)];
+        Operation operation;
+        switch (operationType) {
+            case TRANSFER_TO:
+            case TRANSFER_FROM:
+                operation = new Operation(operationType, session, targets[picker.random.nextInt(accounts)], 1);
+                break;
+            case SPLIT_TRANSFER:
+                operation = new Operation(session,
+                        new Account[] {targets[picker.random.nextInt(accounts)], targets[picker.random.nextInt(accounts)]},
+                        new double[] {1, 1});
+                break;
+            default:
+                operation = new Operation(operationType, session, 1);
+        }
+        new Transaction(operation, NO_CALLBACK).execute();
+        return operation;
+    }
+}
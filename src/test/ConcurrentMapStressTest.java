@@ -0,0 +1,100 @@
+package test;
+
+import atm.util.ConcurrentLongObjectHashMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Session-table style contention on {@link ConcurrentLongObjectHashMap}: every writer logs
+ * sessions in and out on its own key range while readers keep resolving a set of long-lived
+ * sessions that must never disappear.
+ */
+public class ConcurrentMapStressTest {
+    public static final int WRITER_NUM = 16;
+    public static final int READER_NUM = 8;
+    public static final int QUEUE_DEPTH = 100000;
+    public static final int STABLE_KEYS = 10000;
+
+    private Executor executor = Executors.newFixedThreadPool(WRITER_NUM + READER_NUM);
+    private CyclicBarrier startBarrier = new CyclicBarrier(WRITER_NUM + READER_NUM);
+    private CountDownLatch writersLatch = new CountDownLatch(WRITER_NUM);
+    private CountDownLatch readersLatch = new CountDownLatch(READER_NUM);
+    private AtomicInteger failures = new AtomicInteger();
+    private ConcurrentLongObjectHashMap<Long> map;
+
+    @Before
+    public void init() {
+        map = new ConcurrentLongObjectHashMap<>();
+        for (long i = 0; i < STABLE_KEYS; i++) {
+            map.put(stableKey(i), i);
+        }
+    }
+
+    @Test
+    public void testConcurrentAccess() throws InterruptedException {
+        System.out.println("Test started...");
+
+        long startTime = System.nanoTime();
+
+        for (int i = 0; i < WRITER_NUM; i++) {
+            final long writerId = i;
+            executor.execute(() -> {
+                await();
+                for (long j = 0; j < QUEUE_DEPTH; j++) {
+                    long key = (writerId << 32) | j;
+                    map.put(key, j);
+                    if (!Long.valueOf(j).equals(map.get(key))) {
+                        failures.incrementAndGet();
+                    }
+                    if (j % 2 == 0 && !Long.valueOf(j).equals(map.remove(key))) {
+                        failures.incrementAndGet();
+                    }
+                }
+                writersLatch.countDown();
+            });
+        }
+        for (int i = 0; i < READER_NUM; i++) {
+            executor.execute(() -> {
+                await();
+                long j = 0;
+                while (writersLatch.getCount() > 0) {
+                    long id = j++ % STABLE_KEYS;
+                    if (!Long.valueOf(id).equals(map.get(stableKey(id)))) {
+                        failures.incrementAndGet();
+                    }
+                }
+                readersLatch.countDown();
+            });
+        }
+
+        writersLatch.await();
+        readersLatch.await();
+
+        assertEquals(0, failures.get());
+        assertEquals(STABLE_KEYS + WRITER_NUM * QUEUE_DEPTH / 2, map.size());
+        for (long i = 0; i < WRITER_NUM; i++) {
+            for (long j = 0; j < QUEUE_DEPTH; j++) {
+                assertEquals(j % 2 == 0 ? null : Long.valueOf(j), map.get((i << 32) | j));
+            }
+        }
+
+        System.out.printf("Elapsed %.3f secs", (System.nanoTime() - startTime)/1000000000.0);
+    }
+
+    private void await() {
+        try {
+            startBarrier.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static long stableKey(long i) {
+        return -1 - i;
+    }
+}
@@ -1,6 +1,7 @@
 package test;
 import atm.client.ATM;
 import atm.server.ProcessingService;
+import atm.server.ServerConfig;
 import atm.protocol.ClientConnection;
 import atm.protocol.impls.ServerConnectionProxy;
 import atm.protocol.impls.InProcessConnectionImpl;
@@ -32,7 +33,10 @@ public class MultiATMTest {
     @Before
     public void init() {
         ServerConnectionStub stub = new ServerConnectionStub();
-        ProcessingService service = new ProcessingService(stub);
+        ServerConfig config = new ServerConfig();
+        // the ATMs log in as users nobody enrolled
+        config.allowUnknownUsers = true;
+        ProcessingService service = new ProcessingService(stub, config);
         for (int i = 0; i < QUEUE_NUM; i++) {
             atms[i] = createATM(stub);
         }
@@ -0,0 +1,120 @@
+package test;
+
+import atm.client.ATM;
+import atm.protocol.messages.AccountOperationMessage;
+import atm.protocol.messages.BatchMessage;
+import atm.protocol.messages.ProtocolMessageType;
+import atm.protocol.impls.NioClientConnection;
+import atm.protocol.impls.NioEventLoopGroup;
+import atm.protocol.impls.NioServerConnection;
+import atm.server.ProcessingService;
+import atm.server.ServerConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link MultiATMTest} scenario over localhost TCP: all ATMs share two client selector
+ * threads and the server serves them from two.
+ */
+public class NioMultiATMTest {
+    public static final int QUEUE_NUM = 24;
+    public static final int QUEUE_DEPTH = 200;
+    public static final double ACCOUNT_VALUE = 10000;
+
+    private ExecutorService executor = Executors.newFixedThreadPool(QUEUE_NUM);
+    private ATM[] atms = new ATM[QUEUE_NUM];
+    private CyclicBarrier startBarrier = new CyclicBarrier(QUEUE_NUM);
+    private CountDownLatch finishLatch = new CountDownLatch(QUEUE_NUM);
+    private NioServerConnection server;
+    private ProcessingService service;
+    private NioEventLoopGroup clientGroup;
+
+    @Before
+    public void init() throws IOException {
+        server = new NioServerConnection(new InetSocketAddress("localhost", 0), 2);
+        ServerConfig config = new ServerConfig();
+        // the ATMs log in as users nobody enrolled
+        config.allowUnknownUsers = true;
+        service = new ProcessingService(server, config);
+        server.start();
+        clientGroup = new NioEventLoopGroup(2, "atm-client-io");
+        InetSocketAddress address = new InetSocketAddress("localhost", server.getLocalPort());
+        for (int i = 0; i < QUEUE_NUM; i++) {
+            atms[i] = new ATM(new NioClientConnection(address, clientGroup));
+        }
+    }
+
+    @After
+    public void cleanUp() throws IOException {
+        executor.shutdown();
+        clientGroup.shutdown();
+        server.close();
+        service.shutdown();
+    }
+
+    @Test
+    public void testMultiAtms() throws InterruptedException {
+        System.out.println("Test started...");
+
+        long startTime = System.nanoTime();
+
+        for (int i = 0; i < QUEUE_NUM; i++) {
+            executor.execute(new ActorQueue(finishLatch, startBarrier, atms[i], i, QUEUE_NUM, QUEUE_DEPTH));
+        }
+
+        assertTrue(finishLatch.await(120, TimeUnit.SECONDS));
+
+        for (int i = 0; i < QUEUE_NUM; i++) {
+            for (int j = 0; j < QUEUE_DEPTH; j++) {
+                String id = "test" + i + "-" + j;
+                ATM atm = atms[0];
+                atm.login(id, id.getBytes());
+                double value = atm.getAccountValue();
+
+                assertEquals("Test failed for account " + id, ACCOUNT_VALUE, value, 0.00000001);
+
+                atm.logout();
+            }
+        }
+
+        System.out.printf("Elapsed %.3f secs", (System.nanoTime() - startTime)/1000000000.0);
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        ATM atm = atms[0];
+        atm.login("batch", "batch".getBytes());
+        AccountOperationMessage[] items = new AccountOperationMessage[QUEUE_DEPTH + 2];
+        items[0] = item(ProtocolMessageType.INCREASE, ACCOUNT_VALUE, null);
+        for (int i = 1; i <= QUEUE_DEPTH; i++) {
+            items[i] = item(ProtocolMessageType.TRANSFER_TO, i == QUEUE_DEPTH ? ACCOUNT_VALUE : 1, "batch-" + i);
+        }
+        items[QUEUE_DEPTH + 1] = item(ProtocolMessageType.GETVALUE, 0, null);
+
+        BatchMessage result = atm.submitBatchAsync(items).get(30, TimeUnit.SECONDS);
+
+        assertEquals(items.length, result.operations.length);
+        for (int i = 0; i < QUEUE_DEPTH; i++) {
+            assertEquals("item " + i, ProtocolMessageType.ACK, result.operations[i].messageType);
+        }
+        assertEquals(ProtocolMessageType.NAK, result.operations[QUEUE_DEPTH].messageType);
+        assertEquals(ProtocolMessageType.GETVALUE, result.operations[QUEUE_DEPTH + 1].messageType);
+        assertEquals(ACCOUNT_VALUE - (QUEUE_DEPTH - 1), result.operations[QUEUE_DEPTH + 1].amount, 0.00000001);
+        atm.logout();
+    }
+
+    private static AccountOperationMessage item(ProtocolMessageType type, double amount, String toAccountId) {
+        AccountOperationMessage item = new AccountOperationMessage();
+        item.messageType = type;
+        item.amount = amount;
+        item.toAccountId = toAccountId;
+        return item;
+    }
+}